@@ -13,6 +13,11 @@ public interface BBBAPI {
 
     String getSalt();
 
+    /**
+     * The same API, for another BBB server
+     **/
+    BBBAPI forServer(String url, String salt);
+
     BBBMeeting createMeeting(BBBMeeting meeting, boolean autoclose, boolean recordingenabled, boolean recordingreadynotification, boolean preuploadpresentation)
             throws BBBException;
 
@@ -23,6 +28,11 @@ public interface BBBAPI {
      **/
     Map<String, Object> getMeetingInfo(String meetingID, String password) throws BBBException;
 
+    /**
+     * Get live information of all meetings running on BBB server
+     **/
+    Map<String, Object> getMeetings() throws BBBException;
+
     Map<String, Object> getRecordings(String meetingID) throws BBBException;
 
     boolean endMeeting(String meetingID, String password) throws BBBException;
@@ -37,4 +47,14 @@ public interface BBBAPI {
 
     void makeSureMeetingExists(BBBMeeting meeting, boolean autoclose, boolean recordingenabled, boolean recordingreadynotification, boolean preuploadpresentation)
             throws BBBException;
+
+    /**
+     * Statistics of the HTTP connection pool used to reach the BBB server
+     **/
+    Map<String, Long> getHttpTransportStats();
+
+    /**
+     * Circuit breaker state of the BBB server and concurrent calls per call type
+     **/
+    Map<String, Long> getCallStats();
 }
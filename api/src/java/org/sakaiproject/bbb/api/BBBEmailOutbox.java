@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api;
+
+import java.util.Date;
+import java.util.List;
+
+import org.sakaiproject.bbb.api.storage.BBBEmail;
+
+/**
+ * Storage of the email notifications waiting to be sent. Any node can send
+ * them: an email is claimed by a node before being sent, so it is sent once.
+ */
+public interface BBBEmailOutbox {
+
+    void enqueue(List<BBBEmail> emails);
+
+    /**
+     * Claim up to max emails due for sending for the given node, oldest due
+     * first.
+     */
+    List<BBBEmail> claim(String nodeId, int max);
+
+    /** Sent, remove it from the outbox */
+    void sent(String emailId);
+
+    /**
+     * Sent, but it could not be removed from the outbox: flag it so that it
+     * is never claimed again. Returns false if it is no longer in the outbox.
+     */
+    boolean markSent(String emailId);
+
+    /** Failed, try again at the given time */
+    void retry(String emailId, int attempts, Date nextAttempt, String error);
+
+    /** Failed for good, keep it for inspection until purged */
+    void failed(String emailId, int attempts, String error);
+
+    /**
+     * Release the emails claimed before the given date and not sent since,
+     * e.g. by a node that went down. Returns the number of emails released.
+     */
+    int releaseClaims(Date claimedBefore);
+
+    /**
+     * Remove the emails given up on before the given date, and those sent
+     * but not removed. Returns the number of emails removed.
+     */
+    int purge(Date failedBefore);
+
+    /** Number of emails waiting to be sent */
+    long countPending();
+}
@@ -33,6 +33,8 @@ public class BBBException extends Exception {
 	public static final String  MESSAGEKEY_UNREACHABLE          = "unreachableServerError";
 	public static final String  MESSAGEKEY_INVALIDRESPONSE      = "invalidResponseError";
 	public static final String  MESSAGEKEY_GENERALERROR         = "generalError";
+	/** The call never left this node: too many concurrent calls, or no free pooled connection */
+	public static final String  MESSAGEKEY_OVERLOADED           = "overloadedError";
 
 	private String messageKey;
 
@@ -17,8 +17,10 @@
 package org.sakaiproject.bbb.api;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.sakaiproject.bbb.api.BBBException;
 import org.sakaiproject.bbb.api.storage.BBBMeeting;
@@ -52,6 +54,7 @@ public interface BBBMeetingManager {
     public final static String CFG_DEFAULT_OWNER = "bbb.default.participants.owner";
     public final static String CFG_AUTOREFRESHMEETINGS = "bbb.autorefresh.meetings";
     public final static String CFG_AUTOREFRESHRECORDINGS = "bbb.autorefresh.recordings";
+    public final static String CFG_MEETINGS_PAGESIZE = "bbb.meetings.pageSize";
     public final static String CFG_RECORDING_ENABLED = "bbb.recording.enabled";
     public final static String CFG_RECORDING_EDITABLE = "bbb.recording.editable";
     public final static String CFG_RECORDING_DEFAULT = "bbb.recording.default";
@@ -75,6 +78,43 @@ public interface BBBMeetingManager {
     public final static String CFG_RECORDINGFORMATFILTER_ENABLED = "bbb.recordingformatfilter.enabled";
     public final static String CFG_RECORDINGFORMATFILTER_WHITELIST = "bbb.recordingformatfilter.whitelist";
     public final static String CFG_CHECKICALOPTION = "bbb.checkicaloption";
+    public final static String CFG_HTTP_MAXCONNECTIONS = "bbb.http.maxConnections";
+    public final static String CFG_HTTP_MAXCONNECTIONSPERHOST = "bbb.http.maxConnectionsPerHost";
+    public final static String CFG_HTTP_CONNECTTIMEOUT = "bbb.http.connectTimeout";
+    public final static String CFG_HTTP_READTIMEOUT = "bbb.http.readTimeout";
+    public final static String CFG_HTTP_POOLTIMEOUT = "bbb.http.poolTimeout";
+    public final static String CFG_HTTP_IDLETIMEOUT = "bbb.http.idleTimeout";
+    public final static String CFG_CREATE_CACHETTL = "bbb.create.cacheTtl";
+    public final static String CFG_GETMEETINGS_CACHETTL = "bbb.getMeetings.cacheTtl";
+    public final static String CFG_MEETINGINFO_CACHETTL = "bbb.meetingInfo.cacheTtl";
+    public final static String CFG_MEETINGINFO_STALETTL = "bbb.meetingInfo.staleTtl";
+    public final static String CFG_MEETINGINFO_CACHESIZE = "bbb.meetingInfo.cacheSize";
+    public final static String CFG_RECORDINGS_PAGESIZE = "bbb.recordings.pageSize";
+    public final static String CFG_RECORDINGS_THREADS = "bbb.recordings.threads";
+    public final static String CFG_RECORDINGS_TIMEOUT = "bbb.recordings.timeout";
+    public final static String CFG_RECORDINGS_SYNCINTERVAL = "bbb.recordings.syncInterval";
+    public final static String CFG_RECORDINGS_SYNCMAXAGE = "bbb.recordings.syncMaxAge";
+    public final static String CFG_RECORDINGS_SYNCBATCHSIZE = "bbb.recordings.syncBatchSize";
+    public final static String CFG_RECORDINGS_SYNCWATCHTIME = "bbb.recordings.syncWatchTime";
+    public final static String CFG_RECORDINGS_SYNCWATCHINTERVAL = "bbb.recordings.syncWatchInterval";
+    public final static String CFG_WAITINGROOM_POLLINTERVAL = "bbb.waitingRoom.pollInterval";
+    public final static String CFG_WAITINGROOM_TIMEOUT = "bbb.waitingRoom.timeout";
+    public final static String CFG_SERVERS_URL = "bbb.servers.url";
+    public final static String CFG_SERVERS_SALT = "bbb.servers.salt";
+    public final static String CFG_CIRCUITBREAKER_FAILURETHRESHOLD = "bbb.circuitBreaker.failureThreshold";
+    public final static String CFG_CIRCUITBREAKER_OPENTIME = "bbb.circuitBreaker.openTime";
+    public final static String CFG_BULKHEAD_MAXCALLS = "bbb.bulkhead.maxCalls";
+    public final static String CFG_BULKHEAD_WAITTIMEOUT = "bbb.bulkhead.waitTimeout";
+    public final static String CFG_NOTIFICATIONS_THREADS = "bbb.notifications.threads";
+    public final static String CFG_NOTIFICATIONS_POLLINTERVAL = "bbb.notifications.pollInterval";
+    public final static String CFG_NOTIFICATIONS_MAXATTEMPTS = "bbb.notifications.maxAttempts";
+    public final static String CFG_NOTIFICATIONS_RETRYDELAY = "bbb.notifications.retryDelay";
+    public final static String CFG_NOTIFICATIONS_CLAIMTIMEOUT = "bbb.notifications.claimTimeout";
+    public final static String CFG_NOTIFICATIONS_FAILEDMAXAGE = "bbb.notifications.failedMaxAge";
+    public final static String CFG_PERMISSIONS_CACHETTL = "bbb.permissions.cacheTtl";
+    public final static String CFG_PERMISSIONS_CACHESIZE = "bbb.permissions.cacheSize";
+    public final static String CFG_ROSTER_CACHETTL = "bbb.roster.cacheTtl";
+    public final static String CFG_ROSTER_CACHESIZE = "bbb.roster.cacheSize";
 
     // System Settings in sakai.properties.
     public final static String SYSTEM_UPLOAD_MAX = "content.upload.max";
@@ -117,6 +157,8 @@ public interface BBBMeetingManager {
     public static final String EVENT_RECORDING_PUBLISH = "bbb.recording.publish";
     /** A recording was unpublished on the BBB server */
     public static final String EVENT_RECORDING_UNPUBLISH = "bbb.recording.unpublish";
+    /** A meeting was changed in the database, every node evicts it from its cache */
+    public static final String EVENT_MEETING_EVICT = "bbb.meeting.evict";
 
     /** ALL Log Events */
     public static final String[] EVENT_KEYS = new String[] {
@@ -146,6 +188,22 @@ public interface BBBMeetingManager {
      */
     List<BBBMeeting> getSiteMeetings(String siteId) throws SecurityException, Exception;
 
+    /**
+     * Same as {@link #getSiteMeetings(String)}, with only what the meeting list
+     * shows: no passwords, properties, presentation nor host. Use
+     * {@link #getMeeting(String)} for the full meeting.
+     */
+    List<BBBMeeting> getSiteMeetingSummaries(String siteId) throws SecurityException, Exception;
+
+    /**
+     * A page of {@link #getSiteMeetingSummaries(String)}, whose names contain
+     * the filter if any, sorted by one of the BBBMeetingQuery SORT_
+     * properties, along with the total number of meetings matching. A max of 0
+     * gets them all.
+     */
+    Map<String, Object> getSiteMeetingSummaries(String siteId, String filter, String sortBy, boolean ascending, int first, int max)
+            throws SecurityException, Exception;
+
     /**
      * Creates a meeting using the passed in object. Populates the id, password
      * and token fields of <code>meeting</code> with the data returned from BBB.
@@ -175,16 +233,47 @@ public interface BBBMeetingManager {
      */
     Map<String, Object> getMeetingInfo(String meetingID, String groupId) throws BBBException;
 
+    /**
+     * Get live details of all the meetings of a site the current user can see,
+     * keyed by meeting id, from a single (cached) call to the BBB server.
+     */
+    Map<String, Object> getSiteMeetingsInfo(String siteId) throws SecurityException, Exception;
+
+    /**
+     * Wait for a moderator to join a meeting (or one of its group sessions).
+     * The future completes with the live meeting details once a moderator is
+     * in; cancel it to stop waiting.
+     */
+    CompletableFuture<Map<String, Object>> waitForModerator(String meetingID, String groupId);
+
     /**
      * Get playback recordings from BBB server.
      */
     Map<String, Object> getRecordings(String meetingID, String groupId, String siteId) throws BBBException;
 
+    /**
+     * Get playback recordings from BBB server, synchronizing them first when
+     * refreshing.
+     */
+    Map<String, Object> getRecordings(String meetingID, String groupId, String siteId, boolean refresh) throws BBBException;
+
     /**
      * Get ALL playback recordings from BBB server for the current Site.
      */
     Map<String, Object> getSiteRecordings(String siteId) throws SecurityException, Exception;
 
+    /**
+     * Get a page of the playback recordings of the current Site, newest first,
+     * along with their total number. A max of 0 gets them all.
+     */
+    Map<String, Object> getSiteRecordings(String siteId, int first, int max) throws SecurityException, Exception;
+
+    /**
+     * Get a page of the playback recordings of the current Site, synchronizing
+     * them first when refreshing.
+     */
+    Map<String, Object> getSiteRecordings(String siteId, int first, int max, boolean refresh) throws SecurityException, Exception;
+
     /**
      * Log an event indicating that the current user joined the specified
      * meeting
@@ -359,6 +448,32 @@ public interface BBBMeetingManager {
 
     boolean isUserAllowedInLocation(String userId, String permission, String locationId);
 
+    /**
+     * The BBB, site and calendar functions granted to the user in the site,
+     * see {@link BBBPermissions#SNAPSHOT_FUNCTIONS}.
+     */
+    BBBPermissions getUserPermissions(String userId, String siteId);
+
+    /**
+     * A page of the members of the site whose display name, EID or display id
+     * start with the words searched, sorted by display name, along with the
+     * total number of members matching. Each member is a map of its id and
+     * title. A max of 0 gets them all.
+     */
+    Map<String, Object> searchSiteMembers(String siteId, String search, int first, int max) throws SecurityException, Exception;
+
+    /**
+     * The members of the site among the users, as
+     * {@link #searchSiteMembers(String, String, int, int)} lists them.
+     */
+    List<Map<String, String>> getSiteMembers(String siteId, Collection<String> userIds) throws SecurityException, Exception;
+
+    /**
+     * The metrics of the BBB API calls, storage, caches, notifications and
+     * thread pools, in the Prometheus text format. Administrators only.
+     */
+    String getMetrics() throws SecurityException;
+
     String getUserRoleInSite(String userId, String siteId);
 
     List<String> getUserGroupIdsInSite(String userId, String siteId);
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The functions granted to a user in a site, at the time it was taken. One
+ * bit per function of {@link #SNAPSHOT_FUNCTIONS}: the BBB functions, and
+ * the site and calendar functions the tool needs.
+ */
+public final class BBBPermissions {
+
+    public static final String FN_SITE_VIEWROSTER = "site.viewRoster";
+    public static final String FN_SITE_UPD = "site.upd";
+    public static final String FN_CALENDAR_NEW = "calendar.new";
+    public static final String FN_CALENDAR_REVISE_OWN = "calendar.revise.own";
+    public static final String FN_CALENDAR_REVISE_ANY = "calendar.revise.any";
+    public static final String FN_CALENDAR_DELETE_OWN = "calendar.delete.own";
+    public static final String FN_CALENDAR_DELETE_ANY = "calendar.delete.any";
+
+    /** The functions a snapshot covers, in the order they are listed */
+    public static final List<String> SNAPSHOT_FUNCTIONS;
+    private static final Map<String, Long> BITS = new HashMap<>();
+    static {
+        List<String> functions = new ArrayList<>();
+        functions.add(FN_SITE_VIEWROSTER);
+        functions.add(FN_SITE_UPD);
+        functions.addAll(BBBMeetingManager.FUNCTIONS);
+        functions.add(FN_CALENDAR_NEW);
+        functions.add(FN_CALENDAR_REVISE_OWN);
+        functions.add(FN_CALENDAR_REVISE_ANY);
+        functions.add(FN_CALENDAR_DELETE_OWN);
+        functions.add(FN_CALENDAR_DELETE_ANY);
+        for (int i = 0; i < functions.size(); i++) {
+            BITS.put(functions.get(i), 1L << i);
+        }
+        SNAPSHOT_FUNCTIONS = Collections.unmodifiableList(functions);
+    }
+
+    public static final BBBPermissions NONE = new BBBPermissions(0L);
+    public static final BBBPermissions ALL = of(f -> true);
+
+    private final long granted;
+
+    private BBBPermissions(long granted) {
+        this.granted = granted;
+    }
+
+    /** The snapshot of the functions the predicate grants */
+    public static BBBPermissions of(Predicate<String> isAllowed) {
+
+        long granted = 0L;
+        for (String function : SNAPSHOT_FUNCTIONS) {
+            if (isAllowed.test(function)) {
+                granted |= BITS.get(function);
+            }
+        }
+        return new BBBPermissions(granted);
+    }
+
+    /** Whether the snapshot covers the function */
+    public static boolean covers(String function) {
+        return BITS.containsKey(function);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the snapshot doesn't cover the
+     * function
+     */
+    public boolean isAllowed(String function) {
+
+        Long bit = BITS.get(function);
+        if (bit == null) {
+            throw new IllegalArgumentException("Function not covered by the permissions snapshot: " + function);
+        }
+        return (granted & bit) != 0;
+    }
+
+    /** The functions granted, in the order of {@link #SNAPSHOT_FUNCTIONS} */
+    public List<String> getFunctions() {
+
+        List<String> functions = new ArrayList<>(Long.bitCount(granted));
+        for (String function : SNAPSHOT_FUNCTIONS) {
+            if ((granted & BITS.get(function)) != 0) {
+                functions.add(function);
+            }
+        }
+        return functions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BBBPermissions && ((BBBPermissions) o).granted == granted;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(granted);
+    }
+}
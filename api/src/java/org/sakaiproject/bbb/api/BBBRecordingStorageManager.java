@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.sakaiproject.bbb.api.storage.BBBRecording;
+
+/**
+ * Storage of the local recording index.
+ */
+public interface BBBRecordingStorageManager {
+
+    /**
+     * Recordings of the given meetings, newest first. When groupId is not
+     * null only the recordings of the meeting and of that group session are
+     * returned. A max of 0 returns them all.
+     */
+    List<BBBRecording> getRecordings(Collection<String> meetingIds, String groupId, int first, int max);
+
+    long countRecordings(Collection<String> meetingIds, String groupId);
+
+    BBBRecording getRecording(String recordId);
+
+    /**
+     * Replace the recordings of a meeting (and its group sessions) and mark it
+     * as synchronized.
+     */
+    void replaceRecordings(String meetingId, List<BBBRecording> recordings);
+
+    boolean updateRecording(BBBRecording recording);
+
+    boolean deleteRecording(String recordId);
+
+    /**
+     * The meetings among the given ones that were never synchronized, changed
+     * since, or are watched and were not synchronized since the given date.
+     * The meetings backing off after a failure are left out.
+     */
+    List<String> getMeetingsToSync(Collection<String> meetingIds, Date watchedSyncedBefore);
+
+    /**
+     * Claim, for the background synchronization of a node, up to max
+     * meetings set to record that changed, were not synchronized since
+     * syncedBefore, or are watched and were not synchronized since
+     * watchedSyncedBefore, least recently synchronized first. A claimed
+     * meeting isn't claimed again before claimUntil, unless synchronized or
+     * failed before.
+     */
+    List<String> claimMeetingsToSync(Date syncedBefore, Date watchedSyncedBefore, int max, Date claimUntil);
+
+    /**
+     * Flag the meeting for synchronization. A watchUntil date also keeps it
+     * watched until then.
+     */
+    void markDirty(String meetingId, Date watchUntil);
+
+    /**
+     * Record a failed synchronization of the meeting, and defer the next one
+     * by baseDelay ms, doubled on each consecutive failure up to maxDelay ms.
+     */
+    void syncFailed(String meetingId, long baseDelay, long maxDelay);
+}
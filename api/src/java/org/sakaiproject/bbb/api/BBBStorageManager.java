@@ -18,16 +18,34 @@ package org.sakaiproject.bbb.api;
 import java.util.List;
 
 import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingQuery;
 
 public interface BBBStorageManager {
 
     boolean storeMeeting(BBBMeeting meeting);
     boolean updateMeeting(BBBMeeting meeting, boolean updateParticipants);
     List<BBBMeeting> getSiteMeetings(String siteId, boolean includeDeleted);
+
+    /**
+     * The page of meetings selected by the query, with only the columns the
+     * meeting list shows and their participants. The meetings returned are
+     * not attached to the database and must not be stored.
+     */
+    List<BBBMeeting> getSiteMeetingSummaries(BBBMeetingQuery query);
+
+    /** Number of meetings selected by the query, whatever the page */
+    long countSiteMeetings(BBBMeetingQuery query);
     BBBMeeting getMeeting(String meetingId);
     boolean deleteMeeting(String meetingId);
     boolean deleteMeeting(String meetingId, boolean fullDelete);
     String getMeetingHost(String meetingId);
     List<BBBMeeting> getAllMeetings();
     boolean setMeetingHost(String meetingId, String hostUrl);
+
+    /**
+     * Set the host of a meeting, provided it is still the expected one (blank
+     * for a meeting that was never placed). Returns false when another node
+     * changed it first.
+     */
+    boolean replaceMeetingHost(String meetingId, String expectedHostUrl, String hostUrl);
 }
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api.storage;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Email notification waiting in the outbox. Emails are removed once sent,
+ * and kept as FAILED once they ran out of attempts.
+ */
+@Entity
+@Table(name = "BBB_EMAIL_OUTBOX", indexes = {
+    @Index(name = "BBB_EMAIL_OUTBOX_STATUS_I", columnList = "STATUS, NEXT_ATTEMPT")
+})
+@Getter @Setter
+public class BBBEmail {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_SENDING = "SENDING";
+    public static final String STATUS_FAILED = "FAILED";
+    /** Sent, but could not be removed from the outbox */
+    public static final String STATUS_SENT = "SENT";
+
+    @Id
+    @Column(name = "EMAIL_ID", length = 36, nullable = false)
+    private String id;
+
+    @Column(name = "MEETING_ID", length = 36)
+    private String meetingId;
+
+    @Column(name = "RECIPIENT_EMAIL", length = 255, nullable = false)
+    private String recipientEmail;
+
+    @Column(name = "RECIPIENT_NAME", length = 255)
+    private String recipientName;
+
+    @Column(name = "SUBJECT", length = 1000)
+    private String subject;
+
+    @Lob
+    @Column(name = "BODY")
+    private String body;
+
+    /** iCal event attached to the email, if any */
+    @Lob
+    @Column(name = "ICAL")
+    private String ical;
+
+    @Column(name = "STATUS", length = 16, nullable = false)
+    private String status = STATUS_PENDING;
+
+    @Column(name = "ATTEMPTS", nullable = false)
+    private Integer attempts = 0;
+
+    /** Earliest time the email may be sent (again) */
+    @Column(name = "NEXT_ATTEMPT", nullable = false)
+    private Date nextAttempt;
+
+    /** Sakai node sending the email */
+    @Column(name = "CLAIMED_BY", length = 255)
+    private String claimedBy;
+
+    @Column(name = "CLAIMED_AT")
+    private Date claimedAt;
+
+    @Column(name = "CREATED", nullable = false)
+    private Date created;
+
+    @Column(name = "LAST_ERROR", length = 255)
+    private String lastError;
+}
@@ -31,12 +31,16 @@ import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import lombok.Getter;
 import lombok.Setter;
 
@@ -46,7 +50,10 @@ import lombok.Setter;
  * @author Adrian Fish
  */
 @Entity
-@Table(name = "BBB_MEETING")
+@Table(name = "BBB_MEETING", indexes = {
+    @Index(name = "BBB_MEETING_SITE_I", columnList = "SITE_ID, DELETED")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Getter @Setter
 public class BBBMeeting {
 
@@ -103,12 +110,14 @@ public class BBBMeeting {
     @MapKeyColumn(name = "NAME")
     @Column(name = "VALUE")
     @CollectionTable(name = "BBB_MEETING_PROPERTIES", joinColumns = @JoinColumn(name = "MEETING_ID"))
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	private Map<String, String> properties;
 
     @Column(name = "VOICE_BRIDGE")
 	private Integer voiceBridge;
 
     @OneToMany(mappedBy = "meeting", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<BBBMeetingParticipant> participants;
 
     @Transient
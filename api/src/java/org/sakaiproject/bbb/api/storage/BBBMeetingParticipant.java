@@ -25,6 +25,9 @@ import javax.persistence.ManyToOne;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import lombok.Data;
 
 /**
@@ -35,6 +38,7 @@ import lombok.Data;
 @Table(name = "BBB_MEETING_PARTICIPANT", uniqueConstraints = {
     @UniqueConstraint(columnNames = { "MEETING_ID", "SELECTION_TYPE", "SELECTION_ID" })
 })
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Data
 public class BBBMeetingParticipant {
 
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Selects a page of the meetings of a site not deleted. When a userId is set,
+ * only the meetings that user can see are selected: the meetings they
+ * participate in (as a user, or through their role, one of their groups or
+ * all users) when participant is set, and the meetings they own when owner is
+ * set.
+ */
+@Data
+public class BBBMeetingQuery {
+
+    public static final String SORT_NAME = "name";
+    public static final String SORT_STARTDATE = "startDate";
+    public static final String SORT_ENDDATE = "endDate";
+
+    private String siteId;
+
+    /** Text the meeting names must contain, ignoring case */
+    private String filter;
+
+    /** One of the SORT_ properties, by name if not set */
+    private String sortBy = SORT_NAME;
+    private boolean ascending = true;
+
+    private int first = 0;
+    /** 0 for all the meetings */
+    private int max = 0;
+
+    private String userId;
+    private boolean participant;
+    private boolean owner;
+    private String userRole;
+    private List<String> userGroupIds = new ArrayList<>();
+}
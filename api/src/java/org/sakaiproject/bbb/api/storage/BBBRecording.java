@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api.storage;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Local copy of a BigBlueButton recording, as last synchronized from the BBB
+ * server. The full getRecordings entry is kept in data (JSON) so it can be
+ * served as is.
+ */
+@Entity
+@Table(name = "BBB_RECORDING", indexes = {
+    @Index(name = "BBB_RECORDING_MEETING_I", columnList = "MEETING_ID, GROUP_ID")
+})
+@Getter @Setter
+public class BBBRecording {
+
+    @Id
+    @Column(name = "RECORD_ID", length = 255, nullable = false)
+    private String recordId;
+
+    /** Sakai meeting id, without the group session suffix */
+    @Column(name = "MEETING_ID", length = 36, nullable = false)
+    private String meetingId;
+
+    /** Group of a group session recording, null otherwise */
+    @Column(name = "GROUP_ID", length = 99)
+    private String groupId;
+
+    @Column(name = "NAME", length = 255)
+    private String name;
+
+    @Column(name = "STATE", length = 32)
+    private String state;
+
+    @Column(name = "PUBLISHED", nullable = false)
+    private Boolean published = false;
+
+    @Column(name = "PROTECTED", nullable = false)
+    private Boolean protectedRecording = false;
+
+    @Column(name = "START_TIME")
+    private Long startTime;
+
+    @Column(name = "END_TIME")
+    private Long endTime;
+
+    /** Playback formats, metadata, ... as returned by getRecordings */
+    @Lob
+    @Column(name = "DATA")
+    private String data;
+
+    @Column(name = "SYNCED", nullable = false)
+    private Date synced;
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.api.storage;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Synchronization state of the recordings of a meeting (and its group
+ * sessions) in the local recording index.
+ */
+@Entity
+@Table(name = "BBB_RECORDING_SYNC")
+@Getter @Setter
+public class BBBRecordingSync {
+
+    @Id
+    @Column(name = "MEETING_ID", length = 36, nullable = false)
+    private String meetingId;
+
+    /** Last time the recordings were fetched from the BBB server */
+    @Column(name = "SYNCED")
+    private Date synced;
+
+    /** Set when the recordings are known to have changed since the last synchronization */
+    @Column(name = "DIRTY", nullable = false)
+    private Boolean dirty = true;
+
+    /** Until then the meeting is watched: recently joined or ended, its recordings are expected to change */
+    @Column(name = "WATCH_UNTIL")
+    private Date watchUntil;
+
+    /** Consecutive failed synchronizations */
+    @Column(name = "FAILURES", nullable = false)
+    private Integer failures = 0;
+
+    /** No synchronization before then: backing off after a failure, or claimed by the background sync of a node */
+    @Column(name = "NEXT_SYNC")
+    private Date nextSync;
+}
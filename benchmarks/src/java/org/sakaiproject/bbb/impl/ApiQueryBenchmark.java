@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.inject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The query strings signed for every BBB API call, and the join url built
+ * for every user entering a meeting. The create query is the one of a meeting
+ * with a welcome message and the callback urls, the display names are plain
+ * ASCII or need percent encoding throughout.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApiQueryBenchmark {
+
+    private static final String SALT = "8cd8ef52e8e101574e400365b55e11a6";
+    private static final String MEETING_ID = "c637ba21adcd0191f48f5c4bf23fab0f96ed5c18[2d4c1a7e-4a9f-4a0e-8f4b-0b9d7f0c6e21]";
+    private static final String USER_ID = "0c4a9e52-3f1b-4d7e-9a5c-6b2e8f1d7a30";
+    private static final String PASSWORD = "5f2e1c8a9b3d4e6f";
+
+    @State(Scope.Benchmark)
+    public static class Signing {
+
+        @Param({"join", "create"})
+        public String query;
+
+        private BaseBBBAPI api;
+        private String queryString;
+
+        @Setup
+        public void setup() {
+
+            api = api();
+            queryString = "join".equals(query)
+                ? "meetingID=" + MEETING_ID + "&userID=" + USER_ID + "&fullName=Jane+Doe&password=" + PASSWORD
+                : "name=Introduction+to+Computing&meetingID=" + MEETING_ID + "&attendeePW=" + PASSWORD
+                    + "&moderatorPW=" + new StringBuilder(PASSWORD).reverse()
+                    + "&welcome=%3Cb%3EWelcome%3C%2Fb%3E+to+%3Cb%3E%25%25CONFNAME%25%25%3C%2Fb%3E%21&dialNumber=&voiceBridge=71234"
+                    + "&logoutURL=https%3A%2F%2Fsakai.example.edu%2Fportal%2Fsite%2Fcourse%2Fpage%2Fbbb"
+                    + "&record=true&duration=0&meta_origin=Sakai&meta_originServerName=sakai.example.edu"
+                    + "&meta_bbb-recording-ready-url=https%3A%2F%2Fsakai.example.edu%2Fdirect%2Fbbb-tool%2F" + MEETING_ID
+                    + "%2FrecordingReady&autoStartRecording=false&allowStartStopRecording=true";
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Joining {
+
+        @Param({"ascii", "encoded"})
+        public String displayName;
+
+        private BaseBBBAPI api;
+        private String fullName;
+
+        @Setup
+        public void setup() {
+
+            api = api();
+            fullName = "ascii".equals(displayName) ? "Jane Doe" : "Zo\u00eb \u00d1\u00fa\u00f1ez-S\u00f8rensen \u738b\u5c0f\u660e";
+            if (!api.getJoinMeetingURL(MEETING_ID, USER_ID, fullName, PASSWORD).contains("&checksum=")) {
+                throw new IllegalStateException("The join url is not signed");
+            }
+        }
+    }
+
+    @Benchmark
+    public String checksum(Signing signing) {
+        return signing.api.getCheckSumParameterForQuery(signing.query, signing.queryString);
+    }
+
+    @Benchmark
+    public String joinMeetingURL(Joining joining) {
+        return joining.api.getJoinMeetingURL(MEETING_ID, USER_ID, joining.fullName, PASSWORD);
+    }
+
+    private static BaseBBBAPI api() {
+
+        BaseBBBAPI api = new BaseBBBAPI();
+        inject(api, "baseUrl", "https://bbb.example.edu/bigbluebutton");
+        inject(api, "salt", SALT);
+        return api;
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+/**
+ * Captured BBB API responses used by the benchmarks.
+ */
+final class BenchmarkPayloads {
+
+    private BenchmarkPayloads() {
+    }
+
+    static String load(String name) throws IOException {
+
+        InputStream in = BenchmarkPayloads.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing benchmark payload " + name);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    /** Repeat the content of the given list element, to scale a payload up */
+    static String repeatList(String xml, String listElement, int copies) {
+
+        String open = "<" + listElement + ">";
+        String close = "</" + listElement + ">";
+        int start = xml.indexOf(open) + open.length();
+        int end = xml.indexOf(close);
+        String items = xml.substring(start, end);
+
+        StringBuilder scaled = new StringBuilder(xml.length() + items.length() * copies);
+        scaled.append(xml, 0, start);
+        for (int i = 0; i < copies; i++) {
+            scaled.append(items);
+        }
+        scaled.append(xml.substring(end));
+        return scaled.toString();
+    }
+}
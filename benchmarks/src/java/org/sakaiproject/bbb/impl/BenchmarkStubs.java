@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+
+/**
+ * In memory stand-ins for the Sakai services and entities used by the
+ * benchmarked code, so it runs without a Sakai instance, and the meetings,
+ * sites and groups the benchmarks are run against.
+ */
+final class BenchmarkStubs {
+
+    private BenchmarkStubs() {
+    }
+
+    /** The answer of a stub to the calls of a method, computed from their arguments */
+    static Answer answer(String method, Function<Object[], Object> function) {
+        return new Answer(method, function);
+    }
+
+    /**
+     * An implementation of the interface giving the answers to the methods
+     * they name, and null (or false, or the zero of a primitive type) to any
+     * other method.
+     */
+    static <T> T stub(Class<T> type, Answer... answers) {
+
+        Map<String, Function<Object[], Object>> methods = new HashMap<>();
+        for (Answer answer : answers) {
+            methods.put(answer.method, answer.function);
+        }
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            Function<Object[], Object> answer = methods.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            }
+            return defaultValue(method.getReturnType());
+        }));
+    }
+
+    /** The value a stub returns by default, boxed as the return type expects */
+    private static Object defaultValue(Class<?> returned) {
+
+        if (returned == boolean.class) {
+            return false;
+        } else if (returned == int.class) {
+            return 0;
+        } else if (returned == long.class) {
+            return 0L;
+        } else if (returned == double.class) {
+            return 0d;
+        } else if (returned == float.class) {
+            return 0f;
+        } else if (returned == short.class) {
+            return (short) 0;
+        } else if (returned == byte.class) {
+            return (byte) 0;
+        } else if (returned == char.class) {
+            return '\0';
+        }
+        return null;
+    }
+
+    /** Set a field normally injected by Spring */
+    static void inject(Object target, String fieldName, Object value) {
+
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to inject " + fieldName + " into " + target.getClass().getName(), e);
+        }
+    }
+
+    /** A site whose members have the given roles, by user id, and are in the given groups */
+    static Site site(String id, Map<String, String> roles, Map<String, Group> groups) {
+
+        Map<String, Role> roleStubs = new HashMap<>();
+        for (String role : new HashSet<>(roles.values())) {
+            roleStubs.put(role, stub(Role.class, answer("getId", args -> role)));
+        }
+        return stub(Site.class,
+            answer("getId", args -> id),
+            answer("getUsers", args -> new HashSet<>(roles.keySet())),
+            answer("getUsersHasRole", args -> roles.entrySet().stream()
+                .filter(e -> e.getValue().equals(args[0])).map(Map.Entry::getKey).collect(Collectors.toSet())),
+            answer("getUserRole", args -> roleStubs.get(roles.get(args[0]))),
+            answer("getGroup", args -> groups.get(args[0])),
+            answer("getGroupsWithMember", args -> groups.values().stream()
+                .filter(g -> g.getUsers().contains(args[0])).collect(Collectors.toList())));
+    }
+
+    /** A group of the given users, copied on each call as Sakai does */
+    static Group group(String id, Set<String> users) {
+        return stub(Group.class, answer("getId", args -> id), answer("getUsers", args -> new HashSet<>(users)));
+    }
+
+    static BBBMeeting meeting(String id, String siteId, List<BBBMeetingParticipant> participants) {
+
+        BBBMeeting meeting = new BBBMeeting();
+        meeting.setId(id);
+        meeting.setSiteId(siteId);
+        meeting.setParticipants(participants);
+        return meeting;
+    }
+
+    static BBBMeetingParticipant participant(String selectionType, String selectionId, String role) {
+
+        BBBMeetingParticipant p = new BBBMeetingParticipant();
+        p.setSelectionType(selectionType);
+        p.setSelectionId(selectionId);
+        p.setRole(role);
+        return p;
+    }
+
+    static final class Answer {
+
+        private final String method;
+        private final Function<Object[], Object> function;
+
+        private Answer(String method, Function<Object[], Object> function) {
+            this.method = method;
+            this.function = function;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The DOM conversion BaseBBBAPI.doAPICall ran on the BBB responses before
+ * {@link BBBResponseParser}, kept as is to be measured against it.
+ */
+final class DomResponseParser {
+
+    private DomResponseParser() {
+    }
+
+    static Map<String, Object> getNodesAsMap(Document dom, String elementTagName) {
+        return processNode(dom.getElementsByTagName(elementTagName).item(0));
+    }
+
+    static Map<String, Object> processNode(Node _node) {
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        NodeList responseNodes = _node.getChildNodes();
+        int images = 1; //counter for images (i.e image1, image2, image3)
+        for (int i = 0; i < responseNodes.getLength(); i++) {
+            Node node = responseNodes.item(i);
+            String nodeName = node.getNodeName().trim();
+            if (node.getChildNodes().getLength() == 1
+                    && ( node.getChildNodes().item(0).getNodeType() == org.w3c.dom.Node.TEXT_NODE || node.getChildNodes().item(0).getNodeType() == org.w3c.dom.Node.CDATA_SECTION_NODE) ) {
+                String nodeValue = node.getTextContent();
+                if (nodeName == "image" && node.getAttributes() != null){
+                    Map<String, String> imageMap = new LinkedHashMap<String, String>();
+                    Node heightAttr = node.getAttributes().getNamedItem("height");
+                    Node widthAttr = node.getAttributes().getNamedItem("width");
+                    Node altAttr = node.getAttributes().getNamedItem("alt");
+
+                    imageMap.put("height", heightAttr.getNodeValue());
+                    imageMap.put("width", widthAttr.getNodeValue());
+                    imageMap.put("title", altAttr.getNodeValue());
+                    imageMap.put("url", nodeValue);
+                    map.put(nodeName + images, imageMap);
+                    images++;
+                } else {
+                    map.put(nodeName, nodeValue != null ? nodeValue.trim() : null);
+                }
+            } else if (node.getChildNodes().getLength() == 0
+                    && node.getNodeType() != org.w3c.dom.Node.TEXT_NODE
+                    && node.getNodeType() != org.w3c.dom.Node.CDATA_SECTION_NODE) {
+                map.put(nodeName, "");
+            } else if ( node.getChildNodes().getLength() >= 1
+                    && node.getChildNodes().item(0).getChildNodes().item(0).getNodeType() != org.w3c.dom.Node.TEXT_NODE
+                    && node.getChildNodes().item(0).getChildNodes().item(0).getNodeType() != org.w3c.dom.Node.CDATA_SECTION_NODE ) {
+
+                List<Object> list = new ArrayList<>();
+                for (int c = 0; c < node.getChildNodes().getLength(); c++) {
+                    Node n = node.getChildNodes().item(c);
+                    list.add(processNode(n));
+                }
+                if (nodeName == "preview"){
+                    Node n = node.getChildNodes().item(0);
+                    map.put(nodeName, new ArrayList<Object>(processNode(n).values()));
+                } else {
+                    map.put(nodeName, list);
+                }
+            } else {
+                map.put(nodeName, processNode(node));
+            }
+        }
+        return map;
+    }
+}
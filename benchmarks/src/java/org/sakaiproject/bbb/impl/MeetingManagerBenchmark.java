@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.answer;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.group;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.inject;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.meeting;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.participant;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.site;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.stub;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.BBBPermissions;
+import org.sakaiproject.bbb.api.Participant;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+/**
+ * The per meeting and per recording work of {@link BBBMeetingManagerImpl}
+ * when listing a site: finding the participant selecting a user among the
+ * participants of a meeting, and filtering the playback formats of the
+ * recordings. The meetings select up to thousands of users one by one, and
+ * the user is only let in by one of their groups, so the whole list is
+ * scanned. The recordings are those of the captured getRecordings payload,
+ * repeated {@code copies} times; their playback lists are copied on each call,
+ * as the filter removes formats in place.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeetingManagerBenchmark {
+
+    private static final String SITE_ID = "site";
+    private static final String USER_ID = "student";
+    private static final String GROUP_ID = "group";
+
+    @State(Scope.Benchmark)
+    public static class Participants {
+
+        @Param({"10", "1000", "10000"})
+        public int participants;
+
+        private BBBMeetingManagerImpl manager;
+        private BBBMeeting meeting;
+
+        @Setup
+        public void setup() {
+
+            Site site = site(SITE_ID, Collections.singletonMap(USER_ID, "access"),
+                Collections.singletonMap(GROUP_ID, group(GROUP_ID, Collections.singleton(USER_ID))));
+
+            BBBRequestMemo requestMemo = new BBBRequestMemo();
+            inject(requestMemo, "threadLocalManager", stub(ThreadLocalManager.class));
+            manager = new BBBMeetingManagerImpl();
+            inject(manager, "requestMemo", requestMemo);
+            inject(manager, "siteService", stub(SiteService.class, answer("getSite", args -> site)));
+            inject(manager, "securityService", stub(SecurityService.class));
+
+            List<BBBMeetingParticipant> list = new ArrayList<>();
+            list.add(participant(Participant.SELECTION_ROLE, "maintain", Participant.MODERATOR));
+            for (int i = 0; i < participants - 2; i++) {
+                list.add(participant(Participant.SELECTION_USER, "user" + i,
+                    i % 10 == 0 ? Participant.MODERATOR : Participant.ATTENDEE));
+            }
+            list.add(participant(Participant.SELECTION_GROUP, GROUP_ID, Participant.ATTENDEE));
+            meeting = meeting("meeting", SITE_ID, list);
+
+            BBBMeetingParticipant p = manager.getParticipantFromMeeting(meeting, USER_ID);
+            if (p == null || !GROUP_ID.equals(p.getSelectionId())) {
+                throw new IllegalStateException(USER_ID + " is not let in by " + GROUP_ID);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recordings {
+
+        @Param({"1", "100", "1000"})
+        public int copies;
+
+        /** Whether the user may see the extended formats of their own recordings */
+        @Param({"true", "false"})
+        public boolean extendedFormatsOwn;
+
+        private BBBMeetingManagerImpl manager;
+        private BBBUserSiteContext context;
+        private List<String> whitelist;
+        private List<Map<String, Object>> recordings;
+        private List<List<Map<String, Object>>> playbacks;
+
+        @Setup
+        public void setup() throws IOException {
+
+            String xml = BenchmarkPayloads.repeatList(BenchmarkPayloads.load("getRecordings.xml"), "recordings", copies);
+            recordings = (List<Map<String, Object>>) BBBResponseParser
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).get("recordings");
+            playbacks = new ArrayList<>();
+            for (int i = 0; i < recordings.size(); i++) {
+                // Every other recording is one of the user.
+                recordings.get(i).put("ownerId", i % 2 == 0 ? USER_ID : "teacher");
+                playbacks.add((List<Map<String, Object>>) recordings.get(i).get("playback"));
+            }
+
+            manager = new BBBMeetingManagerImpl();
+            BBBPermissions permissions = BBBPermissions.of(f -> extendedFormatsOwn
+                && BBBMeetingManager.FN_RECORDING_EXTENDEDFORMATS_OWN.equals(f));
+            context = new BBBUserSiteContext(USER_ID, SITE_ID, () -> null, () -> permissions);
+            whitelist = Arrays.asList("presentation");
+        }
+    }
+
+    @Benchmark
+    public BBBMeetingParticipant getParticipantFromMeeting(Participants state) {
+        return state.manager.getParticipantFromMeeting(state.meeting, USER_ID);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> recordingsFilterFormats(Recordings state) {
+
+        for (int i = 0; i < state.recordings.size(); i++) {
+            Map<String, Object> recording = state.recordings.get(i);
+            recording.put("playback", new ArrayList<>(state.playbacks.get(i)));
+            state.manager.recordingsFilterFormats(recording, state.context, state.whitelist);
+        }
+        return state.recordings;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.answer;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.group;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.inject;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.meeting;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.participant;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.site;
+import static org.sakaiproject.bbb.impl.BenchmarkStubs.stub;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.bbb.api.Participant;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.api.UserDirectoryService;
+
+/**
+ * Whether a student may see the recordings of a meeting open to all the site,
+ * answered by materializing the users of the meeting as getSiteRecordings did,
+ * against {@link BBBMembershipEvaluator}. One in twenty members maintains the
+ * site, and the members are spread over ten groups. As on a real site, the
+ * member sets are built afresh on each call and the user directory returns
+ * users already cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MembershipBenchmark {
+
+    private static final String SITE_ID = "site";
+    private static final String MAINTAIN = "maintain";
+    private static final String ACCESS = "access";
+    private static final int GROUPS = 10;
+
+    @Param({"50", "500", "5000"})
+    public int members;
+
+    private Site site;
+    private BBBMeeting meeting;
+    private String userId;
+    private BBBUserResolver resolver;
+
+    @Setup
+    public void setup() {
+
+        Map<String, String> roles = new LinkedHashMap<>();
+        Map<String, User> users = new HashMap<>();
+        for (int i = 0; i < members; i++) {
+            String id = "user" + i;
+            roles.put(id, i % 20 == 0 ? MAINTAIN : ACCESS);
+            users.put(id, user(id));
+        }
+        Map<String, Group> groups = new LinkedHashMap<>();
+        for (int g = 0; g < GROUPS; g++) {
+            Set<String> groupMembers = new HashSet<>();
+            int i = 0;
+            for (String id : roles.keySet()) {
+                if (i++ % GROUPS == g) {
+                    groupMembers.add(id);
+                }
+            }
+            groups.put("group" + g, group("group" + g, groupMembers));
+        }
+        site = site(SITE_ID, roles, groups);
+
+        UserDirectoryService userDirectoryService = stub(UserDirectoryService.class,
+            answer("getUsers", args -> ((Collection<String>) args[0]).stream()
+                .map(users::get).filter(u -> u != null).collect(Collectors.toList())));
+        resolver = new BBBUserResolver();
+        BBBRequestMemo requestMemo = new BBBRequestMemo();
+        inject(requestMemo, "threadLocalManager", stub(ThreadLocalManager.class));
+        inject(resolver, "requestMemo", requestMemo);
+        inject(resolver, "userDirectoryService", userDirectoryService);
+
+        List<BBBMeetingParticipant> participants = new ArrayList<>();
+        participants.add(participant(Participant.SELECTION_ROLE, MAINTAIN, Participant.MODERATOR));
+        participants.add(participant(Participant.SELECTION_GROUP, "group0", Participant.MODERATOR));
+        participants.add(participant(Participant.SELECTION_USER, "user1", Participant.MODERATOR));
+        participants.add(participant(Participant.SELECTION_ALL, Participant.SELECTION_ALL, Participant.ATTENDEE));
+        meeting = meeting("meeting", SITE_ID, participants);
+
+        // A student in no selected group, only let in by the selection of all users.
+        userId = "user" + (members - 1);
+        if (!roster() || !evaluator()) {
+            throw new IllegalStateException("The roster and the evaluator disagree on " + userId);
+        }
+    }
+
+    @Benchmark
+    public boolean roster() {
+        return resolver.getMeetingUsers(meeting, site).stream().anyMatch(u -> userId.equals(u.getId()));
+    }
+
+    @Benchmark
+    public boolean evaluator() {
+
+        Role role = site.getUserRole(userId);
+        List<String> groupIds = new ArrayList<>();
+        for (Group group : site.getGroupsWithMember(userId)) {
+            groupIds.add(group.getId());
+        }
+        return new BBBMembershipEvaluator(userId, role != null ? role.getId() : null, groupIds).isParticipant(meeting);
+    }
+
+    private static User user(String id) {
+        return stub(User.class, answer("getId", args -> id), answer("getDisplayName", args -> "User " + id));
+    }
+}
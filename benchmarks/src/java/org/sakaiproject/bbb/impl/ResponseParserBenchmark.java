@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Streaming {@link BBBResponseParser} against the previous DOM + regex path of
+ * BaseBBBAPI.doAPICall, on captured getRecordings and getMeetingInfo payloads.
+ * The list in each payload (recordings, attendees) is repeated {@code copies}
+ * times to reproduce the multi megabyte responses of large sites. The
+ * conversion of an already parsed DOM by {@link DomResponseParser} is measured
+ * on its own as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParserBenchmark {
+
+    @Param({"getRecordings", "getMeetingInfo"})
+    public String payload;
+
+    @Param({"1", "100", "1000"})
+    public int copies;
+
+    private byte[] body;
+    private Document dom;
+
+    @Setup
+    public void setup() throws IOException {
+
+        String xml = BenchmarkPayloads.load(payload + ".xml");
+        String listElement = "getRecordings".equals(payload) ? "recordings" : "attendees";
+        body = BenchmarkPayloads.repeatList(xml, listElement, copies).getBytes(StandardCharsets.UTF_8);
+        dom = parse(body);
+
+        if (!domParser().equals(staxParser())) {
+            throw new IllegalStateException("DOM and StAX parsers disagree on " + payload);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> domParser() {
+        return DomResponseParser.getNodesAsMap(parse(body), "response");
+    }
+
+    @Benchmark
+    public Map<String, Object> processNode() {
+        return DomResponseParser.getNodesAsMap(dom, "response");
+    }
+
+    @Benchmark
+    public Map<String, Object> staxParser() {
+
+        try (InputStream in = new ByteArrayInputStream(body)) {
+            return BBBResponseParser.parse(in);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** The DOM of the response, read as BaseBBBAPI.doAPICall did */
+    private static Document parse(byte[] body) {
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"))) {
+            String stringXml = reader.lines().filter(l -> !l.startsWith("<?xml version=\"1.0\"?>"))
+                .map(String::trim).collect(Collectors.joining());
+            stringXml = stringXml.replaceAll(">.\\s+?<", "><");
+
+            DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+            docBuilderFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            docBuilderFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            return docBuilderFactory.newDocumentBuilder().parse(new InputSource(new StringReader(stringXml)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
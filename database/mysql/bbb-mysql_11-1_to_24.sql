@@ -0,0 +1,48 @@
+CREATE TABLE BBB_RECORDING (
+    RECORD_ID VARCHAR(255) NOT NULL,
+    MEETING_ID VARCHAR(36) NOT NULL,
+    GROUP_ID VARCHAR(99),
+    NAME VARCHAR(255),
+    STATE VARCHAR(32),
+    PUBLISHED BOOL NOT NULL,
+    PROTECTED BOOL NOT NULL,
+    START_TIME BIGINT,
+    END_TIME BIGINT,
+    DATA LONGTEXT,
+    SYNCED DATETIME NOT NULL,
+    CONSTRAINT bbb_recording_pk PRIMARY KEY (RECORD_ID)
+);
+
+CREATE INDEX BBB_RECORDING_MEETING_I ON BBB_RECORDING (MEETING_ID, GROUP_ID);
+
+CREATE TABLE BBB_RECORDING_SYNC (
+    MEETING_ID VARCHAR(36) NOT NULL,
+    SYNCED DATETIME,
+    DIRTY BOOL NOT NULL,
+    WATCH_UNTIL DATETIME,
+    FAILURES INT NOT NULL,
+    NEXT_SYNC DATETIME,
+    CONSTRAINT bbb_recording_sync_pk PRIMARY KEY (MEETING_ID)
+);
+
+CREATE TABLE BBB_EMAIL_OUTBOX (
+    EMAIL_ID VARCHAR(36) NOT NULL,
+    MEETING_ID VARCHAR(36),
+    RECIPIENT_EMAIL VARCHAR(255) NOT NULL,
+    RECIPIENT_NAME VARCHAR(255),
+    SUBJECT VARCHAR(1000),
+    BODY LONGTEXT,
+    ICAL LONGTEXT,
+    STATUS VARCHAR(16) NOT NULL,
+    ATTEMPTS INT NOT NULL,
+    NEXT_ATTEMPT DATETIME NOT NULL,
+    CLAIMED_BY VARCHAR(255),
+    CLAIMED_AT DATETIME,
+    CREATED DATETIME NOT NULL,
+    LAST_ERROR VARCHAR(255),
+    CONSTRAINT bbb_email_outbox_pk PRIMARY KEY (EMAIL_ID)
+);
+
+CREATE INDEX BBB_EMAIL_OUTBOX_STATUS_I ON BBB_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+
+CREATE INDEX BBB_MEETING_SITE_I ON BBB_MEETING (SITE_ID, DELETED);
@@ -0,0 +1,48 @@
+CREATE TABLE BBB_RECORDING (
+    RECORD_ID VARCHAR2(255) NOT NULL,
+    MEETING_ID VARCHAR2(36) NOT NULL,
+    GROUP_ID VARCHAR2(99),
+    NAME VARCHAR2(255),
+    STATE VARCHAR2(32),
+    PUBLISHED NUMBER(1) NOT NULL,
+    PROTECTED NUMBER(1) NOT NULL,
+    START_TIME NUMBER(19),
+    END_TIME NUMBER(19),
+    DATA CLOB,
+    SYNCED TIMESTAMP NOT NULL,
+    CONSTRAINT bbb_recording_pk PRIMARY KEY (RECORD_ID)
+);
+
+CREATE INDEX BBB_RECORDING_MEETING_I ON BBB_RECORDING (MEETING_ID, GROUP_ID);
+
+CREATE TABLE BBB_RECORDING_SYNC (
+    MEETING_ID VARCHAR2(36) NOT NULL,
+    SYNCED TIMESTAMP,
+    DIRTY NUMBER(1) NOT NULL,
+    WATCH_UNTIL TIMESTAMP,
+    FAILURES NUMBER(10) NOT NULL,
+    NEXT_SYNC TIMESTAMP,
+    CONSTRAINT bbb_recording_sync_pk PRIMARY KEY (MEETING_ID)
+);
+
+CREATE TABLE BBB_EMAIL_OUTBOX (
+    EMAIL_ID VARCHAR2(36) NOT NULL,
+    MEETING_ID VARCHAR2(36),
+    RECIPIENT_EMAIL VARCHAR2(255) NOT NULL,
+    RECIPIENT_NAME VARCHAR2(255),
+    SUBJECT VARCHAR2(1000),
+    BODY CLOB,
+    ICAL CLOB,
+    STATUS VARCHAR2(16) NOT NULL,
+    ATTEMPTS NUMBER(10) NOT NULL,
+    NEXT_ATTEMPT TIMESTAMP NOT NULL,
+    CLAIMED_BY VARCHAR2(255),
+    CLAIMED_AT TIMESTAMP,
+    CREATED TIMESTAMP NOT NULL,
+    LAST_ERROR VARCHAR2(255),
+    CONSTRAINT bbb_email_outbox_pk PRIMARY KEY (EMAIL_ID)
+);
+
+CREATE INDEX BBB_EMAIL_OUTBOX_STATUS_I ON BBB_EMAIL_OUTBOX (STATUS, NEXT_ATTEMPT);
+
+CREATE INDEX BBB_MEETING_SITE_I ON BBB_MEETING (SITE_ID, DELETED);
@@ -16,19 +16,33 @@
 
 package org.sakaiproject.bbb.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 
 import org.sakaiproject.bbb.api.BBBAPI;
 import org.sakaiproject.bbb.api.BBBException;
+import org.sakaiproject.bbb.api.BBBRecordingStorageManager;
 import org.sakaiproject.bbb.api.BBBStorageManager;
 import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBRecording;
 import org.sakaiproject.bbb.api.BBBMeetingManager;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.user.api.User;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -42,6 +56,9 @@ import lombok.extern.slf4j.Slf4j;
 @Getter
 public class BBBAPIWrapper {
 
+    /** Placed meetings whose server is kept in memory */
+    private static final int MAX_MEETING_HOSTS = 10000;
+
     /** BBB API Version (full) */
     private String version = null;
     /** BBB API Version number */
@@ -101,10 +118,60 @@ public class BBBAPIWrapper {
     private boolean recordingFormatFilterEnabled = true;
     /** BBB list of formats allowed to be seen whotout applying a permissions filter (default to presentation,video) */
     private String recordingFormatFilterWhitelist = "presentation,video";
+    /** Time (ms) a meeting created on the BBB server is assumed to still exist (default to 30 sec) */
+    private long createCacheTtl = 30000;
+
+    /** Time (ms) the list of meetings running on the BBB server is cached (default to 5 sec) */
+    private long meetingsCacheTtl = 5000;
+
+    /** Time (ms) getMeetingInfo and isMeetingRunning responses are cached (default to 2 sec) */
+    private long meetingInfoCacheTtl = 2000;
+    /** Extra time (ms) an expired response can be served while it is refreshed (default to 10 sec) */
+    private long meetingInfoStaleTtl = 10000;
+    /** Maximum number of meetings getMeetingInfo and isMeetingRunning responses are cached for (default to 5000) */
+    private int meetingInfoCacheSize = 5000;
+
+    @Getter(AccessLevel.NONE)
+    private BBBCache<String, Map<String, Object>> meetingInfoCache;
+    @Getter(AccessLevel.NONE)
+    private BBBCache<String, Boolean> meetingRunningCache;
+    /** Runs the background refreshes of stale cache entries */
+    @Getter(AccessLevel.NONE)
+    private ThreadPoolExecutor cacheRefreshExecutor;
+
+    /** Meetings running on the BBB servers, keyed by meeting id, as of the last getMeetings calls */
+    @Getter(AccessLevel.NONE)
+    private volatile RunningMeetings runningMeetings;
+    @Getter(AccessLevel.NONE)
+    private final Object runningMeetingsLock = new Object();
+
+    /** Meetings being created on the BBB server, so concurrent joins share a single create call */
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<String, CompletableFuture<Void>> pendingCreates = new ConcurrentHashMap<>();
+    /**
+     * Meetings recently created on the BBB server, with the time that knowledge
+     * expires. Checked against getMeetings, as BBB may end them in the meantime.
+     */
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentMap<String, Long> knownMeetings = new ConcurrentHashMap<>();
+    /**
+     * Server url of the placed meetings, keyed by Sakai meeting id. The least
+     * recently used ones go first once full, they are read again from the db.
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, String> meetingHosts = Collections.synchronizedMap(
+        new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_MEETING_HOSTS;
+            }
+        });
 
-    @Resource private BBBAPI api;
+    @Resource private BBBServerPool serverPool;
     @Resource private ServerConfigurationService config;
     @Resource private BBBStorageManager storageManager;
+    @Resource private BBBRecordingStorageManager recordingStorageManager;
+    @Resource private BBBMetrics metrics;
 
     private String bbbUrl;
     private String bbbSalt;
@@ -140,6 +207,29 @@ public class BBBAPIWrapper {
         recordingStatsEnabled = (boolean) config.getBoolean(BBBMeetingManager.CFG_RECORDINGSTATS_ENABLED, recordingStatsEnabled);
         recordingFormatFilterEnabled = (boolean) config.getBoolean(BBBMeetingManager.CFG_RECORDINGFORMATFILTER_ENABLED, recordingFormatFilterEnabled);
         recordingFormatFilterWhitelist = config.getString(BBBMeetingManager.CFG_RECORDINGFORMATFILTER_WHITELIST, recordingFormatFilterWhitelist);
+        createCacheTtl = (long) config.getInt(BBBMeetingManager.CFG_CREATE_CACHETTL, (int) createCacheTtl);
+        meetingsCacheTtl = (long) config.getInt(BBBMeetingManager.CFG_GETMEETINGS_CACHETTL, (int) meetingsCacheTtl);
+        meetingInfoCacheTtl = (long) config.getInt(BBBMeetingManager.CFG_MEETINGINFO_CACHETTL, (int) meetingInfoCacheTtl);
+        meetingInfoStaleTtl = (long) config.getInt(BBBMeetingManager.CFG_MEETINGINFO_STALETTL, (int) meetingInfoStaleTtl);
+        meetingInfoCacheSize = config.getInt(BBBMeetingManager.CFG_MEETINGINFO_CACHESIZE, meetingInfoCacheSize);
+
+        cacheRefreshExecutor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100), r -> {
+            Thread thread = new Thread(r, "bbb-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cacheRefreshExecutor.allowCoreThreadTimeOut(true);
+        meetingInfoCache = new BBBCache<>("meetingInfo", meetingInfoCacheTtl, meetingInfoStaleTtl, meetingInfoCacheSize, cacheRefreshExecutor);
+        meetingRunningCache = new BBBCache<>("isMeetingRunning", meetingInfoCacheTtl, meetingInfoStaleTtl, meetingInfoCacheSize, cacheRefreshExecutor);
+        metrics.register("cache", this::getCacheStats);
+        metrics.register("cacheRefresh", cacheRefreshExecutor);
+    }
+
+    public void destroy() {
+
+        if (cacheRefreshExecutor != null) {
+            cacheRefreshExecutor.shutdownNow();
+        }
     }
 
     // -----------------------------------------------------------------------
@@ -150,15 +240,17 @@ public class BBBAPIWrapper {
 
         log.debug("createMeeting()");
 
-        meeting.setHostUrl(api.getBaseUrl());
-        return api.createMeeting(meeting, autoCloseMeetingWindow, recordingEnabled, recordingReadyNotificationEnabled, isPreuploadPresentationEnabled());
+        BBBAPI api = serverPool.getApi(placeMeeting(meeting));
+        BBBMeeting created = api.createMeeting(meeting, autoCloseMeetingWindow, recordingEnabled, recordingReadyNotificationEnabled, isPreuploadPresentationEnabled());
+        invalidateMeeting(meeting.getId());
+        return created;
     }
 
     public boolean isMeetingRunning(String meetingID) throws BBBException {
 
         log.debug("isMeetingRunning({})", meetingID);
 
-        return api.isMeetingRunning(meetingID);
+        return meetingRunningCache.get(meetingID, () -> getApi(meetingID).isMeetingRunning(meetingID));
     }
 
     public Map<String, Object> getMeetingInfo(String meetingID, String password)
@@ -166,21 +258,104 @@ public class BBBAPIWrapper {
 
         log.debug("getMeetingInfo({})", meetingID);
 
-        Map<String, Object> meetingInfoResponse = new HashMap<>();
-
         try {
-            meetingInfoResponse = api.getMeetingInfo(meetingID, password);
+            // Shared between callers, hence read only.
+            return meetingInfoCache.get(meetingID, () -> {
+                try {
+                    return Collections.unmodifiableMap(getApi(meetingID).getMeetingInfo(meetingID, password));
+                } catch (BBBException e) {
+                    if (BBBException.MESSAGEKEY_UNREACHABLE.equals(e.getMessageKey()) ||
+                            BBBException.MESSAGEKEY_HTTPERROR.equals(e.getMessageKey()) ||
+                            BBBException.MESSAGEKEY_INVALIDRESPONSE.equals(e.getMessageKey()) ||
+                            BBBException.MESSAGEKEY_OVERLOADED.equals(e.getMessageKey())) {
+                        throw e;
+                    }
+                    // Not running (notFound and the like), which is worth caching too.
+                    if (BBBException.MESSAGEKEY_NOTFOUND.equals(e.getMessageKey())) {
+                        knownMeetings.remove(meetingID);
+                    }
+                    return Collections.emptyMap();
+                }
+            });
         } catch (BBBException e) {
-            if (BBBException.MESSAGEKEY_UNREACHABLE.equals(e.getMessageKey()) ||
-                    BBBException.MESSAGEKEY_HTTPERROR.equals(e.getMessageKey()) ||
-                    BBBException.MESSAGEKEY_INVALIDRESPONSE.equals(e.getMessageKey())) {
-                meetingInfoResponse = responseError(e.getMessageKey(), e.getMessage());
-            }
+            return responseError(e.getMessageKey(), e.getMessage());
         } catch (Exception e) {
-            meetingInfoResponse = responseError(BBBException.MESSAGEKEY_UNREACHABLE, e.getMessage());
+            return responseError(BBBException.MESSAGEKEY_UNREACHABLE, e.getMessage());
+        }
+    }
+
+    /** Hit and miss counters of the getMeetingInfo and isMeetingRunning caches */
+    public Map<String, Long> getCacheStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.putAll(meetingInfoCache.getStats());
+        stats.putAll(meetingRunningCache.getStats());
+        return stats;
+    }
+
+    /** Drop the cached state of a meeting, once it was created or ended */
+    private void invalidateMeeting(String meetingID) {
+
+        meetingInfoCache.invalidate(meetingID);
+        meetingRunningCache.invalidate(meetingID);
+        runningMeetings = null;
+    }
+
+    /**
+     * Live information of every meeting running on the BBB servers, keyed by
+     * meeting id. Backed by a single getMeetings call per server shared by all
+     * callers for a few seconds. The returned maps must not be modified.
+     */
+    public Map<String, Map<String, Object>> getRunningMeetings() throws BBBException {
+        return loadRunningMeetings().meetings;
+    }
+
+    private RunningMeetings loadRunningMeetings() throws BBBException {
+
+        RunningMeetings cached = runningMeetings;
+        if (cached != null && cached.expires > System.currentTimeMillis()) {
+            return cached;
         }
 
-        return meetingInfoResponse;
+        synchronized (runningMeetingsLock) {
+            cached = runningMeetings;
+            if (cached != null && cached.expires > System.currentTimeMillis()) {
+                return cached;
+            }
+
+            log.debug("getRunningMeetings()");
+
+            Map<String, Map<String, Object>> meetings = new HashMap<>();
+            Map<String, String> hosts = new HashMap<>();
+            List<String> urls = serverPool.getUrls();
+            BBBException failure = null;
+            int failures = 0;
+            for (String url : urls) {
+                Object response;
+                try {
+                    response = serverPool.getApi(url).getMeetings().get("meetings");
+                } catch (BBBException e) {
+                    // The meetings of an unreachable server are reported as not running.
+                    log.warn("Unable to get the meetings running on {}: {}", url, e.getMessage());
+                    failure = e;
+                    failures++;
+                    continue;
+                }
+                if (response instanceof List) {
+                    for (Map<String, Object> meeting : (List<Map<String, Object>>) response) {
+                        meetings.put((String) meeting.get("meetingID"), meeting);
+                        hosts.put((String) meeting.get("meetingID"), url);
+                    }
+                }
+            }
+            if (failures == urls.size()) {
+                throw failure;
+            }
+            cached = new RunningMeetings(Collections.unmodifiableMap(meetings), hosts,
+                System.currentTimeMillis() + meetingsCacheTtl);
+            runningMeetings = cached;
+            return cached;
+        }
     }
 
     public String getJoinMeetingURL(BBBMeeting meeting, User user, boolean isModerator)
@@ -196,13 +371,51 @@ public class BBBAPIWrapper {
             password = meeting.getModeratorPassword();
         }
 
-        return api.getJoinMeetingURL(meetingID, userId, userDisplayName, password);
+        return getApi(meeting).getJoinMeetingURL(meetingID, userId, userDisplayName, password);
     }
 
     public Map<String, Object> getRecordings(String meetingId) throws BBBException {
 
         log.debug("getRecordings({})", meetingId);
 
+        Map<BBBAPI, List<String>> servers = new LinkedHashMap<>();
+        for (String meetingID : meetingId.split("\\s*,\\s*")) {
+            servers.computeIfAbsent(getApi(meetingID), s -> new ArrayList<>()).add(meetingID);
+        }
+        if (servers.size() == 1) {
+            Map.Entry<BBBAPI, List<String>> server = servers.entrySet().iterator().next();
+            return getRecordings(server.getKey(), String.join(",", server.getValue()));
+        }
+
+        // Merge the recordings of every server, flagged as partial when some server failed.
+        List<Object> recordings = new ArrayList<>();
+        Map<String, Object> failure = null;
+        boolean succeeded = false;
+        boolean partial = false;
+        for (Map.Entry<BBBAPI, List<String>> server : servers.entrySet()) {
+            Map<String, Object> response = getRecordings(server.getKey(), String.join(",", server.getValue()));
+            if ("SUCCESS".equals(response.get("returncode"))) {
+                succeeded = true;
+                recordings.addAll((List<Object>) response.get("recordings"));
+                partial |= Boolean.TRUE.equals(response.get("partial"));
+            } else {
+                failure = response;
+            }
+        }
+        if (!succeeded) {
+            return failure;
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("returncode", "SUCCESS");
+        response.put("recordings", recordings);
+        if (partial || failure != null) {
+            response.put("partial", true);
+        }
+        return response;
+    }
+
+    private Map<String, Object> getRecordings(BBBAPI api, String meetingId) {
+
         try {
             return api.getRecordings(meetingId);
         } catch (BBBException e) {
@@ -215,24 +428,216 @@ public class BBBAPIWrapper {
     }
 
     public boolean endMeeting(String meetingId, String password) throws BBBException {
-        return api.endMeeting(meetingId, password);
+
+        knownMeetings.remove(meetingId);
+        meetingHosts.remove(getMeetingId(meetingId));
+        try {
+            return getApi(meetingId).endMeeting(meetingId, password);
+        } finally {
+            invalidateMeeting(meetingId);
+        }
     }
 
     public boolean publishRecordings(String recordingId, String publish) throws BBBException {
-        return api.publishRecordings(recordingId, publish);
+
+        boolean published = true;
+        for (Map.Entry<BBBAPI, String> server : getRecordingServers(recordingId).entrySet()) {
+            published &= server.getKey().publishRecordings(server.getValue(), publish);
+        }
+        return published;
     }
 
     public boolean protectRecordings(String recordingId, String protect) throws BBBException {
-        return api.protectRecordings(recordingId, protect);
+
+        boolean protectedRecordings = true;
+        for (Map.Entry<BBBAPI, String> server : getRecordingServers(recordingId).entrySet()) {
+            protectedRecordings &= server.getKey().protectRecordings(server.getValue(), protect);
+        }
+        return protectedRecordings;
     }
 
     public boolean deleteRecordings(String recordingID) throws BBBException {
-        return api.deleteRecordings(recordingID);
+
+        boolean deleted = true;
+        for (Map.Entry<BBBAPI, String> server : getRecordingServers(recordingID).entrySet()) {
+            deleted &= server.getKey().deleteRecordings(server.getValue());
+        }
+        return deleted;
+    }
+
+    /** Comma separated recording ids grouped by the server of their meeting */
+    private Map<BBBAPI, String> getRecordingServers(String recordingIDs) {
+
+        if (serverPool.hasSingleServer()) {
+            return Collections.singletonMap(serverPool.getApi(null), recordingIDs);
+        }
+
+        Map<BBBAPI, String> servers = new LinkedHashMap<>();
+        for (String recordingID : recordingIDs.split(",")) {
+            BBBRecording recording = recordingStorageManager.getRecording(recordingID.trim());
+            // Recordings not indexed yet can only be looked for on the default server.
+            BBBAPI api = recording != null ? getApi(recording.getMeetingId()) : serverPool.getApi(null);
+            servers.merge(api, recordingID.trim(), (ids, id) -> ids + "," + id);
+        }
+        return servers;
+    }
+
+    /** The server of a BBB meeting id (possibly a group session), the default one for meetings never placed */
+    private BBBAPI getApi(String meetingID) {
+
+        if (serverPool.hasSingleServer()) {
+            return serverPool.getApi(null);
+        }
+
+        String id = getMeetingId(meetingID);
+        String host = meetingHosts.get(id);
+        if (host == null) {
+            host = storageManager.getMeetingHost(id);
+            if (!serverPool.contains(host)) {
+                return serverPool.getApi(null);
+            }
+            host = serverPool.getUrl(host);
+            putMeetingHost(id, host);
+        }
+        return serverPool.getApi(host);
+    }
+
+    private BBBAPI getApi(BBBMeeting meeting) {
+
+        String host = meeting.getHostUrl();
+        return serverPool.contains(host) ? serverPool.getApi(host) : getApi(meeting.getId());
+    }
+
+    /**
+     * The server the meeting is hosted on, placing it first when it has none
+     * yet or its server left the pool. The meeting then sticks to that server.
+     */
+    private String placeMeeting(BBBMeeting meeting) throws BBBException {
+
+        String host = meeting.getHostUrl();
+        if (serverPool.contains(host)) {
+            return serverPool.getUrl(host);
+        }
+
+        // A meeting still running somewhere (e.g. started before the pool was set up) stays there.
+        String placed = serverPool.hasSingleServer() ? null : getRunningHost(meeting.getId());
+        if (placed == null) {
+            placed = serverPool.selectServer();
+        }
+        if (!storageManager.replaceMeetingHost(meeting.getId(), host, placed)) {
+            // Placed by another node meanwhile, go where it went.
+            String stored = storageManager.getMeetingHost(meeting.getId());
+            if (serverPool.contains(stored)) {
+                placed = serverPool.getUrl(stored);
+            }
+        }
+        log.debug("Meeting {} hosted on {}", meeting.getId(), placed);
+        meeting.setHostUrl(placed);
+        putMeetingHost(meeting.getId(), placed);
+        return placed;
+    }
+
+    /** The server the meeting, or any of its group sessions, is running on */
+    private String getRunningHost(String meetingID) {
+
+        try {
+            for (Map.Entry<String, String> running : loadRunningMeetings().hosts.entrySet()) {
+                if (running.getKey().equals(meetingID) || running.getKey().startsWith(meetingID + "[")) {
+                    return running.getValue();
+                }
+            }
+        } catch (BBBException e) {
+            log.debug("Unable to tell where {} is running: {}", meetingID, e.getMessage());
+        }
+        return null;
+    }
+
+    private void putMeetingHost(String meetingID, String host) {
+        meetingHosts.put(meetingID, host);
+    }
+
+    /** Forgets the server of a deleted meeting */
+    public void forgetMeeting(String meetingID) {
+
+        knownMeetings.remove(meetingID);
+        meetingHosts.remove(meetingID);
+        invalidateMeeting(meetingID);
+    }
+
+    /** The Sakai meeting id of a BBB meeting id, which may be a group session */
+    private static String getMeetingId(String meetingID) {
+
+        int groupStart = meetingID.indexOf('[');
+        return groupStart > 0 ? meetingID.substring(0, groupStart) : meetingID;
     }
 
     public void makeSureMeetingExists(BBBMeeting meeting) throws BBBException {
-        api.makeSureMeetingExists(meeting, autoCloseMeetingWindow, recordingEnabled,
-            recordingReadyNotificationEnabled, preuploadPresentationEnabled);
+
+        String meetingID = meeting.getId();
+        Long knownUntil = knownMeetings.get(meetingID);
+        if (knownUntil != null && knownUntil > System.currentTimeMillis()) {
+            if (isListed(meetingID)) {
+                log.debug("makeSureMeetingExists({}): meeting recently created", meetingID);
+                return;
+            }
+            // Ended by BBB since (nobody joined in time, or everybody left), the join would fail.
+            log.debug("makeSureMeetingExists({}): meeting recently created but no longer on the server", meetingID);
+            knownMeetings.remove(meetingID, knownUntil);
+        }
+
+        CompletableFuture<Void> create = new CompletableFuture<>();
+        CompletableFuture<Void> pending = pendingCreates.putIfAbsent(meetingID, create);
+        if (pending != null) {
+            // Another join is creating this meeting right now, share its outcome.
+            log.debug("makeSureMeetingExists({}): waiting for create in progress", meetingID);
+            awaitCreate(pending);
+            return;
+        }
+
+        try {
+            serverPool.getApi(placeMeeting(meeting)).makeSureMeetingExists(meeting, autoCloseMeetingWindow, recordingEnabled,
+                recordingReadyNotificationEnabled, preuploadPresentationEnabled);
+            if (createCacheTtl > 0) {
+                long now = System.currentTimeMillis();
+                if (knownMeetings.size() > 1000) {
+                    knownMeetings.values().removeIf(expires -> expires <= now);
+                }
+                knownMeetings.put(meetingID, now + createCacheTtl);
+            }
+            invalidateMeeting(meetingID);
+            create.complete(null);
+        } catch (BBBException | RuntimeException e) {
+            create.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingCreates.remove(meetingID, create);
+        }
+    }
+
+    /**
+     * Whether the meeting is still on its BBB server, as told by the shared
+     * getMeetings call. When that can't be told, the meeting is assumed to be.
+     */
+    private boolean isListed(String meetingID) {
+
+        try {
+            return loadRunningMeetings().meetings.containsKey(meetingID);
+        } catch (BBBException e) {
+            log.debug("Unable to tell whether {} is still on the server: {}", meetingID, e.getMessage());
+            return true;
+        }
+    }
+
+    private void awaitCreate(CompletableFuture<Void> pending) throws BBBException {
+
+        try {
+            pending.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BBBException) {
+                throw (BBBException) e.getCause();
+            }
+            throw new BBBException(BBBException.MESSAGEKEY_INTERNALERROR, e.getMessage(), e);
+        }
     }
 
     private Map<String, Object> responseError(String messageKey, String message) {
@@ -246,6 +651,20 @@ public class BBBAPIWrapper {
         return map;
     }
 
+    private static class RunningMeetings {
+
+        final Map<String, Map<String, Object>> meetings;
+        /** Server url of each running meeting */
+        final Map<String, String> hosts;
+        final long expires;
+
+        RunningMeetings(Map<String, Map<String, Object>> meetings, Map<String, String> hosts, long expires) {
+            this.meetings = meetings;
+            this.hosts = hosts;
+            this.expires = expires;
+        }
+    }
+
     private String getUserId(User user) {
 
         boolean recordingstatsEnabled = isRecordingStatsEnabled();
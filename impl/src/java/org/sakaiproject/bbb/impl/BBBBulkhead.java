@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+import org.sakaiproject.bbb.api.BBBException;
+
+/**
+ * Limits the number of concurrent calls of each BBB API call type, so a flood
+ * of slow calls of one type (e.g. getRecordings) can't hold every request
+ * thread and starve the others (join, getMeetingInfo, ...). A call waits at
+ * most {@code waitTimeout} ms for a slot before being rejected.
+ */
+public class BBBBulkhead {
+
+    private final ToIntFunction<String> maxCalls;
+    private final long waitTimeout;
+
+    private final ConcurrentMap<String, Compartment> compartments = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxCalls maximum number of concurrent calls of a call type, 0 for
+     * no limit
+     */
+    public BBBBulkhead(ToIntFunction<String> maxCalls, long waitTimeout) {
+
+        this.maxCalls = maxCalls;
+        this.waitTimeout = waitTimeout;
+    }
+
+    public void acquire(String apiCall) throws BBBException {
+
+        Compartment compartment = compartments.computeIfAbsent(apiCall, c -> new Compartment(maxCalls.applyAsInt(c)));
+        if (compartment.permits == null) {
+            return;
+        }
+        try {
+            if (!compartment.permits.tryAcquire(waitTimeout, TimeUnit.MILLISECONDS)) {
+                compartment.rejected.incrementAndGet();
+                throw new BBBException(BBBException.MESSAGEKEY_OVERLOADED, "Too many concurrent " + apiCall + " calls");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BBBException(BBBException.MESSAGEKEY_INTERNALERROR, "Interrupted waiting for a " + apiCall + " call", e);
+        }
+    }
+
+    public void release(String apiCall) {
+
+        Compartment compartment = compartments.get(apiCall);
+        if (compartment != null && compartment.permits != null) {
+            compartment.permits.release();
+        }
+    }
+
+    /** Calls in progress and rejected, per call type */
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        new TreeMap<>(compartments).forEach((apiCall, compartment) -> {
+            if (compartment.permits != null) {
+                stats.put("bulkhead." + apiCall + ".active", (long) (compartment.max - compartment.permits.availablePermits()));
+                stats.put("bulkhead." + apiCall + ".rejected", compartment.rejected.get());
+            }
+        });
+        return stats;
+    }
+
+    private static class Compartment {
+
+        final int max;
+        final Semaphore permits;
+        final AtomicLong rejected = new AtomicLong();
+
+        Compartment(int max) {
+            this.max = max;
+            this.permits = max > 0 ? new Semaphore(max) : null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sakaiproject.bbb.api.BBBException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Small in-memory cache for BBB API responses.
+ * <ul>
+ *   <li>values are fresh for {@code ttl} ms, then served stale for up to
+ *   {@code staleTtl} more ms while a single background refresh runs</li>
+ *   <li>concurrent misses on the same key share a single load</li>
+ *   <li>at most {@code maxSize} keys are kept</li>
+ * </ul>
+ * Failed loads are not cached.
+ */
+@Slf4j
+public class BBBCache<K, V> {
+
+    /** Fetches the current value of a key from the BBB server */
+    public interface Loader<V> {
+        V load() throws BBBException;
+    }
+
+    private final String name;
+    private final long ttl;
+    private final long staleTtl;
+    private final int maxSize;
+    private final Executor refreshExecutor;
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BBBCache(String name, long ttl, long staleTtl, int maxSize, Executor refreshExecutor) {
+
+        this.name = name;
+        this.ttl = ttl;
+        this.staleTtl = staleTtl;
+        this.maxSize = maxSize;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public V get(K key, Loader<V> loader) throws BBBException {
+
+        if (ttl <= 0) {
+            misses.incrementAndGet();
+            return loader.load();
+        }
+
+        long now = System.currentTimeMillis();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && now < entry.expires) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        if (entry != null && now < entry.expires + staleTtl) {
+            staleHits.incrementAndGet();
+            refresh(key, loader);
+            return entry.value;
+        }
+
+        misses.incrementAndGet();
+        return await(load(key, loader));
+    }
+
+    /** Forget a key, e.g. once the meeting it describes was created or ended */
+    public void invalidate(K key) {
+
+        // A load in flight may have read the old state, don't let it be cached.
+        loads.remove(key);
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+
+        loads.clear();
+        entries.clear();
+    }
+
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put(name + ".hits", hits.get());
+        stats.put(name + ".staleHits", staleHits.get());
+        stats.put(name + ".misses", misses.get());
+        stats.put(name + ".evictions", evictions.get());
+        stats.put(name + ".size", (long) entries.size());
+        return stats;
+    }
+
+    private void refresh(K key, Loader<V> loader) {
+
+        if (loads.containsKey(key)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    load(key, loader).join();
+                } catch (RuntimeException e) {
+                    log.debug("Background refresh of {} {} failed: {}", name, key, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Best effort: the entry stays stale and the next caller tries again.
+            log.debug("Background refresh of {} {} rejected", name, key);
+        }
+    }
+
+    /** The load in flight for the key, started by this call if there was none */
+    private CompletableFuture<V> load(K key, Loader<V> loader) {
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> pending = loads.putIfAbsent(key, load);
+        if (pending != null) {
+            return pending;
+        }
+
+        try {
+            V value = loader.load();
+            // Only cache the value when the load was not invalidated meanwhile.
+            if (loads.remove(key, load)) {
+                put(key, value);
+            }
+            load.complete(value);
+        } catch (BBBException | RuntimeException e) {
+            loads.remove(key, load);
+            load.completeExceptionally(e);
+        }
+        return load;
+    }
+
+    private void put(K key, V value) {
+
+        long now = System.currentTimeMillis();
+        if (entries.size() >= maxSize) {
+            entries.values().removeIf(e -> now >= e.expires + staleTtl);
+            Iterator<K> keys = entries.keySet().iterator();
+            while (entries.size() >= maxSize && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        entries.put(key, new Entry<>(value, now + ttl));
+    }
+
+    private V await(CompletableFuture<V> load) throws BBBException {
+
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BBBException) {
+                throw (BBBException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new BBBException(BBBException.MESSAGEKEY_INTERNALERROR, e.getMessage(), e);
+        }
+    }
+
+    private static class Entry<V> {
+
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
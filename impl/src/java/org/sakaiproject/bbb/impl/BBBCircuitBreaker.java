@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sakaiproject.bbb.api.BBBException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breaker of a BBB server. After {@code failureThreshold}
+ * consecutive failures (server unreachable, HTTP error, invalid response) the
+ * circuit opens and calls fail fast for {@code openTime} ms. A single trial
+ * call is then let through: the circuit closes when it succeeds and opens
+ * again when it fails.
+ */
+@Slf4j
+public class BBBCircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openTime;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    private long opened;
+    private long halfOpened;
+    private long closed;
+    private long rejected;
+
+    public BBBCircuitBreaker(String name, int failureThreshold, long openTime) {
+
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /** Let a call through, or fail fast while the circuit is open */
+    public synchronized void before() throws BBBException {
+
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openTime) {
+            log.info("Trying BigBlueButton server {} again", name);
+            state = State.HALF_OPEN;
+            halfOpened++;
+            return;
+        }
+        // Open, or half open with the trial call still running.
+        rejected++;
+        throw new BBBException(BBBException.MESSAGEKEY_UNREACHABLE, "BigBlueButton server " + name + " is unavailable");
+    }
+
+    public synchronized void onSuccess() {
+
+        failures = 0;
+        if (state != State.CLOSED) {
+            log.info("BigBlueButton server {} is available again", name);
+            state = State.CLOSED;
+            closed++;
+        }
+    }
+
+    public synchronized void onFailure() {
+
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0 && failures >= failureThreshold)) {
+            log.warn("BigBlueButton server {} is unavailable after {} failures, failing fast for {} ms", name, failures, openTime);
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened++;
+        }
+    }
+
+    /**
+     * A call let through that never reached the server (no free connection on
+     * this node). Neither a success nor a failure, but a trial call hands its
+     * turn to the next call.
+     */
+    public synchronized void onSkipped() {
+
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis() - openTime;
+        }
+    }
+
+    /** State (0 closed, 1 open, 2 half open) and transition counters */
+    public synchronized Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        String prefix = "circuitBreaker." + name + ".";
+        stats.put(prefix + "state", (long) state.ordinal());
+        stats.put(prefix + "failures", (long) failures);
+        stats.put(prefix + "opened", opened);
+        stats.put(prefix + "halfOpened", halfOpened);
+        stats.put(prefix + "closed", closed);
+        stats.put(prefix + "rejected", rejected);
+        return stats;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+
+import org.sakaiproject.bbb.api.BBBEmailOutbox;
+import org.sakaiproject.bbb.api.storage.BBBEmail;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class BBBEmailOutboxImpl implements BBBEmailOutbox {
+
+    /** Emails inserted per flush when enqueuing */
+    private static final int BATCH_SIZE = 50;
+
+    @Resource(name = "org.sakaiproject.springframework.orm.hibernate.GlobalSessionFactory")
+    private SessionFactory sessionFactory;
+
+    @Transactional
+    public void enqueue(List<BBBEmail> emails) {
+
+        Session session = sessionFactory.getCurrentSession();
+        for (int i = 0; i < emails.size(); i++) {
+            session.persist(emails.get(i));
+            if ((i + 1) % BATCH_SIZE == 0) {
+                session.flush();
+                session.clear();
+            }
+        }
+    }
+
+    @Transactional
+    public List<BBBEmail> claim(String nodeId, int max) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Date now = new Date();
+        List<String> due = (List<String>) session.createCriteria(BBBEmail.class)
+            .add(Restrictions.eq("status", BBBEmail.STATUS_PENDING))
+            .add(Restrictions.le("nextAttempt", now))
+            .addOrder(Order.asc("nextAttempt"))
+            .setProjection(Projections.property("id"))
+            .setMaxResults(max)
+            .list();
+
+        // Another node may claim the same emails concurrently, only the emails still pending are ours.
+        List<String> claimed = new ArrayList<>();
+        for (String id : due) {
+            int updated = session.createQuery("update BBBEmail set status = :sending, claimedBy = :nodeId, claimedAt = :now"
+                    + " where id = :id and status = :pending")
+                .setParameter("sending", BBBEmail.STATUS_SENDING)
+                .setParameter("nodeId", nodeId)
+                .setParameter("now", now)
+                .setParameter("id", id)
+                .setParameter("pending", BBBEmail.STATUS_PENDING)
+                .executeUpdate();
+            if (updated > 0) {
+                claimed.add(id);
+            }
+        }
+
+        if (claimed.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return (List<BBBEmail>) session.createCriteria(BBBEmail.class)
+            .add(Restrictions.in("id", claimed))
+            .list();
+    }
+
+    @Transactional
+    public void sent(String emailId) {
+
+        sessionFactory.getCurrentSession().createQuery("delete from BBBEmail where id = :id")
+            .setParameter("id", emailId)
+            .executeUpdate();
+    }
+
+    @Transactional
+    public boolean markSent(String emailId) {
+
+        return sessionFactory.getCurrentSession().createQuery("update BBBEmail set status = :sent,"
+                + " claimedBy = null, claimedAt = null where id = :id")
+            .setParameter("sent", BBBEmail.STATUS_SENT)
+            .setParameter("id", emailId)
+            .executeUpdate() > 0;
+    }
+
+    @Transactional
+    public void retry(String emailId, int attempts, Date nextAttempt, String error) {
+        update(emailId, BBBEmail.STATUS_PENDING, attempts, nextAttempt, error);
+    }
+
+    @Transactional
+    public void failed(String emailId, int attempts, String error) {
+        update(emailId, BBBEmail.STATUS_FAILED, attempts, new Date(), error);
+    }
+
+    private void update(String emailId, String status, int attempts, Date nextAttempt, String error) {
+
+        sessionFactory.getCurrentSession().createQuery("update BBBEmail set status = :status, attempts = :attempts,"
+                + " nextAttempt = :nextAttempt, lastError = :error, claimedBy = null, claimedAt = null where id = :id")
+            .setParameter("status", status)
+            .setParameter("attempts", attempts)
+            .setParameter("nextAttempt", nextAttempt)
+            .setParameter("error", error != null && error.length() > 255 ? error.substring(0, 255) : error)
+            .setParameter("id", emailId)
+            .executeUpdate();
+    }
+
+    @Transactional
+    public int releaseClaims(Date claimedBefore) {
+
+        return sessionFactory.getCurrentSession().createQuery("update BBBEmail set status = :pending, claimedBy = null, claimedAt = null"
+                + " where status = :sending and claimedAt < :claimedBefore")
+            .setParameter("pending", BBBEmail.STATUS_PENDING)
+            .setParameter("sending", BBBEmail.STATUS_SENDING)
+            .setParameter("claimedBefore", claimedBefore)
+            .executeUpdate();
+    }
+
+    @Transactional
+    public int purge(Date failedBefore) {
+
+        return sessionFactory.getCurrentSession().createQuery("delete from BBBEmail"
+                + " where status = :sent or (status = :failed and nextAttempt < :failedBefore)")
+            .setParameter("sent", BBBEmail.STATUS_SENT)
+            .setParameter("failed", BBBEmail.STATUS_FAILED)
+            .setParameter("failedBefore", failedBefore)
+            .executeUpdate();
+    }
+
+    @Transactional
+    public long countPending() {
+
+        return (Long) sessionFactory.getCurrentSession().createCriteria(BBBEmail.class)
+            .add(Restrictions.in("status", BBBEmail.STATUS_PENDING, BBBEmail.STATUS_SENDING))
+            .setProjection(Projections.rowCount())
+            .uniqueResult();
+    }
+}
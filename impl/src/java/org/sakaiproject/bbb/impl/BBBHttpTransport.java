@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * HTTP transport used by {@link BaseBBBAPI} to reach the BigBlueButton server(s).
+ * Implementations are registered in components.xml and can be swapped there.
+ */
+public interface BBBHttpTransport {
+
+    /**
+     * Consumes the body of a successful (HTTP 200) response. The stream is only
+     * valid for the duration of the call.
+     */
+    interface ResponseReader<T> {
+        T read(InputStream body) throws Exception;
+    }
+
+    /**
+     * Perform a GET request. A BBBException with the httpError key is thrown
+     * when the server does not answer with HTTP 200, one with the
+     * overloadedError key when no connection could be had on this node.
+     */
+    <T> T get(String url, ResponseReader<T> reader) throws Exception;
+
+    /**
+     * Perform a POST request with the supplied body.
+     */
+    <T> T post(String url, String contentType, String body, ResponseReader<T> reader) throws Exception;
+
+    /**
+     * Connection usage statistics (pool occupancy, requests, connections opened, ...)
+     */
+    Map<String, Long> getStats();
+}
@@ -16,20 +16,22 @@
 
 package org.sakaiproject.bbb.impl;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.StringWriter;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
@@ -49,8 +51,6 @@ import net.fortuna.ical4j.model.property.ProdId;
 import net.fortuna.ical4j.model.property.Uid;
 import net.fortuna.ical4j.model.property.Url;
 import net.fortuna.ical4j.model.property.Version;
-import net.fortuna.ical4j.util.RandomUidGenerator;
-import net.fortuna.ical4j.util.UidGenerator;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -61,19 +61,18 @@ import org.sakaiproject.authz.api.Member;
 import org.sakaiproject.authz.api.Role;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.bbb.api.BBBException;
+import org.sakaiproject.bbb.api.BBBPermissions;
+import org.sakaiproject.bbb.api.BBBRecordingStorageManager;
 import org.sakaiproject.bbb.api.BBBStorageManager;
+import org.sakaiproject.bbb.api.storage.BBBEmail;
 import org.sakaiproject.bbb.api.storage.BBBMeeting;
 import org.sakaiproject.bbb.api.BBBMeetingManager;
 import org.sakaiproject.bbb.api.Participant;
 import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.bbb.api.storage.BBBMeetingQuery;
+import org.sakaiproject.bbb.api.storage.BBBRecording;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.component.cover.ComponentManager;
-import org.sakaiproject.email.api.Attachment;
-import org.sakaiproject.email.api.ContentType;
-import org.sakaiproject.email.api.EmailAddress;
-import org.sakaiproject.email.api.EmailMessage;
-import org.sakaiproject.email.api.EmailService;
-import org.sakaiproject.email.api.EmailAddress.RecipientType;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.ResourceProperties;
 import org.sakaiproject.event.api.EventTrackingService;
@@ -107,9 +106,17 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
 
     @Resource private BBBStorageManager storageManager;
     @Resource private BBBAPIWrapper bbbApiWrapper;
+    @Resource private BBBWaitingRoom waitingRoom;
+    @Resource private BBBRecordingIndex recordingIndex;
+    @Resource private BBBRecordingStorageManager recordingStorageManager;
     @Resource private UserDirectoryService userDirectoryService;
     @Resource private SiteService siteService;
-    @Resource private EmailService emailService;
+    @Resource private BBBNotificationSender notificationSender;
+    @Resource private BBBUserResolver userResolver;
+    @Resource private BBBRequestMemo requestMemo;
+    @Resource private BBBPermissionSnapshots permissionSnapshots;
+    @Resource private BBBRosterIndex rosterIndex;
+    @Resource private BBBMetrics metrics;
     @Resource private EventTrackingService eventTrackingService;
     @Resource(name = "org.sakaiproject.authz.api.SecurityService")
     private SecurityService securityService;
@@ -136,19 +143,83 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     // -----------------------------------------------------------------------
     public BBBMeeting getMeeting(String meetingId)
     		throws SecurityException, Exception {
-        return processMeeting(storageManager.getMeeting(meetingId));
+
+        BBBMeeting meeting = storageManager.getMeeting(meetingId);
+        if (meeting == null) return null;
+        return processMeeting(meeting, getCurrentUserSiteContext(meeting.getSiteId()));
     }
 
     public List<BBBMeeting> getSiteMeetings(String siteId) throws SecurityException, Exception {
 
         log.debug("getSiteMeetings({})", siteId);
 
+        // Grab all the meetings for this site
+        return filterMeetings(storageManager.getSiteMeetings(siteId, NOT_INCLUDE_DELETED_MEETINGS));
+    }
+
+    public List<BBBMeeting> getSiteMeetingSummaries(String siteId) throws SecurityException, Exception {
+
+        log.debug("getSiteMeetingSummaries({})", siteId);
+
+        BBBMeetingQuery query = new BBBMeetingQuery();
+        query.setSiteId(siteId);
+        return filterMeetings(storageManager.getSiteMeetingSummaries(query));
+    }
+
+    public Map<String, Object> getSiteMeetingSummaries(String siteId, String filter, String sortBy, boolean ascending, int first, int max)
+            throws SecurityException, Exception {
+
+        log.debug("getSiteMeetingSummaries({}, {}, {}, {}, {}, {})", siteId, filter, sortBy, ascending, first, max);
+
+        BBBMeetingQuery query = new BBBMeetingQuery();
+        query.setSiteId(siteId);
+        query.setFilter(filter);
+        if (sortBy != null) {
+            query.setSortBy(sortBy);
+        }
+        query.setAscending(ascending);
+        query.setFirst(Math.max(first, 0));
+        query.setMax(Math.max(max, 0));
+
+        // Select the meetings the user can see in the database, so the page and total are right.
+        String userId = userDirectoryService.getCurrentUser().getId();
+        BBBUserSiteContext context = getUserSiteContext(userId, siteId);
+        if (!securityService.isSuperUser() && !context.isAllowed(FN_EDIT_ANY) && !context.isAllowed(FN_DELETE_ANY)) {
+            query.setUserId(userId);
+            query.setOwner(context.isAllowed(FN_EDIT_OWN) || context.isAllowed(FN_DELETE_OWN));
+            query.setParticipant(context.isAllowed(FN_PARTICIPATE));
+            if (query.isParticipant()) {
+                query.setUserRole(context.getMembershipEvaluator().getRole());
+                query.setUserGroupIds(new ArrayList<>(context.getMembershipEvaluator().getGroupIds()));
+            }
+        }
+
+        Map<String, Object> page = new HashMap<>();
+        if (query.getUserId() != null && !query.isOwner() && !query.isParticipant()) {
+            page.put("meetings", new ArrayList<BBBMeeting>());
+            page.put("total", 0L);
+            return page;
+        }
+        page.put("meetings", filterMeetings(storageManager.getSiteMeetingSummaries(query)));
+        page.put("total", storageManager.countSiteMeetings(query));
+        return page;
+    }
+
+    /** The meetings the current user can participate in, or manage */
+    private List<BBBMeeting> filterMeetings(List<BBBMeeting> meetings) throws SecurityException, Exception {
+
         List<BBBMeeting> filteredMeetings = new ArrayList<>();
 
-        // Grab all the meetings for this site
-        List<BBBMeeting> meetings = storageManager.getSiteMeetings(siteId, NOT_INCLUDE_DELETED_MEETINGS);
+        // One context per site, even outside of a request.
+        String userId = userDirectoryService.getCurrentUser().getId();
+        Map<String, BBBUserSiteContext> contexts = new HashMap<>();
         for (BBBMeeting meeting : meetings) {
-            meeting = processMeeting(meeting);
+            BBBUserSiteContext context = contexts.get(meeting.getSiteId());
+            if (context == null) {
+                context = getUserSiteContext(userId, meeting.getSiteId());
+                contexts.put(meeting.getSiteId(), context);
+            }
+            meeting = processMeeting(meeting, context);
             if (meeting != null) {
                 // add to meeting list
                 filteredMeetings.add(meeting);
@@ -247,10 +318,79 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         return bbbApiWrapper.getMeetingInfo(meeting.getId(), meeting.getModeratorPassword());
     }
 
+    public Map<String, Object> getSiteMeetingsInfo(String siteId) throws SecurityException, Exception {
+
+        log.debug("getSiteMeetingsInfo({})", siteId);
+
+        List<BBBMeeting> meetings = getSiteMeetingSummaries(siteId);
+        Map<String, Object> meetingsInfo = new HashMap<>();
+        Map<String, Object> response = new HashMap<>();
+        response.put("meetings", meetingsInfo);
+
+        Map<String, Map<String, Object>> runningMeetings;
+        try {
+            runningMeetings = bbbApiWrapper.getRunningMeetings();
+        } catch (BBBException e) {
+            // Report the error on every meeting, the same way getMeetingInfo does.
+            Map<String, Object> error = new HashMap<>();
+            error.put("returncode", "FAILED");
+            error.put("messageKey", e.getMessageKey());
+            error.put("message", e.getMessage());
+            for (BBBMeeting meeting : meetings) {
+                meetingsInfo.put(meeting.getId(), error);
+            }
+            response.putAll(error);
+            return response;
+        }
+
+        // Meetings with at least one group session in use.
+        Set<String> groupActive = new HashSet<>();
+        for (Map.Entry<String, Map<String, Object>> running : runningMeetings.entrySet()) {
+            int groupStart = running.getKey().indexOf('[');
+            if (groupStart > 0 && !"0".equals(running.getValue().get("participantCount"))) {
+                groupActive.add(running.getKey().substring(0, groupStart));
+            }
+        }
+
+        for (BBBMeeting meeting : meetings) {
+            // A meeting not running has no info, as getMeetingInfo returns for it.
+            Map<String, Object> meetingInfo = new HashMap<>();
+            Map<String, Object> running = runningMeetings.get(meeting.getId());
+            if (running != null) {
+                meetingInfo.putAll(running);
+                meetingInfo.put("returncode", "SUCCESS");
+            }
+            if (groupActive.contains(meeting.getId())) {
+                meetingInfo.put("groupActive", true);
+            }
+            meetingsInfo.put(meeting.getId(), meetingInfo);
+        }
+        response.put("returncode", "SUCCESS");
+        return response;
+    }
+
+    public CompletableFuture<Map<String, Object>> waitForModerator(String meetingID, String groupId) {
+
+        log.debug("waitForModerator({}, {})", meetingID, groupId);
+
+        BBBMeeting meeting = storageManager.getMeeting(meetingID);
+
+        if (meeting.getGroupSessions() && StringUtils.isNotBlank(groupId)) {
+            return waitingRoom.waitForModerator(meeting.getId() + "[" + groupId + "]", meeting.getModeratorPassword());
+        }
+
+        return waitingRoom.waitForModerator(meeting.getId(), meeting.getModeratorPassword());
+    }
+
     public Map<String, Object> getRecordings(String meetingID, String groupId, String siteId)
             throws BBBException {
+        return getRecordings(meetingID, groupId, siteId, false);
+    }
+
+    public Map<String, Object> getRecordings(String meetingID, String groupId, String siteId, boolean refresh)
+            throws BBBException {
 
-        log.debug("getRecordings({}, {}, {})", meetingID, groupId, siteId);
+        log.debug("getRecordings({}, {}, {}, {})", meetingID, groupId, siteId, refresh);
 
         BBBMeeting meeting = storageManager.getMeeting(meetingID);
 
@@ -262,16 +402,46 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
             return recordings;
         }
 
-        Map<String, String> ownerIds = new HashMap<>();
-        String ownerId =  meeting.getOwnerId();
-        ownerIds.put(meetingID, ownerId);
-        String meetingIDs = meetingID;
-        if (meeting.getGroupSessions() && StringUtils.isNotBlank(groupId)) {
-            ownerIds.put(meetingID + "[" + groupId + "]", ownerId);
-            meetingIDs += "," + meetingID + "[" + groupId + "]";
+        // Only the recordings of the meeting itself, and of the group session if any.
+        String groupFilter = meeting.getGroupSessions() && StringUtils.isNotBlank(groupId) ? groupId : "";
+        return getIndexedRecordings(Collections.singletonList(meeting), groupFilter, siteId, 0, 0, refresh);
+    }
+
+    /**
+     * Recordings of the given meetings from the local index, synchronizing
+     * first the meetings that need it, or all of them when refreshing. The
+     * indexed recordings are returned when the BBB server can't be reached,
+     * unless there are none.
+     */
+    private Map<String, Object> getIndexedRecordings(List<BBBMeeting> meetings, String groupId, String siteId, int first, int max, boolean refresh) {
+
+        BBBException syncFailure = null;
+        try {
+            recordingIndex.syncIfNeeded(meetings, refresh);
+        } catch (BBBException e) {
+            log.warn("Failed to synchronize recordings, answering from the index: {}", e.getMessage());
+            syncFailure = e;
         }
 
-        return postProcessRecordings(bbbApiWrapper.getRecordings(meetingIDs), siteId, ownerIds);
+        Map<String, String> ownerIds = new HashMap<>();
+        meetings.forEach(m -> ownerIds.put(m.getId(), m.getOwnerId()));
+        List<String> meetingIds = new ArrayList<>(ownerIds.keySet());
+
+        List<Map<String, Object>> recordingList = recordingStorageManager.getRecordings(meetingIds, groupId, first, max)
+            .stream().map(recordingIndex::toMap).collect(Collectors.toList());
+        long total = max > 0 ? recordingStorageManager.countRecordings(meetingIds, groupId) : recordingList.size();
+
+        Map<String, Object> recordings = new HashMap<>();
+        if (syncFailure != null && total == 0) {
+            recordings.put("returncode", "FAILED");
+            recordings.put("messageKey", syncFailure.getMessageKey());
+            recordings.put("message", syncFailure.getMessage());
+            return recordings;
+        }
+        recordings.put("returncode", "SUCCESS");
+        recordings.put("recordings", recordingList);
+        recordings.put("total", total);
+        return postProcessRecordings(recordings, siteId, ownerIds);
     }
 
     private Map<String, Object> postProcessRecordings(Map<String, Object> recordings, String siteId, Map<String, String> ownerIds) {
@@ -280,14 +450,16 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         if ("SUCCESS".equals(recordings.get("returncode")) && recordingList != null) {
             log.debug("{} recordings retrieved from BBB server", recordingList.size());
             boolean recordingFilterEnabled = isRecordingFormatFilterEnabled();
-            User user = userDirectoryService.getCurrentUser();
-            String userId = user.getId();
+            BBBUserSiteContext context = getCurrentUserSiteContext(siteId);
+            List<String> whitelist = Arrays.asList(getRecordingFormatFilterWhitelist().split(","));
             for (Map<String, Object> recordingItem : recordingList) {
                 // Add meeting ownerId to the recording
-                recordingItem.put("ownerId", ownerIds.get((String) recordingItem.get("meetingID")));
+                String meetingID = (String) recordingItem.get("meetingID");
+                int groupStart = meetingID.indexOf('[');
+                recordingItem.put("ownerId", ownerIds.get(groupStart > 0 ? meetingID.substring(0, groupStart) : meetingID));
                 // Filter formats that are not allowed to be shown, only if filter is enabled.
                 if (recordingFilterEnabled) {
-                    recordingsFilterFormats(recordingItem, siteId, userId);
+                    recordingsFilterFormats(recordingItem, context, whitelist);
                 }
             }
         }
@@ -301,8 +473,16 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     }
 
     public Map<String, Object> getSiteRecordings(String siteId) throws SecurityException, Exception {
+        return getSiteRecordings(siteId, 0, 0);
+    }
+
+    public Map<String, Object> getSiteRecordings(String siteId, int first, int max) throws SecurityException, Exception {
+        return getSiteRecordings(siteId, first, max, false);
+    }
+
+    public Map<String, Object> getSiteRecordings(String siteId, int first, int max, boolean refresh) throws SecurityException, Exception {
 
-        log.debug("getSiteRecordings({})", siteId);
+        log.debug("getSiteRecordings({}, {}, {}, {})", siteId, first, max, refresh);
 
         Map<String, Object> recordings;
         List<BBBMeeting> meetings = storageManager.getSiteMeetings(siteId, INCLUDE_DELETED_MEETINGS);
@@ -316,17 +496,10 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
             return recordings;
         }
 
-        Site site = null;
-        try {
-            site = siteService.getSite(siteId);
-        } catch (IdUnusedException e) {
-            log.error("No site for id {}", siteId);
-        }
+        boolean superUser = securityService.isSuperUser();
+        BBBMembershipEvaluator evaluator = getCurrentUserSiteContext(siteId).getMembershipEvaluator();
 
-        Map<String, String> ownerIds = new HashMap<>();
-        String meetingID;
-        String ownerId;
-        String meetingIDs = "";
+        List<BBBMeeting> recordedMeetings = new ArrayList<>();
         for (BBBMeeting meeting : meetings) {
             if (!meeting.getRecording()) {
                 log.debug("Meeting {} is not set to be recorded. Skipping ...", meeting.getId());
@@ -334,37 +507,16 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
                 continue;
             }
 
-            List<String> permittedUserIds = getMeetingUsers(meeting, site).stream()
-                .map(User::getId).collect(Collectors.toList());
-
-            if (!securityService.isSuperUser()
-                && !permittedUserIds.contains(userDirectoryService.getCurrentUser().getId())) {
+            if (!superUser && !evaluator.isParticipant(meeting)) {
                 log.debug("Not super user and not a permitted user. Skipping {} ...", meeting.getId());
                 continue;
             }
 
-            meetingID = meeting.getId();
-            ownerId = meeting.getOwnerId();
-            ownerIds.put(meetingID, ownerId);
-            if (!meetingIDs.equals("")) {
-                meetingIDs += ",";
-            }
-            meetingIDs += meetingID;
-            if (meeting.getGroupSessions()) {
-                try {
-                    Collection<Group> userGroups = site.getGroups();
-                    for (Group g : userGroups) {
-                        ownerIds.put(meetingID + "[" + g.getId() + "]", ownerId);
-                        meetingIDs += "," + meetingID + "[" + g.getId() + "]";
-                    }
-                } catch (Exception e) {
-                    log.error("Failed to get recordings for group sessions", e);
-                    log.error("Unable to get recordings for group sessions in meeting '{}'.", meeting.getName());
-                }
-            }
+            // The recordings of its group sessions are indexed with the meeting.
+            recordedMeetings.add(meeting);
         }
-        // Safety for BBB-148. Make sure meetingIDs is not empty.
-        if (meetingIDs.equals("")) {
+        // Safety for BBB-148. Make sure there are meetings to get recordings for.
+        if (recordedMeetings.isEmpty()) {
             log.debug("meetingIDs is empty. Returning noRecordings ...");
             // Set an empty List of recordings and a SUCCESS key as default response values.
             recordings = new HashMap<>();
@@ -374,32 +526,32 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
             return recordings;
         }
 
-        return postProcessRecordings(bbbApiWrapper.getRecordings(meetingIDs), siteId, ownerIds);
+        return getIndexedRecordings(recordedMeetings, null, siteId, first, max, refresh);
     }
 
-    private void recordingsFilterFormats(Map<String, Object> recordingItem, String siteId, String userId) {
+    /** Remove the playback formats of the recording the user may not see, package private for the benchmarks */
+    void recordingsFilterFormats(Map<String, Object> recordingItem, BBBUserSiteContext context, List<String> whitelist) {
 
         String ownerId = (String) recordingItem.get("ownerId");
         ((List<Map<String, Object>>) recordingItem.get("playback"))
-            .removeIf(f -> recordingsFilterFormatRemovable((String) f.get("type"), siteId, ownerId, userId));
+            .removeIf(f -> recordingsFilterFormatRemovable((String) f.get("type"), context, ownerId, whitelist));
     }
 
-    private boolean recordingsFilterFormatRemovable(String type, String siteId, String ownerId, String userId) {
+    private boolean recordingsFilterFormatRemovable(String type, BBBUserSiteContext context, String ownerId, List<String> whitelist) {
 
         // Validate if type is whitelisted.
-        List<String> whiltelist = Arrays.asList(this.getRecordingFormatFilterWhitelist().split(","));
-        if (whiltelist.contains(type)) {
+        if (whitelist.contains(type)) {
             // It is whitelisted, don't remove.
             return false;
         }
         // Validate if user is allowed to view extended formats
-        if (ownerId.equals(userId)) {
-            if (isUserAllowedInLocation(userId, FN_RECORDING_EXTENDEDFORMATS_OWN, siteId)) {
+        if (ownerId.equals(context.getUserId())) {
+            if (context.isAllowed(FN_RECORDING_EXTENDEDFORMATS_OWN)) {
                 // User allowed, don't remove.
                 return false;
             }
         }
-        if (isUserAllowedInLocation(userId, FN_RECORDING_EXTENDEDFORMATS_ANY, siteId)) {
+        if (context.isAllowed(FN_RECORDING_EXTENDEDFORMATS_ANY)) {
             // User allowed, don't remove.
             return false;
         }
@@ -410,6 +562,10 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     public void logMeetingJoin(String meetingId) {
         BBBMeeting meeting = storageManager.getMeeting(meetingId);
         logEvent(EVENT_MEETING_JOIN, meeting);
+        if (meeting.getRecording()) {
+            // Recordings may come out of this session.
+            recordingIndex.watch(meetingId);
+        }
     }
 
     public boolean endMeeting(String meetingId, String groupId, boolean endAll)
@@ -442,6 +598,10 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         }
         // log event
         logEvent(EVENT_MEETING_END, meeting);
+        if (meeting.getRecording()) {
+            // Its recordings are being processed.
+            recordingIndex.watch(meetingId);
+        }
 
         return true;
     }
@@ -470,22 +630,49 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
 
         // remove from DB, if no exceptions were thrown
         storageManager.deleteMeeting(meetingId);
+        bbbApiWrapper.forgetMeeting(meetingId);
         return true;
     }
 
     public boolean deleteRecordings(String recordID)
     		throws SecurityException, BBBException {
-        return bbbApiWrapper.deleteRecordings(recordID);
+        boolean deleted = bbbApiWrapper.deleteRecordings(recordID);
+        if (deleted) {
+            for (String id : recordID.split(",")) {
+                recordingStorageManager.deleteRecording(id.trim());
+            }
+        }
+        return deleted;
     }
 
     public boolean publishRecordings(String recordID, String publish)
     		throws SecurityException, BBBException {
-        return bbbApiWrapper.publishRecordings(recordID, publish);
+        boolean published = bbbApiWrapper.publishRecordings(recordID, publish);
+        if (published) {
+            updateIndexedRecordings(recordID, r -> r.setPublished(Boolean.parseBoolean(publish)));
+        }
+        return published;
     }
 
     public boolean protectRecordings(String recordID, String protect)
             throws SecurityException, BBBException {
-        return bbbApiWrapper.protectRecordings(recordID, protect);
+        boolean protectedRecordings = bbbApiWrapper.protectRecordings(recordID, protect);
+        if (protectedRecordings) {
+            updateIndexedRecordings(recordID, r -> r.setProtectedRecording(Boolean.parseBoolean(protect)));
+        }
+        return protectedRecordings;
+    }
+
+    /** Reflect a change made on the BBB server in the local recording index */
+    private void updateIndexedRecordings(String recordIDs, Consumer<BBBRecording> update) {
+
+        for (String recordID : recordIDs.split(",")) {
+            BBBRecording recording = recordingStorageManager.getRecording(recordID.trim());
+            if (recording != null) {
+                update.accept(recording);
+                recordingStorageManager.updateRecording(recording);
+            }
+        }
     }
 
     public void checkJoinMeetingPreConditions(BBBMeeting meeting)
@@ -581,45 +768,51 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     }
 
     public boolean getCanCreate(String siteId) {
-        return isUserAllowedInLocation(userDirectoryService.getCurrentUser().getId(), FN_CREATE, siteId);
+        return getCurrentUserSiteContext(siteId).isAllowed(FN_CREATE);
     }
 
     public boolean getCanEdit(String siteId, BBBMeeting meeting) {
-        String currentUserId = userDirectoryService.getCurrentUser().getId();
+        return getCanEdit(getCurrentUserSiteContext(siteId), meeting);
+    }
+
+    private boolean getCanEdit(BBBUserSiteContext context, BBBMeeting meeting) {
 
         if (meeting != null) {
             // check if owns meeting
-            if (currentUserId.equals(meeting.getOwnerId())) {
-                if (isUserAllowedInLocation(currentUserId, FN_EDIT_OWN, siteId))
+            if (context.getUserId().equals(meeting.getOwnerId())) {
+                if (context.isAllowed(FN_EDIT_OWN))
                     return true;
             }
         }
 
         // otherwise, must be able to edit any meeting
-        return isUserAllowedInLocation(currentUserId, FN_EDIT_ANY, siteId);
+        return context.isAllowed(FN_EDIT_ANY);
     }
 
     public boolean getCanDelete(String siteId, BBBMeeting meeting) {
-        String currentUserId = userDirectoryService.getCurrentUser().getId();
+        return getCanDelete(getCurrentUserSiteContext(siteId), meeting);
+    }
+
+    private boolean getCanDelete(BBBUserSiteContext context, BBBMeeting meeting) {
 
         if (meeting != null) {
             // check if owns meeting
-            if (currentUserId.equals(meeting.getOwnerId())) {
-                if (isUserAllowedInLocation(currentUserId, FN_DELETE_OWN, siteId))
+            if (context.getUserId().equals(meeting.getOwnerId())) {
+                if (context.isAllowed(FN_DELETE_OWN))
                     return true;
             }
         }
 
         // otherwise, must be able to delete any meeting
-        return isUserAllowedInLocation(currentUserId, FN_DELETE_ANY, siteId);
+        return context.isAllowed(FN_DELETE_ANY);
     }
 
     public boolean getCanParticipate(String siteId) {
-        return isUserAllowedInLocation(userDirectoryService.getCurrentUser().getId(), FN_PARTICIPATE, siteId);
+        return getCurrentUserSiteContext(siteId).isAllowed(FN_PARTICIPATE);
     }
 
     public boolean getCanViewSiteRecordings(String siteId) {
-        return isUserAllowedInLocation(userDirectoryService.getCurrentUser().getId(), FN_RECORDING_VIEW, siteId);
+        return getCurrentUserSiteContext(siteId).isAllowed(FN_RECORDING_VIEW);
     }
 
     public void checkPermissions(String siteId) {
@@ -730,20 +923,6 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         return responseMap;
     }
 
-    private Date getTimeInUserTimezone(Date time, String userId) {
-
-        Preferences prefs = preferencesService.getPreferences(userId);
-        TimeZone timeZone = TimeZone.getDefault();
-        if (prefs != null) {
-            ResourceProperties props = prefs.getProperties(TimeService.APPLICATION_ID);
-            String timeZoneStr = props.getProperty(TimeService.TIMEZONE_KEY);
-            if( timeZoneStr != null )
-                timeZone = TimeZone.getTimeZone(timeZoneStr);
-        }
-
-        return getTimeInTimezone(time, timeZone);
-    }
-
     private Date getTimeInDefaultTimezone(Date time) {
 
         TimeZone timeZone = TimeZone.getDefault();
@@ -859,6 +1038,7 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
 
     public boolean databaseDeleteMeeting(BBBMeeting meeting) {
         storageManager.deleteMeeting(meeting.getId(), true);
+        bbbApiWrapper.forgetMeeting(meeting.getId());
         return false;
     }
 
@@ -890,6 +1070,9 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     }
 
     public boolean recordingReady(String meetingId) {
+
+        recordingIndex.markDirty(meetingId);
+
         String meetingID = null;
         String groupID = null;
         if (meetingId.contains("[")) {
@@ -926,18 +1109,13 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     // -----------------------------------------------------------------------
     // --- BBB Private methods -----------------------------------------------
     // -----------------------------------------------------------------------
-    private BBBMeeting processMeeting(BBBMeeting meeting)
+    private BBBMeeting processMeeting(BBBMeeting meeting, BBBUserSiteContext context)
             throws SecurityException, Exception {
-        if (meeting == null) return null;
 
         // determine owner name
         if (meeting.getOwnerId() != null) {
-            try {
-                String ownerDisplayName = userDirectoryService.getUser(meeting.getOwnerId()).getDisplayName();
-                meeting.setOwnerDisplayName(ownerDisplayName);
-            } catch (UserNotDefinedException e) {
-                meeting.setOwnerDisplayName(meeting.getOwnerId());
-            }
+            User owner = userResolver.getUser(meeting.getOwnerId());
+            meeting.setOwnerDisplayName(owner != null ? owner.getDisplayName() : meeting.getOwnerId());
         }
 
         // If MultipleSessionsAllowed is not enabled and the Default is set to true, override the meeting value with true.
@@ -945,17 +1123,17 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         if( !bbbApiWrapper.isMultipleSessionsAllowedEnabled() && bbbApiWrapper.isMultipleSessionsAllowedDefault() )
             meeting.setMultipleSessionsAllowed(Boolean.valueOf(true));
 
-        BBBMeetingParticipant p = getParticipantFromMeeting(meeting, userDirectoryService.getCurrentUser().getId());
+        BBBMeetingParticipant p = getParticipantFromMeeting(meeting, context.getMembershipEvaluator());
 
         // Case #1: is participant
-        if (getCanParticipate(meeting.getSiteId()) && p != null) {
+        if (context.isAllowed(FN_PARTICIPATE) && p != null) {
             meeting.setJoinUrl(null);
 
             return meeting;
         }
 
         // Case #2: is not a participant but can manage tool
-        else if (getCanEdit(meeting.getSiteId(), meeting) || getCanDelete(meeting.getSiteId(), meeting)) {
+        else if (getCanEdit(context, meeting) || getCanDelete(context, meeting)) {
             // reset join url
             meeting.setJoinUrl(null);
 
@@ -966,60 +1144,11 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     }
 
     private List<User> getMeetingUsers(BBBMeeting meeting, Site site) {
-
-        List<User> meetingUsers = new ArrayList<>();
-
-        for (BBBMeetingParticipant p : meeting.getParticipants()) {
-            switch (p.getSelectionType()) {
-                case Participant.SELECTION_ALL:
-                    for (String userId : site.getUsers()) {
-                        try {
-                            meetingUsers.add(userDirectoryService.getUser(userId));
-                        } catch (UserNotDefinedException e) {
-                            log.warn("No user for id {}", userId);
-                        }
-                    }
-                    break;
-                case Participant.SELECTION_GROUP:
-                    Group group = site.getGroup(p.getSelectionId());
-                    if (group == null) {
-                        log.warn("The group {} was null. Maybe it's been deleted.", p.getSelectionId());
-                    } else {
-                        for (String userId : group.getUsers()) {
-                            try {
-                                meetingUsers.add(userDirectoryService.getUser(userId));
-                            } catch (UserNotDefinedException e) {
-                                log.warn("No user for id {}", userId);
-                            }
-                        }
-                    }
-                    break;
-                case Participant.SELECTION_ROLE:
-                    for (String userId : site.getUsersHasRole(p.getSelectionId())) {
-                        try {
-                            meetingUsers.add(userDirectoryService.getUser(userId));
-                        } catch (UserNotDefinedException e) {
-                            log.warn("No user for id {}", userId);
-                        }
-                    }
-                    break;
-                case Participant.SELECTION_USER:
-                    String userId = p.getSelectionId();
-                    try {
-                        meetingUsers.add(userDirectoryService.getUser(userId));
-                    } catch (UserNotDefinedException e) {
-                        log.warn("No user for id {}", userId);
-                    }
-                    break;
-                default:
-                    break;
-            }
-        }
-
-        return meetingUsers;
+        return userResolver.getMeetingUsers(meeting, site);
     }
 
     private void notifyParticipants(BBBMeeting meeting, boolean isNewMeeting, boolean iCalAttached, long iCalAlarmMinutes, boolean recordingReady) {
+        long start = System.nanoTime();
         // Site title, url and directtool (universal) url for joining meeting
         Site site;
         try {
@@ -1033,100 +1162,116 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         // Meeting participants
         List<User> meetingUsers = getMeetingUsers(meeting, site);
 
-        ResourceLoader msgs = null;
-        // iterate over all user locales found
+        final String bundle;
+        final String kind;
+        if (isNewMeeting) {
+            bundle = "org.sakaiproject.bbb.bundle.EmailNotification";
+            kind = "new";
+        } else if (recordingReady) {
+            bundle = "org.sakaiproject.bbb.bundle.EmailNotificationRecordingReady";
+            kind = "recordingReady";
+        } else {
+            bundle = "org.sakaiproject.bbb.bundle.EmailNotificationUpdate";
+            kind = "update";
+        }
+        String meetingOwnerEid;
+        try {
+            meetingOwnerEid = userDirectoryService.getUserEid(meeting.getOwnerId());
+        } catch (UserNotDefinedException e1) {
+            meetingOwnerEid = meeting.getOwnerId();
+        }
+        String meetingOwner = meeting.getOwnerDisplayName() + " (" + meetingOwnerEid + ")";
+
+        // Recipients mostly share a few locales and timezones, render each combination once.
+        Map<String, String[]> renderedEmails = new HashMap<>();
+        Map<String, String> icals = new HashMap<>();
+        List<BBBEmail> emails = new ArrayList<>();
         log.debug("Sending notifications to {} users", meetingUsers.size());
         for( User user : meetingUsers){
             String userId = user.getId();
             log.debug("User: {}", userId);
-            String userLocale = getUserLocale(userId);
-
-            if (true == isNewMeeting) {
-                msgs = new ResourceLoader(userId, "org.sakaiproject.bbb.bundle.EmailNotification");
-            } else if (true == recordingReady){
-                msgs = new ResourceLoader(userId, "org.sakaiproject.bbb.bundle.EmailNotificationRecordingReady");
-            } else {
-                msgs = new ResourceLoader(userId, "org.sakaiproject.bbb.bundle.EmailNotificationUpdate");
-            }
-
-            // Email message
-            final String emailTitle = msgs.getFormattedMessage("email.title", new Object[] { siteTitle, meeting.getName() });
-            StringBuilder msg = new StringBuilder();
-            msg.append(msgs.getFormattedMessage("email.header", new Object[] {}));
-            msg.append(msgs.getFormattedMessage("email.body", new Object[] {
-                    siteTitle,
-                    serverConfigurationService.getString("ui.institution"),
-                    directToolJoinUrl, meeting.getName() }));
-            String meetingOwnerEid = null;
-            try {
-                meetingOwnerEid = userDirectoryService.getUserEid(meeting.getOwnerId());
-            } catch (UserNotDefinedException e1) {
-                meetingOwnerEid = meeting.getOwnerId();
-            }
-
-            msg.append(msgs.getFormattedMessage("email.body.meeting_details",
-                    new Object[] {
-                            meeting.getName(),
-                            meeting.getProperties().get("welcomeMessage"),
-                            meeting.getStartDate() == null ? "-" : getTimeInUserTimezone(meeting.getStartDate(), userId),
-                            meeting.getEndDate() == null ? "-" : getTimeInUserTimezone(meeting.getEndDate(), userId),
-                            meeting.getOwnerDisplayName() + " (" + meetingOwnerEid + ")" }));
-            msg.append(msgs.getFormattedMessage("email.footer", new Object[] {
-                    serverConfigurationService.getString("ui.institution"),
-                    serverConfigurationService.getServerUrl() + "/portal",
-                    siteTitle }));
-
-            // Generate an ical to attach to email (if, at least, start date is defined)
-            String icalFilename = iCalAttached? generateIcalFromMeetingInUserTimezone(meeting, iCalAlarmMinutes, userId): null;
-            final File icalFile = icalFilename != null? new File(icalFilename): null;
-            if (icalFile != null)
-                icalFile.deleteOnExit();
-
-            // Send (a single) email (per userId)!
-            final String emailMessage = msg.toString();
-            final User emailRecipients = user;
-            try {
-                new Thread(new Runnable() {
-                    public void run() {
-                        if (emailRecipients.getEmail() != null && !emailRecipients.getEmail().trim().equals("")) {
-                            EmailMessage email = new EmailMessage();
-                            email.setFrom(new EmailAddress("no-reply@"+ serverConfigurationService.getServerName(), serverConfigurationService.getString("ui.institution")));
-                            email.setRecipients(RecipientType.TO, Arrays.asList(new EmailAddress(emailRecipients.getEmail(), emailRecipients.getDisplayName())));
-                            email.addHeader("Content-Type", "text/html; charset=ISO-8859-1");
-                            email.setContentType(ContentType.TEXT_HTML);
-                            email.setSubject(emailTitle);
-                            email.setBody(emailMessage);
-                            if (icalFile != null && icalFile.canRead()) {
-                                email.addAttachment(new Attachment(icalFile, "Calendar_Event.ics"));
-                            }
-                            try {
-                                emailService.send(email);
-                            } catch (Exception e) {
-                                log.warn("Unable to send email notification to {} about new BBB meeting", emailRecipients.getEmail(), e);
-                            }
-                        }
-                    }
-                }).start();
-            } catch (Exception e) {
-                log.error("Unable to send {} notifications for '{}' meeting participants", userLocale, meeting.getName(), e);
+            if (StringUtils.isBlank(user.getEmail())) {
+                continue;
             }
 
+            Preferences prefs = preferencesService.getPreferences(userId);
+            TimeZone timeZone = getUserTimeZone(prefs);
+            String[] rendered = renderedEmails.computeIfAbsent(getUserLocale(prefs) + "|" + timeZone.getID(),
+                key -> renderEmail(new ResourceLoader(userId, bundle), meeting, siteTitle, directToolJoinUrl, meetingOwner, timeZone));
+
+            // Generate an ical to attach to email (if, at least, start date is defined), once per timezone
+            String ical = iCalAttached && meeting.getStartDate() != null
+                ? icals.computeIfAbsent(timeZone.getID(), id -> generateIcalFromMeetingInTimeZone(meeting, iCalAlarmMinutes, timeZone))
+                : null;
+
+            // Queue (a single) email (per userId)!
+            BBBEmail email = new BBBEmail();
+            email.setMeetingId(meeting.getId());
+            email.setRecipientEmail(user.getEmail().trim());
+            email.setRecipientName(user.getDisplayName());
+            email.setSubject(rendered[0]);
+            email.setBody(rendered[1]);
+            email.setIcal(ical);
+            emails.add(email);
         }
+        log.debug("Rendered {} distinct notifications for {} emails", renderedEmails.size(), emails.size());
 
-    }
-
-    private String getUserLocale(String userId) {
-
-        Preferences prefs = preferencesService.getPreferences(userId);
-        ResourceProperties locProps = prefs.getProperties(ResourceLoader.APPLICATION_ID);
-        String localeString = locProps.getProperty(ResourceLoader.LOCALE_KEY);
+        try {
+            notificationSender.queue(emails);
+            metrics.increment(BBBMetrics.NOTIFICATION_RECIPIENTS, emails.size(), kind);
+        } catch (Exception e) {
+            log.error("Unable to queue {} notifications for '{}' meeting participants", emails.size(), meeting.getName(), e);
+        }
+        metrics.observe(BBBMetrics.NOTIFICATION_FANOUT_SECONDS, start, kind);
+    }
+
+    /** Subject and body of a notification, in the locale of the bundle and the given timezone */
+    private String[] renderEmail(ResourceLoader msgs, BBBMeeting meeting, String siteTitle, String directToolJoinUrl,
+            String meetingOwner, TimeZone timeZone) {
+
+        String institution = serverConfigurationService.getString("ui.institution");
+        String emailTitle = msgs.getFormattedMessage("email.title", new Object[] { siteTitle, meeting.getName() });
+        StringBuilder msg = new StringBuilder();
+        msg.append(msgs.getFormattedMessage("email.header", new Object[] {}));
+        msg.append(msgs.getFormattedMessage("email.body", new Object[] {
+                siteTitle,
+                institution,
+                directToolJoinUrl, meeting.getName() }));
+        msg.append(msgs.getFormattedMessage("email.body.meeting_details",
+                new Object[] {
+                        meeting.getName(),
+                        meeting.getProperties().get("welcomeMessage"),
+                        meeting.getStartDate() == null ? "-" : getTimeInTimezone(meeting.getStartDate(), timeZone),
+                        meeting.getEndDate() == null ? "-" : getTimeInTimezone(meeting.getEndDate(), timeZone),
+                        meetingOwner }));
+        msg.append(msgs.getFormattedMessage("email.footer", new Object[] {
+                institution,
+                serverConfigurationService.getServerUrl() + "/portal",
+                siteTitle }));
+        return new String[] { emailTitle, msg.toString() };
+    }
+
+    private String getUserLocale(Preferences prefs) {
+
+        String localeString = prefs != null ? prefs.getProperties(ResourceLoader.APPLICATION_ID).getProperty(ResourceLoader.LOCALE_KEY) : null;
         if (localeString == null) {
             localeString = Locale.getDefault().toString();
         }
-        log.debug("Locale for user {} is {}", userId, localeString);
         return localeString;
     }
 
+    private TimeZone getUserTimeZone(Preferences prefs) {
+
+        TimeZone timeZone = TimeZone.getDefault();
+        if (prefs != null) {
+            ResourceProperties props = prefs.getProperties(TimeService.APPLICATION_ID);
+            String timeZoneStr = props.getProperty(TimeService.TIMEZONE_KEY);
+            if( timeZoneStr != null )
+                timeZone = TimeZone.getTimeZone(timeZoneStr);
+        }
+        return timeZone;
+    }
+
     private String getDirectToolJoinUrl(BBBMeeting meeting) {
         try {
             Site site = siteService.getSite(meeting.getSiteId());
@@ -1270,47 +1415,20 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     }
 
     public BBBMeetingParticipant getParticipantFromMeeting(BBBMeeting meeting, String userId) {
-        // 1. we want to first check individual user selection as it may
-        // override all/group/role selection...
-        List<BBBMeetingParticipant> unprocessed1 = new ArrayList<>();
-        for (BBBMeetingParticipant p : meeting.getParticipants()) {
-            if (Participant.SELECTION_USER.equals(p.getSelectionType())) {
-                if (userId.equals(p.getSelectionId()))
-                    return p;
-            } else {
-                unprocessed1.add(p);
-            }
-        }
+        return getParticipantFromMeeting(meeting, getUserSiteContext(userId, meeting.getSiteId()).getMembershipEvaluator());
+    }
 
-        // 2. ... then with group/role selection types...
-        String userRole = getUserRoleInSite(userId, meeting.getSiteId());
-        List<String> userGroups = getUserGroupIdsInSite(userId, meeting.getSiteId());
-        List<BBBMeetingParticipant> unprocessed2 = new ArrayList<>();
-        for (BBBMeetingParticipant p : unprocessed1) {
-            if (Participant.SELECTION_ROLE.equals(p.getSelectionType())) {
-                if (userRole != null && userRole.equals(p.getSelectionId())) {
-                    return p;
-                }
-            } else if (Participant.SELECTION_GROUP.equals(p.getSelectionType())) {
-                if (userGroups.contains(p.getSelectionId())) {
-                    return p;
-                }
-            } else {
-                unprocessed2.add(p);
-            }
-        }
+    private BBBMeetingParticipant getParticipantFromMeeting(BBBMeeting meeting, BBBMembershipEvaluator evaluator) {
 
-        // 3. ... then go with 'all' selection type
-        for (BBBMeetingParticipant p : unprocessed2) {
-            if (Participant.SELECTION_ALL.equals(p.getSelectionType())) {
-                return p;
-            }
+        BBBMeetingParticipant p = evaluator.getParticipant(meeting);
+        if (p != null) {
+            return p;
         }
 
-        // 4. If not found, just check if is superuser
+        // If not found, just check if is superuser
         if (securityService.isSuperUser()) {
             //return new Participant(Participant.SELECTION_USER, "admin", Participant.MODERATOR);
-            BBBMeetingParticipant p = new BBBMeetingParticipant();
+            p = new BBBMeetingParticipant();
             p.setSelectionType(Participant.SELECTION_USER);
             p.setSelectionId("admin");
             p.setRole(Participant.MODERATOR);
@@ -1424,6 +1542,56 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         return false;
     }
 
+    public BBBPermissions getUserPermissions(String userId, String siteId) {
+        return permissionSnapshots.getPermissions(userId, siteId);
+    }
+
+    public String getMetrics() throws SecurityException {
+
+        if (!securityService.isSuperUser()) {
+            throw new SecurityException("Only administrators are allowed to read the metrics");
+        }
+        return metrics.toPrometheus();
+    }
+
+    public Map<String, Object> searchSiteMembers(String siteId, String search, int first, int max) throws SecurityException, Exception {
+
+        checkCanSelectParticipants(siteId);
+        BBBRosterIndex.Result result = rosterIndex.search(siteId, search, Math.max(first, 0), Math.max(max, 0));
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("users", toSelectionOptions(result.getEntries()));
+        page.put("total", result.getTotal());
+        return page;
+    }
+
+    public List<Map<String, String>> getSiteMembers(String siteId, Collection<String> userIds) throws SecurityException, Exception {
+
+        checkCanSelectParticipants(siteId);
+        return toSelectionOptions(rosterIndex.getMembers(siteId, userIds));
+    }
+
+    /** Only the users who create or edit meetings choose their participants */
+    private void checkCanSelectParticipants(String siteId) throws SecurityException {
+
+        BBBUserSiteContext context = getCurrentUserSiteContext(siteId);
+        if (!context.isAllowed(FN_CREATE) && !context.isAllowed(FN_EDIT_OWN) && !context.isAllowed(FN_EDIT_ANY)) {
+            throw new SecurityException("You are not allowed to select the participants of meetings in this site");
+        }
+    }
+
+    private List<Map<String, String>> toSelectionOptions(List<BBBRosterIndex.Entry> entries) {
+
+        List<Map<String, String>> users = new ArrayList<>(entries.size());
+        for (BBBRosterIndex.Entry entry : entries) {
+            Map<String, String> user = new HashMap<>();
+            user.put("id", entry.getUserId());
+            user.put("title", entry.getTitle());
+            users.add(user);
+        }
+        return users;
+    }
+
     public String getUserRoleInSite(String userId, String siteId) {
         String userRoleInSite = null;
         if (siteId != null) {
@@ -1443,6 +1611,18 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         return userRoleInSite;
     }
 
+    /** The context of the user in the site, shared by the whole request */
+    private BBBUserSiteContext getUserSiteContext(String userId, String siteId) {
+
+        return requestMemo.get("context." + userId + "." + siteId, () -> new BBBUserSiteContext(userId, siteId,
+            () -> new BBBMembershipEvaluator(userId, getUserRoleInSite(userId, siteId), getUserGroupIdsInSite(userId, siteId)),
+            () -> getUserPermissions(userId, siteId)));
+    }
+
+    private BBBUserSiteContext getCurrentUserSiteContext(String siteId) {
+        return getUserSiteContext(userDirectoryService.getCurrentUser().getId(), siteId);
+    }
+
     public List<String> getUserGroupIdsInSite(String userId, String siteId) {
         List<String> groupIds = new ArrayList<>();
         if (siteId != null) {
@@ -1469,8 +1649,7 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
     }
 
     /**
-     * Generate an iCal file in tmp dir, an return the file path on the
-     * filesystem
+     * Generate the iCal of a meeting, in the server timezone
      */
     private String generateIcalFromMeeting(BBBMeeting meeting) {
         TimeZone defaultTimezone = TimeZone.getDefault();
@@ -1478,20 +1657,6 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         return generateIcalFromMeetingInTimeZone(meeting, iCalAlarmMinutesuserId, defaultTimezone);
     }
 
-    private String generateIcalFromMeetingInUserTimezone(BBBMeeting meeting, Long iCalAlarmMinutesuserId, String userId) {
-
-        Preferences prefs = preferencesService.getPreferences(userId);
-        TimeZone timeZone = TimeZone.getDefault();
-        if (prefs != null) {
-            ResourceProperties props = prefs.getProperties(TimeService.APPLICATION_ID);
-            String timeZoneStr = props.getProperty(TimeService.TIMEZONE_KEY);
-            if( timeZoneStr != null )
-                timeZone = TimeZone.getTimeZone(timeZoneStr);
-        }
-
-        return generateIcalFromMeetingInTimeZone(meeting, iCalAlarmMinutesuserId, timeZone);
-    }
-
     private String generateIcalFromMeetingInTimeZone(BBBMeeting meeting, Long iCalAlarmMinutesuserId, TimeZone timeZone) {
         Date startDate = meeting.getStartDate();
         if (startDate == null)
@@ -1545,10 +1710,8 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         // add timezone info..
         vEvent.getProperties().add(tz.getTimeZoneId());
 
-        // generate unique identifier..
-        UidGenerator ug = new RandomUidGenerator();
-        Uid uid = ug.generateUid();
-        vEvent.getProperties().add(uid);
+        // stable identifier, so calendars update the event on each notification rather than adding it again
+        vEvent.getProperties().add(new Uid(meeting.getId() + "@" + serverConfigurationService.getServerName()));
 
         // add the reminder
         vEvent.getAlarms().add(vAlarm);
@@ -1565,18 +1728,17 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
         // log ical, if debug
         log.debug(icsCalendar.toString());
 
-        // output to temp file
-        String filename = System.getProperty("java.io.tmpdir")
-                + File.separatorChar + meeting.getId() + ".ics";
+        // output to a string
+        StringWriter ical = new StringWriter();
         try {
-            FileOutputStream fout = new FileOutputStream(filename);
             CalendarOutputter outputter = new CalendarOutputter();
-            outputter.output(icsCalendar, fout);
+            outputter.output(icsCalendar, ical);
         } catch (Exception e) {
-            log.warn("Unable to write iCal to file: {}", filename, e);
+            log.warn("Unable to generate iCal for meeting: {}", meeting.getId(), e);
+            return null;
         }
 
-        return filename;
+        return ical.toString();
     }
 
     //Get participant permissions converted to a User Map
@@ -1595,17 +1757,10 @@ public class BBBMeetingManagerImpl implements BBBMeetingManager {
 
         } else if( selectionType.equals(Participant.SELECTION_ROLE)){
 
-            Set users = getSiteUsersInRole(site, selectionId);
-            Iterator<String> usersIter = users.iterator();
-
-            while ( usersIter.hasNext() ){
-                String userId = usersIter.next();
-                try{
-                    User user = userDirectoryService.getUser(userId);
-                    response.put(userId, user);
-
-                } catch (Exception e) {
-                    log.error("Failed on getUser() for {}", selectionId, e);
+            Set<String> users = getSiteUsersInRole(site, selectionId);
+            if (users != null) {
+                for (User user : userResolver.getUsers(users)) {
+                    response.put(user.getId(), user);
                 }
             }
 
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.sakaiproject.bbb.api.Participant;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+
+/**
+ * Tells whether a user participates in meetings of a site, from the role and
+ * groups of the user in that site. Only the participants of a meeting are
+ * looked at, never the members of the site, its groups or its roles, so the
+ * cost does not grow with the size of the site.
+ */
+public class BBBMembershipEvaluator {
+
+    private final String userId;
+    private final String role;
+    private final Set<String> groupIds;
+
+    /**
+     * @param role the role of the user in the site, null if not a member
+     * @param groupIds the ids of the groups of the site the user is a member of
+     */
+    public BBBMembershipEvaluator(String userId, String role, Collection<String> groupIds) {
+
+        this.userId = userId;
+        this.role = role;
+        this.groupIds = new HashSet<>(groupIds);
+    }
+
+    /** The role of the user in the site, null if not a member */
+    public String getRole() {
+        return role;
+    }
+
+    public Set<String> getGroupIds() {
+        return Collections.unmodifiableSet(groupIds);
+    }
+
+    /**
+     * The participant of the meeting selecting the user, or null. A selection
+     * of the user themselves wins over a selection of their role or one of
+     * their groups, which wins over a selection of all users.
+     */
+    public BBBMeetingParticipant getParticipant(BBBMeeting meeting) {
+
+        BBBMeetingParticipant roleOrGroup = null;
+        BBBMeetingParticipant all = null;
+        for (BBBMeetingParticipant p : meeting.getParticipants()) {
+            String type = p.getSelectionType();
+            if (Participant.SELECTION_USER.equals(type)) {
+                if (userId.equals(p.getSelectionId())) {
+                    return p;
+                }
+            } else if (Participant.SELECTION_ROLE.equals(type)) {
+                if (roleOrGroup == null && role != null && role.equals(p.getSelectionId())) {
+                    roleOrGroup = p;
+                }
+            } else if (Participant.SELECTION_GROUP.equals(type)) {
+                if (roleOrGroup == null && groupIds.contains(p.getSelectionId())) {
+                    roleOrGroup = p;
+                }
+            } else if (Participant.SELECTION_ALL.equals(type)) {
+                if (all == null) {
+                    all = p;
+                }
+            }
+        }
+        return roleOrGroup != null ? roleOrGroup : all;
+    }
+
+    public boolean isParticipant(BBBMeeting meeting) {
+        return getParticipant(meeting) != null;
+    }
+}
@@ -0,0 +1,414 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Metrics of the BBB API calls, storage, caches, notifications and thread
+ * pools. Latencies are kept in histograms and events in counters, both keyed
+ * by a few labels. The statistics the other beans already keep (cache hits,
+ * circuit breakers, connection pool, ...) are registered as sources and read
+ * when the metrics are. Everything is exported as JMX MBeans, under
+ * {@code org.sakaiproject.bbb:type=Metrics}, and in the Prometheus text format.
+ */
+@Slf4j
+public class BBBMetrics {
+
+    public static final String API_CALL_SECONDS = "bbb_api_call_seconds";
+    public static final String STORAGE_OPERATION_SECONDS = "bbb_storage_operation_seconds";
+    public static final String NOTIFICATION_FANOUT_SECONDS = "bbb_notification_fanout_seconds";
+    public static final String NOTIFICATION_RECIPIENTS = "bbb_notification_recipients_total";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+
+    private static final String STATS = "bbb_stat";
+    private static final String EXECUTORS = "bbb_executor";
+
+    private static final String JMX_DOMAIN = "org.sakaiproject.bbb";
+
+    /** Upper bounds of the histogram buckets, in ms */
+    private static final long[] BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private final List<ObjectName> mbeans = new ArrayList<>();
+    private MBeanServer mbeanServer;
+
+    public BBBMetrics() {
+
+        histogram(API_CALL_SECONDS, "Time taken by the calls to the BBB API, by server, call and outcome (BBB message key)",
+            "server", "call", "outcome");
+        histogram(STORAGE_OPERATION_SECONDS, "Time taken by the meeting storage operations, by operation and outcome",
+            "operation", "outcome");
+        histogram(NOTIFICATION_FANOUT_SECONDS, "Time taken to render and queue the notifications of a meeting, by kind",
+            "kind");
+        counter(NOTIFICATION_RECIPIENTS, "Notifications queued for meeting participants, by kind", "kind");
+        sources(STATS, "untyped", "Statistics kept by the BBB services, by source", "source");
+        sources(EXECUTORS, "gauge", "Thread pools of the BBB services, by executor", "executor");
+    }
+
+    public synchronized void init() {
+
+        mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (Family family : families.values()) {
+            if (family.sources == null) {
+                registerMBean(family.name, family::getStats);
+            } else {
+                family.sources.forEach((source, stats) -> registerMBean(mbeanName(family, source), stats));
+            }
+        }
+    }
+
+    public synchronized void destroy() {
+
+        for (ObjectName name : mbeans) {
+            try {
+                mbeanServer.unregisterMBean(name);
+            } catch (JMException e) {
+                log.debug("Unable to unregister {}: {}", name, e.getMessage());
+            }
+        }
+        mbeans.clear();
+    }
+
+    /** Record the time taken since {@code startNanos}, a {@link System#nanoTime()} */
+    public void observe(String histogram, long startNanos, String... labelValues) {
+
+        Series series = families.get(histogram).series(labelValues);
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        int bucket = 0;
+        while (bucket < BUCKETS.length && micros > BUCKETS[bucket] * 1000) {
+            bucket++;
+        }
+        series.buckets[bucket].increment();
+        series.count.increment();
+        series.sum.add(micros);
+    }
+
+    /**
+     * Run the operation, recording its time in a histogram labelled by
+     * operation and outcome, success or error
+     */
+    public <T> T time(String histogram, String operation, Supplier<T> task) {
+
+        long start = System.nanoTime();
+        String outcome = OUTCOME_ERROR;
+        try {
+            T result = task.get();
+            outcome = OUTCOME_SUCCESS;
+            return result;
+        } finally {
+            observe(histogram, start, operation, outcome);
+        }
+    }
+
+    public void increment(String counter, long amount, String... labelValues) {
+
+        Series series = families.get(counter).series(labelValues);
+        series.count.add(amount);
+    }
+
+    /**
+     * Register the statistics a service keeps, read each time the metrics
+     * are. The supplier must be cheap and thread safe.
+     */
+    public synchronized void register(String source, Supplier<Map<String, Long>> stats) {
+
+        Family family = families.get(STATS);
+        family.sources.put(source, stats);
+        registerMBean(mbeanName(family, source), stats);
+    }
+
+    /** Register the size, activity and queue of a thread pool */
+    public synchronized void register(String executorName, ThreadPoolExecutor executor) {
+
+        Supplier<Map<String, Long>> stats = () -> {
+            Map<String, Long> map = new LinkedHashMap<>();
+            map.put("active", (long) executor.getActiveCount());
+            map.put("poolSize", (long) executor.getPoolSize());
+            map.put("maxPoolSize", (long) executor.getMaximumPoolSize());
+            map.put("queued", (long) executor.getQueue().size());
+            map.put("completed", executor.getCompletedTaskCount());
+            return map;
+        };
+        Family family = families.get(EXECUTORS);
+        family.sources.put(executorName, stats);
+        registerMBean(mbeanName(family, executorName), stats);
+    }
+
+    /** Every metric, in the Prometheus text exposition format */
+    public String toPrometheus() {
+
+        StringBuilder out = new StringBuilder();
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            if (family.sources != null) {
+                family.sources.forEach((source, stats) -> read(source, stats).forEach((stat, value) ->
+                    sample(out, family.name, labels(family.labelNames, new String[] { source }) + ",stat=\"" + escape(stat) + "\"", value)));
+                continue;
+            }
+            for (Series series : family.sorted()) {
+                String labels = labels(family.labelNames, series.labelValues);
+                if ("counter".equals(family.type)) {
+                    sample(out, family.name, labels, series.count.sum());
+                    continue;
+                }
+                long cumulative = 0;
+                for (int i = 0; i <= BUCKETS.length; i++) {
+                    cumulative += series.buckets[i].sum();
+                    String le = i < BUCKETS.length ? Double.toString(BUCKETS[i] / 1000.0) : "+Inf";
+                    sample(out, family.name + "_bucket", labels + ",le=\"" + le + "\"", cumulative);
+                }
+                out.append(family.name).append("_sum{").append(labels).append("} ")
+                    .append(series.sum.sum() / 1000000.0).append('\n');
+                sample(out, family.name + "_count", labels, series.count.sum());
+            }
+        }
+        return out.toString();
+    }
+
+    private void histogram(String name, String help, String... labelNames) {
+        families.put(name, new Family(name, "histogram", help, labelNames, false));
+    }
+
+    private void counter(String name, String help, String... labelNames) {
+        families.put(name, new Family(name, "counter", help, labelNames, false));
+    }
+
+    private void sources(String name, String type, String help, String labelName) {
+        families.put(name, new Family(name, type, help, new String[] { labelName }, true));
+    }
+
+    /** The statistics of a source, none if they can't be read */
+    private static Map<String, Long> read(String source, Supplier<Map<String, Long>> stats) {
+
+        try {
+            return stats.get();
+        } catch (Exception e) {
+            log.debug("Unable to read the {} statistics: {}", source, e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private static String mbeanName(Family family, String source) {
+        return EXECUTORS.equals(family.name) ? "executor." + source : source;
+    }
+
+    private void registerMBean(String name, Supplier<Map<String, Long>> stats) {
+
+        if (mbeanServer == null) {
+            // Registered on init
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+            mbeanServer.registerMBean(new StatsMBean(name, () -> read(name, stats)), objectName);
+            mbeans.add(objectName);
+        } catch (JMException e) {
+            log.warn("Unable to register the {} metrics MBean: {}", name, e.getMessage());
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String labels(String[] names, String[] values) {
+
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(names[i]).append("=\"").append(escape(values[i])).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /** A metric and its series, one per combination of label values */
+    private static class Family {
+
+        final String name;
+        final String type;
+        final String help;
+        final String[] labelNames;
+        final ConcurrentMap<List<String>, Series> series = new ConcurrentHashMap<>();
+        /** Statistics by source, for the families read from the services */
+        final Map<String, Supplier<Map<String, Long>>> sources;
+
+        Family(String name, String type, String help, String[] labelNames, boolean sourced) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.labelNames = labelNames;
+            this.sources = sourced ? new ConcurrentHashMap<>() : null;
+        }
+
+        Series series(String[] labelValues) {
+
+            if (labelValues.length != labelNames.length) {
+                throw new IllegalArgumentException(name + " takes the labels " + Arrays.toString(labelNames));
+            }
+            return series.computeIfAbsent(Arrays.asList(labelValues), k -> new Series(labelValues));
+        }
+
+        List<Series> sorted() {
+
+            Map<String, Series> sorted = new TreeMap<>();
+            series.values().forEach(s -> sorted.put(String.join(".", s.labelValues), s));
+            return new ArrayList<>(sorted.values());
+        }
+
+        /** The series as JMX attributes: count, and the sum and the 95th percentile in ms for histograms */
+        Map<String, Long> getStats() {
+
+            Map<String, Long> stats = new LinkedHashMap<>();
+            for (Series s : sorted()) {
+                String key = String.join(".", s.labelValues);
+                if ("counter".equals(type)) {
+                    stats.put(key, s.count.sum());
+                    continue;
+                }
+                stats.put(key + ".count", s.count.sum());
+                stats.put(key + ".sumMillis", s.sum.sum() / 1000);
+                stats.put(key + ".p95Millis", s.percentile(0.95));
+            }
+            return stats;
+        }
+    }
+
+    private static class Series {
+
+        final String[] labelValues;
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        final LongAdder count = new LongAdder();
+        /** In microseconds */
+        final LongAdder sum = new LongAdder();
+
+        Series(String[] labelValues) {
+
+            this.labelValues = labelValues.clone();
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /** The upper bound of the bucket of the percentile, -1 past the last bucket */
+        long percentile(double percentile) {
+
+            long total = count.sum();
+            long rank = (long) Math.ceil(total * percentile);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                if (total > 0 && cumulative >= rank) {
+                    return BUCKETS[i];
+                }
+            }
+            return total > 0 ? -1 : 0;
+        }
+    }
+
+    /** Read only MBean of a map of statistics, one attribute per key */
+    private static class StatsMBean implements DynamicMBean {
+
+        private final String name;
+        private final Supplier<Map<String, Long>> stats;
+
+        StatsMBean(String name, Supplier<Map<String, Long>> stats) {
+            this.name = name;
+            this.stats = stats;
+        }
+
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+
+            Long value = stats.get().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+
+            Map<String, Long> current = stats.get();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (current.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, current.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Read only: " + attribute.getName());
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        public MBeanInfo getMBeanInfo() {
+
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String key : stats.get().keySet()) {
+                attributes.add(new MBeanAttributeInfo(key, Long.class.getName(), null, true, false, false));
+            }
+            return new MBeanInfo(StatsMBean.class.getName(), "BBB " + name + " metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                null, null, null);
+        }
+    }
+}
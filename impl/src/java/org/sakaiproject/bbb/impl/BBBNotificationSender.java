@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.activation.DataSource;
+import javax.annotation.Resource;
+
+import org.sakaiproject.bbb.api.BBBEmailOutbox;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.storage.BBBEmail;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.email.api.Attachment;
+import org.sakaiproject.email.api.ContentType;
+import org.sakaiproject.email.api.EmailAddress;
+import org.sakaiproject.email.api.EmailAddress.RecipientType;
+import org.sakaiproject.email.api.EmailMessage;
+import org.sakaiproject.email.api.EmailService;
+import org.sakaiproject.id.api.IdManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the email notifications queued in the outbox. Emails are claimed from
+ * the outbox only as fast as a small, bounded pool of workers can send them,
+ * whatever the number of recipients of a notification. Failed emails are
+ * retried with an exponential backoff, and kept for {@code failedMaxAge} once
+ * given up on. Emails claimed by a node that went down are released after
+ * {@code claimTimeout} and sent by any node: an email the node had sent is then
+ * sent again. An email sent that can't be removed from the outbox is flagged
+ * as sent instead, or remembered until it can be, so that it isn't released.
+ */
+@Slf4j
+public class BBBNotificationSender {
+
+    /** Time (ms) between two purges of the outbox */
+    private static final long PURGE_INTERVAL = 3600000;
+
+    @Resource private BBBEmailOutbox outbox;
+    @Resource private EmailService emailService;
+    @Resource private IdManager idManager;
+    @Resource private ServerConfigurationService config;
+    @Resource private BBBMetrics metrics;
+
+    /** Time (ms) between two checks of the outbox */
+    private long pollInterval = 10000;
+    /** Number of attempts before an email is given up on */
+    private int maxAttempts = 5;
+    /** Delay (ms) before the first retry, doubled on each following one */
+    private long retryDelay = 60000;
+    /** Time (ms) after which the emails claimed by a node and still not sent are released */
+    private long claimTimeout = 600000;
+    /** Time (ms) the emails given up on are kept in the outbox */
+    private long failedMaxAge = 604800000;
+
+    private String nodeId;
+    private ThreadPoolExecutor senders;
+    private ScheduledExecutorService dispatcher;
+    private final AtomicBoolean dispatchRequested = new AtomicBoolean();
+    /** Emails sent, that could not be removed from the outbox nor flagged as sent yet */
+    private final Set<String> unrecorded = ConcurrentHashMap.newKeySet();
+    private long lastPurge;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public void init() {
+
+        pollInterval = (long) config.getInt(BBBMeetingManager.CFG_NOTIFICATIONS_POLLINTERVAL, (int) pollInterval);
+        maxAttempts = Math.max(config.getInt(BBBMeetingManager.CFG_NOTIFICATIONS_MAXATTEMPTS, maxAttempts), 1);
+        retryDelay = (long) config.getInt(BBBMeetingManager.CFG_NOTIFICATIONS_RETRYDELAY, (int) retryDelay);
+        claimTimeout = (long) config.getInt(BBBMeetingManager.CFG_NOTIFICATIONS_CLAIMTIMEOUT, (int) claimTimeout);
+        failedMaxAge = (long) config.getInt(BBBMeetingManager.CFG_NOTIFICATIONS_FAILEDMAXAGE, (int) failedMaxAge);
+        int threads = Math.max(config.getInt(BBBMeetingManager.CFG_NOTIFICATIONS_THREADS, 2), 1);
+        nodeId = config.getServerIdInstance();
+
+        senders = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * 10), r -> {
+            Thread thread = new Thread(r, "bbb-notification");
+            thread.setDaemon(true);
+            return thread;
+        });
+        senders.allowCoreThreadTimeOut(true);
+        dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bbb-notification-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatch, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        metrics.register("notifications", this::getStats);
+        metrics.register("notifications", senders);
+    }
+
+    public void destroy() {
+
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        if (senders != null) {
+            senders.shutdownNow();
+        }
+    }
+
+    /** Store the emails in the outbox, to be sent in the background */
+    public void queue(List<BBBEmail> emails) {
+
+        if (emails.isEmpty()) {
+            return;
+        }
+
+        Date now = new Date();
+        for (BBBEmail email : emails) {
+            email.setId(idManager.createUuid());
+            email.setCreated(now);
+            email.setNextAttempt(now);
+        }
+        outbox.enqueue(emails);
+        queued.addAndGet(emails.size());
+        log.debug("Queued {} email notifications", emails.size());
+        requestDispatch();
+    }
+
+    /** Queue depth and throughput counters */
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("notifications.pending", outbox.countPending());
+        stats.put("notifications.sending", (long) (senders.getActiveCount() + senders.getQueue().size()));
+        stats.put("notifications.queued", queued.get());
+        stats.put("notifications.sent", sent.get());
+        stats.put("notifications.retried", retried.get());
+        stats.put("notifications.failed", failed.get());
+        stats.put("notifications.unrecorded", (long) unrecorded.size());
+        return stats;
+    }
+
+    /** Dispatch now rather than on the next poll */
+    private void requestDispatch() {
+
+        if (dispatchRequested.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(this::dispatch);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the emails are sent after the next start.
+                dispatchRequested.set(false);
+            }
+        }
+    }
+
+    /** Hand the emails due over to the senders, as many as they can take */
+    private void dispatch() {
+
+        dispatchRequested.set(false);
+        try {
+            // Before releasing any claim, so that none of them is released and sent again.
+            for (String emailId : unrecorded) {
+                record(emailId);
+            }
+            if (!unrecorded.isEmpty()) {
+                log.warn("{} email notifications sent could not be recorded as such, not releasing any claim", unrecorded.size());
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            int released = outbox.releaseClaims(new Date(now - claimTimeout));
+            if (released > 0) {
+                log.warn("Released {} email notifications claimed more than {} ms ago", released, claimTimeout);
+            }
+            if (now - lastPurge >= PURGE_INTERVAL) {
+                lastPurge = now;
+                int purged = outbox.purge(new Date(now - failedMaxAge));
+                log.debug("Purged {} email notifications from the outbox", purged);
+            }
+
+            int capacity;
+            while ((capacity = senders.getQueue().remainingCapacity()) > 0) {
+                List<BBBEmail> emails = outbox.claim(nodeId, capacity);
+                if (emails.isEmpty()) {
+                    return;
+                }
+                for (BBBEmail email : emails) {
+                    senders.execute(() -> send(email));
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            log.debug("Notification senders are shut down");
+        } catch (Exception e) {
+            log.warn("Unable to dispatch email notifications: {}", e.getMessage());
+        }
+    }
+
+    private void send(BBBEmail email) {
+
+        try {
+            EmailMessage message = new EmailMessage();
+            message.setFrom(new EmailAddress("no-reply@" + config.getServerName(), config.getString("ui.institution")));
+            message.setRecipients(RecipientType.TO, Arrays.asList(new EmailAddress(email.getRecipientEmail(), email.getRecipientName())));
+            message.addHeader("Content-Type", "text/html; charset=ISO-8859-1");
+            message.setContentType(ContentType.TEXT_HTML);
+            message.setSubject(email.getSubject());
+            message.setBody(email.getBody());
+            if (email.getIcal() != null) {
+                message.addAttachment(new Attachment(new IcalDataSource(email.getIcal())));
+            }
+
+            emailService.send(message);
+        } catch (Exception e) {
+            int attempts = email.getAttempts() + 1;
+            if (attempts >= maxAttempts) {
+                log.warn("Unable to send email notification to {}, giving up after {} attempts", email.getRecipientEmail(), attempts, e);
+                outbox.failed(email.getId(), attempts, e.getMessage());
+                failed.incrementAndGet();
+            } else {
+                long delay = retryDelay << Math.min(attempts - 1, 16);
+                log.debug("Unable to send email notification to {}, retrying in {} ms: {}", email.getRecipientEmail(), delay, e.getMessage());
+                outbox.retry(email.getId(), attempts, new Date(System.currentTimeMillis() + delay), e.getMessage());
+                retried.incrementAndGet();
+            }
+            return;
+        }
+
+        // Outside of the try above, an email sent must not be retried.
+        sent.incrementAndGet();
+        unrecorded.add(email.getId());
+        record(email.getId());
+
+        // Refill the senders before they run dry, there may be more emails waiting.
+        if (senders.getQueue().size() < senders.getMaximumPoolSize()) {
+            requestDispatch();
+        }
+    }
+
+    /**
+     * Remove an email sent from the outbox, or flag it as sent. If neither
+     * can be done it stays claimed, and is remembered to be recorded on the
+     * next dispatch.
+     */
+    private void record(String emailId) {
+
+        try {
+            outbox.sent(emailId);
+            unrecorded.remove(emailId);
+            return;
+        } catch (Exception e) {
+            log.error("Unable to remove the email notification {} sent from the outbox: {}", emailId, e.getMessage());
+        }
+        try {
+            outbox.markSent(emailId);
+            unrecorded.remove(emailId);
+        } catch (Exception e) {
+            log.error("Unable to flag the email notification {} as sent, will try again: {}", emailId, e.getMessage());
+        }
+    }
+
+    /** iCal attachment, served from memory */
+    private static class IcalDataSource implements DataSource {
+
+        private final byte[] content;
+
+        IcalDataSource(String ical) {
+            this.content = ical.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Read only data source");
+        }
+
+        public String getContentType() {
+            return "text/calendar; charset=UTF-8";
+        }
+
+        public String getName() {
+            return "Calendar_Event.ics";
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.GroupNotDefinedException;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.BBBPermissions;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.entity.api.Entity;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.site.api.SiteService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshots of the functions granted to users in sites. A snapshot is taken
+ * in a single pass over the functions of the roles of the user in the realms
+ * of the site, rather than one unlock per function, and kept until the realm
+ * or the site membership changes, anywhere in the cluster, or for
+ * {@code ttl} ms at most.
+ */
+@Slf4j
+public class BBBPermissionSnapshots implements Observer {
+
+    /** Events changing the roles, members or grants of a realm */
+    private static final Set<String> INVALIDATING_EVENTS = new HashSet<>(Arrays.asList(
+        AuthzGroupService.SECURE_ADD_AUTHZ_GROUP, AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP,
+        AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP, AuthzGroupService.SECURE_REMOVE_AUTHZ_GROUP,
+        SiteService.SECURE_UPDATE_SITE, SiteService.SECURE_UPDATE_SITE_MEMBERSHIP,
+        SiteService.SECURE_UPDATE_GROUP_MEMBERSHIP, SiteService.SECURE_REMOVE_SITE));
+
+    private static final String SITE_PREFIX = SiteService.REFERENCE_ROOT + Entity.SEPARATOR;
+
+    @Resource(name = "org.sakaiproject.authz.api.SecurityService")
+    private SecurityService securityService;
+    @Resource private AuthzGroupService authzGroupService;
+    @Resource private SiteService siteService;
+    @Resource private EntityManager entityManager;
+    @Resource private EventTrackingService eventTrackingService;
+    @Resource private ServerConfigurationService serverConfigurationService;
+    @Resource private BBBMetrics metrics;
+
+    private long ttl = 300000;
+    private int maxSize = 10000;
+
+    /** Snapshots by user, by site */
+    private final ConcurrentMap<String, ConcurrentMap<String, Snapshot>> sites = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncached = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public void init() {
+
+        ttl = (long) serverConfigurationService.getInt(BBBMeetingManager.CFG_PERMISSIONS_CACHETTL, (int) ttl);
+        maxSize = Math.max(serverConfigurationService.getInt(BBBMeetingManager.CFG_PERMISSIONS_CACHESIZE, maxSize), 1);
+        eventTrackingService.addObserver(this);
+        metrics.register("permissions", this::getStats);
+    }
+
+    public void destroy() {
+        eventTrackingService.deleteObserver(this);
+    }
+
+    /** The functions granted to the user in the site */
+    public BBBPermissions getPermissions(String userId, String siteId) {
+
+        if (securityService.isSuperUser(userId)) {
+            return BBBPermissions.ALL;
+        }
+        if (siteId == null) {
+            return BBBPermissions.NONE;
+        }
+
+        String siteReference = siteService.siteReference(siteId);
+        if (securityService.hasAdvisors() || securityService.getUserEffectiveRole(siteReference) != null) {
+            // Granted for the time of this request only, by an advisor or a swapped role.
+            uncached.incrementAndGet();
+            return BBBPermissions.of(f -> securityService.unlock(userId, f, siteReference));
+        }
+
+        // An invalidation detaches the map of the site, so a snapshot of the old realm can't be kept.
+        ConcurrentMap<String, Snapshot> users = sites.computeIfAbsent(siteId, k -> new ConcurrentHashMap<>());
+        long now = System.currentTimeMillis();
+        Snapshot snapshot = users.get(userId);
+        if (snapshot != null && now < snapshot.expires) {
+            hits.incrementAndGet();
+            return snapshot.permissions;
+        }
+
+        misses.incrementAndGet();
+        BBBPermissions permissions = take(userId, siteReference);
+        if (size() >= maxSize) {
+            log.debug("{} permission snapshots, clearing them", maxSize);
+            invalidateAll();
+            return permissions;
+        }
+        users.put(userId, new Snapshot(permissions, now + ttl));
+        return permissions;
+    }
+
+    public void update(Observable observable, Object arg) {
+
+        if (!(arg instanceof Event) || !INVALIDATING_EVENTS.contains(((Event) arg).getEvent())) {
+            return;
+        }
+
+        // Site and realm references: /site/SITE_ID[/group/GROUP_ID], /realm//site/SITE_ID[/group/GROUP_ID]
+        String resource = StringUtils.defaultString(((Event) arg).getResource());
+        int start = resource.indexOf(SITE_PREFIX);
+        if (start >= 0) {
+            start += SITE_PREFIX.length();
+            int end = resource.indexOf(Entity.SEPARATOR, start);
+            invalidate(end < 0 ? resource.substring(start) : resource.substring(start, end));
+        } else if (resource.contains("!")) {
+            // A template realm, e.g. !site.helper, grants functions in every site.
+            invalidateAll();
+        }
+    }
+
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("permissions.hits", hits.get());
+        stats.put("permissions.misses", misses.get());
+        stats.put("permissions.uncached", uncached.get());
+        stats.put("permissions.invalidations", invalidations.get());
+        stats.put("permissions.size", (long) size());
+        return stats;
+    }
+
+    private void invalidate(String siteId) {
+
+        if (sites.remove(siteId) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private void invalidateAll() {
+
+        sites.keySet().forEach(this::invalidate);
+    }
+
+    private int size() {
+        return sites.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * The functions of the role of the user in the realm of the site, if an
+     * active member, and of the roles every user and every logged in user
+     * have, in every realm unlock consults for the site: the site realm, and
+     * the helper and user template realms.
+     */
+    private BBBPermissions take(String userId, String siteReference) {
+
+        AuthzGroup realm;
+        try {
+            realm = authzGroupService.getAuthzGroup(siteReference);
+        } catch (GroupNotDefinedException e) {
+            log.debug("No realm for {}", siteReference);
+            return BBBPermissions.NONE;
+        }
+
+        Collection<String> realms = entityManager.newReference(siteReference).getAuthzGroups(userId);
+        if (realms == null || realms.isEmpty()) {
+            realms = Collections.singletonList(siteReference);
+        }
+
+        List<String> roles = new ArrayList<>();
+        Member member = realm.getMember(userId);
+        if (member != null && member.isActive() && member.getRole() != null) {
+            roles.add(member.getRole().getId());
+        }
+        roles.add(AuthzGroupService.ANON_ROLE);
+        if (StringUtils.isNotBlank(userId)) {
+            roles.add(AuthzGroupService.AUTH_ROLE);
+        }
+
+        Set<String> granted = new HashSet<>();
+        for (String role : roles) {
+            granted.addAll(authzGroupService.getAllowedFunctions(role, realms));
+        }
+        return BBBPermissions.of(granted::contains);
+    }
+
+    private static class Snapshot {
+
+        final BBBPermissions permissions;
+        final long expires;
+
+        Snapshot(BBBPermissions permissions, long expires) {
+            this.permissions = permissions;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import org.sakaiproject.bbb.api.BBBException;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Default {@link BBBHttpTransport}: a bounded, per host pool of persistent
+ * (keep-alive) connections so that API calls don't pay a TCP/TLS handshake each.
+ */
+@Slf4j
+public class BBBPooledHttpTransport implements BBBHttpTransport {
+
+    @Resource private ServerConfigurationService config;
+    @Resource private BBBMetrics metrics;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong poolTimeouts = new AtomicLong();
+
+    public void init() {
+
+        int maxConnections = config.getInt(BBBMeetingManager.CFG_HTTP_MAXCONNECTIONS, 100);
+        int maxConnectionsPerHost = config.getInt(BBBMeetingManager.CFG_HTTP_MAXCONNECTIONSPERHOST, 20);
+        int connectTimeout = config.getInt(BBBMeetingManager.CFG_HTTP_CONNECTTIMEOUT, 5000);
+        int readTimeout = config.getInt(BBBMeetingManager.CFG_HTTP_READTIMEOUT, 30000);
+        int poolTimeout = config.getInt(BBBMeetingManager.CFG_HTTP_POOLTIMEOUT, 5000);
+        int idleTimeout = config.getInt(BBBMeetingManager.CFG_HTTP_IDLETIMEOUT, 30000);
+
+        // Count physical connections, so the reuse ratio can be derived from the stats.
+        connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                    .build(),
+                (route, connectionConfig) -> {
+                    connectionsOpened.incrementAndGet();
+                    return ManagedHttpClientConnectionFactory.INSTANCE.create(route, connectionConfig);
+                });
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(poolTimeout)
+                .build();
+
+        httpClient = HttpClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableCookieManagement()
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+
+        log.info("BBB HTTP connection pool initialised (max={}, maxPerHost={}, connectTimeout={}ms, readTimeout={}ms, poolTimeout={}ms)",
+                maxConnections, maxConnectionsPerHost, connectTimeout, readTimeout, poolTimeout);
+        metrics.register("transport", this::getStats);
+    }
+
+    public void destroy() {
+
+        try {
+            if (httpClient != null) {
+                httpClient.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close BBB HTTP connection pool: {}", e.getMessage());
+        }
+    }
+
+    public <T> T get(String url, ResponseReader<T> reader) throws Exception {
+        return execute(new HttpGet(url), reader);
+    }
+
+    public <T> T post(String url, String contentType, String body, ResponseReader<T> reader) throws Exception {
+
+        HttpPost post = new HttpPost(url);
+        post.setHeader("Content-Language", "en-US");
+        post.setEntity(new StringEntity(body, ContentType.create(contentType, StandardCharsets.UTF_8)));
+        return execute(post, reader);
+    }
+
+    private <T> T execute(HttpUriRequest request, ResponseReader<T> reader) throws Exception {
+
+        requests.incrementAndGet();
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            HttpEntity entity = response.getEntity();
+            int responseCode = response.getStatusLine().getStatusCode();
+            if (responseCode != HttpStatus.SC_OK) {
+                EntityUtils.consumeQuietly(entity);
+                throw new BBBException(BBBException.MESSAGEKEY_HTTPERROR, "BBB server responded with HTTP status code " + responseCode);
+            }
+            if (entity == null) {
+                throw new IOException("BBB server responded with an empty body");
+            }
+            // Closing the content stream drains it and hands the connection back to the pool.
+            try (InputStream body = entity.getContent()) {
+                return reader.read(body);
+            }
+        } catch (ConnectionPoolTimeoutException e) {
+            // This node is busy, the server was never asked.
+            poolTimeouts.incrementAndGet();
+            throw new BBBException(BBBException.MESSAGEKEY_OVERLOADED, "No free connection to the BBB server in the pool", e);
+        }
+    }
+
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("requests", requests.get());
+        stats.put("connectionsOpened", connectionsOpened.get());
+        stats.put("poolTimeouts", poolTimeouts.get());
+        if (connectionManager != null) {
+            PoolStats total = connectionManager.getTotalStats();
+            stats.put("leased", (long) total.getLeased());
+            stats.put("available", (long) total.getAvailable());
+            stats.put("pending", (long) total.getPending());
+            stats.put("max", (long) total.getMax());
+            for (HttpRoute route : connectionManager.getRoutes()) {
+                PoolStats routeStats = connectionManager.getStats(route);
+                String host = route.getTargetHost().toHostString();
+                stats.put(host + ".leased", (long) routeStats.getLeased());
+                stats.put(host + ".available", (long) routeStats.getAvailable());
+                stats.put(host + ".pending", (long) routeStats.getPending());
+            }
+        }
+        return stats;
+    }
+}
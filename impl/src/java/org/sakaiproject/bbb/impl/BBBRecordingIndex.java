@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.Resource;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.bbb.api.BBBException;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.BBBRecordingStorageManager;
+import org.sakaiproject.bbb.api.BBBStorageManager;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBRecording;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the local recording index in line with the BBB server. Meetings are
+ * synchronized when first listed, when BBB reports a new recording for them
+ * (recordingReady callback), when their list is explicitly refreshed, and by
+ * a background sweep of the meetings not synchronized for a while. A meeting
+ * joined or ended is watched for a while, its recordings being processed,
+ * and synchronized more often meanwhile. A meeting failing to synchronize
+ * backs off, so that it doesn't hold up the others.
+ */
+@Slf4j
+public class BBBRecordingIndex {
+
+    private static final TypeReference<LinkedHashMap<String, Object>> RECORDING_TYPE = new TypeReference<LinkedHashMap<String, Object>>() {};
+
+    @Resource private BBBAPIWrapper bbbApiWrapper;
+    @Resource private BBBStorageManager storageManager;
+    @Resource private BBBRecordingStorageManager recordingStorageManager;
+    @Resource private SiteService siteService;
+    @Resource private ServerConfigurationService config;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /** Time (ms) between two background sweeps (default to 5 min, 0 disables them) */
+    private long syncInterval = 300000;
+    /** Time (ms) after which the recordings of a meeting are synchronized again (default to 1 hour) */
+    private long syncMaxAge = 3600000;
+    /** Maximum number of meetings synchronized by a sweep */
+    private int syncBatchSize = 100;
+    /** Time (ms) a meeting is watched after being joined or ended (default to 2 hours) */
+    private long syncWatchTime = 7200000;
+    /** Time (ms) after which the recordings of a watched meeting are synchronized again (default to 1 min) */
+    private long syncWatchInterval = 60000;
+
+    private ScheduledExecutorService scheduler;
+
+    public void init() {
+
+        syncInterval = (long) config.getInt(BBBMeetingManager.CFG_RECORDINGS_SYNCINTERVAL, (int) syncInterval);
+        syncMaxAge = (long) config.getInt(BBBMeetingManager.CFG_RECORDINGS_SYNCMAXAGE, (int) syncMaxAge);
+        syncBatchSize = config.getInt(BBBMeetingManager.CFG_RECORDINGS_SYNCBATCHSIZE, syncBatchSize);
+        syncWatchTime = (long) config.getInt(BBBMeetingManager.CFG_RECORDINGS_SYNCWATCHTIME, (int) syncWatchTime);
+        syncWatchInterval = (long) config.getInt(BBBMeetingManager.CFG_RECORDINGS_SYNCWATCHINTERVAL, (int) syncWatchInterval);
+
+        if (syncInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "bbb-recording-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::sweep, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void destroy() {
+
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Synchronize the meetings never synchronized so far, changed since, or
+     * watched and not synchronized lately. All of them when forced, on an
+     * explicit refresh.
+     */
+    public void syncIfNeeded(Collection<BBBMeeting> meetings, boolean force) throws BBBException {
+
+        if (force) {
+            sync(new ArrayList<>(meetings));
+            return;
+        }
+        Set<String> toSync = new HashSet<>(recordingStorageManager.getMeetingsToSync(
+            meetings.stream().map(BBBMeeting::getId).collect(Collectors.toList()),
+            new Date(System.currentTimeMillis() - syncWatchInterval)));
+        if (!toSync.isEmpty()) {
+            sync(meetings.stream().filter(m -> toSync.contains(m.getId())).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Fetch the recordings of the given meetings, and of all their group
+     * sessions, from the BBB server and replace the indexed ones with them.
+     * On failure, every meeting given backs off before its next
+     * synchronization.
+     */
+    public void sync(List<BBBMeeting> meetings) throws BBBException {
+
+        if (meetings.isEmpty()) {
+            return;
+        }
+
+        try {
+            fetch(meetings);
+        } catch (BBBException | RuntimeException e) {
+            failed(meetings);
+            throw e;
+        }
+    }
+
+    private void failed(List<BBBMeeting> meetings) {
+
+        for (BBBMeeting meeting : meetings) {
+            recordingStorageManager.syncFailed(meeting.getId(), syncWatchInterval, syncMaxAge);
+        }
+    }
+
+    private void fetch(List<BBBMeeting> meetings) throws BBBException {
+
+        log.debug("Synchronizing the recordings of {} meetings", meetings.size());
+
+        Map<String, Site> sites = new HashMap<>();
+        List<String> meetingIDs = new ArrayList<>();
+        Map<String, List<BBBRecording>> recordings = new LinkedHashMap<>();
+        for (BBBMeeting meeting : meetings) {
+            meetingIDs.add(meeting.getId());
+            recordings.put(meeting.getId(), new ArrayList<>());
+            if (meeting.getGroupSessions()) {
+                Site site = sites.computeIfAbsent(meeting.getSiteId(), this::getSite);
+                if (site != null) {
+                    for (Group group : site.getGroups()) {
+                        meetingIDs.add(meeting.getId() + "[" + group.getId() + "]");
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> response = bbbApiWrapper.getRecordings(String.join(",", meetingIDs));
+        if (!"SUCCESS".equals(response.get("returncode"))) {
+            throw new BBBException((String) response.get("messageKey"), (String) response.get("message"));
+        }
+        if (Boolean.TRUE.equals(response.get("partial"))) {
+            // We can't tell which meetings are incomplete, keep what is indexed.
+            throw new BBBException(BBBException.MESSAGEKEY_UNREACHABLE, "Only part of the recordings could be retrieved");
+        }
+
+        Date now = new Date();
+        Object list = response.get("recordings");
+        if (list instanceof List) {
+            for (Map<String, Object> item : (List<Map<String, Object>>) list) {
+                BBBRecording recording = toRecording(item, now);
+                List<BBBRecording> meetingRecordings = recordings.get(recording.getMeetingId());
+                if (meetingRecordings != null) {
+                    meetingRecordings.add(recording);
+                }
+            }
+        }
+
+        recordings.forEach(recordingStorageManager::replaceRecordings);
+    }
+
+    /** Flag the meeting of a BBB meeting id (possibly a group session) for synchronization */
+    public void markDirty(String meetingID) {
+
+        int groupStart = meetingID.indexOf('[');
+        recordingStorageManager.markDirty(groupStart > 0 ? meetingID.substring(0, groupStart) : meetingID, null);
+    }
+
+    /**
+     * Flag a meeting just joined or ended for synchronization, and watch it
+     * while the server processes its recordings.
+     */
+    public void watch(String meetingId) {
+        recordingStorageManager.markDirty(meetingId, new Date(System.currentTimeMillis() + syncWatchTime));
+    }
+
+    /** The recording, as getRecordings returns it */
+    public Map<String, Object> toMap(BBBRecording recording) {
+
+        Map<String, Object> item;
+        try {
+            item = objectMapper.readValue(recording.getData(), RECORDING_TYPE);
+        } catch (Exception e) {
+            log.warn("Unreadable indexed recording {}: {}", recording.getRecordId(), e.getMessage());
+            item = new LinkedHashMap<>();
+            item.put("recordID", recording.getRecordId());
+            item.put("name", recording.getName());
+            item.put("playback", new ArrayList<>());
+        }
+        // Flags are kept up to date locally, between synchronizations.
+        item.put("published", Boolean.toString(recording.getPublished()));
+        item.put("protected", Boolean.toString(recording.getProtectedRecording()));
+        return item;
+    }
+
+    private BBBRecording toRecording(Map<String, Object> item, Date now) {
+
+        BBBRecording recording = new BBBRecording();
+        recording.setRecordId((String) item.get("recordID"));
+        String meetingID = (String) item.get("meetingID");
+        int groupStart = meetingID.indexOf('[');
+        if (groupStart > 0) {
+            recording.setMeetingId(meetingID.substring(0, groupStart));
+            recording.setGroupId(meetingID.substring(groupStart + 1, meetingID.indexOf(']', groupStart)));
+        } else {
+            recording.setMeetingId(meetingID);
+        }
+        recording.setName(StringUtils.abbreviate((String) item.get("name"), 255));
+        recording.setState((String) item.get("state"));
+        recording.setPublished(Boolean.parseBoolean((String) item.get("published")));
+        recording.setProtectedRecording(Boolean.parseBoolean((String) item.get("protected")));
+        recording.setStartTime(parseTime(item.get("startTime")));
+        recording.setEndTime(parseTime(item.get("endTime")));
+        try {
+            recording.setData(objectMapper.writeValueAsString(item));
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to serialize recording {}: {}", recording.getRecordId(), e.getMessage());
+        }
+        recording.setSynced(now);
+        return recording;
+    }
+
+    private Long parseTime(Object time) {
+
+        try {
+            return time == null ? null : Long.valueOf((String) time);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Site getSite(String siteId) {
+
+        try {
+            return siteService.getSite(siteId);
+        } catch (IdUnusedException e) {
+            log.debug("No site for id {}, group session recordings not synchronized", siteId);
+            return null;
+        }
+    }
+
+    /**
+     * Synchronize a batch of the meetings due, claimed so that no other node
+     * synchronizes them at the same time. When the batch fails, its meetings
+     * are retried one by one, so that only the failing ones back off.
+     */
+    private void sweep() {
+
+        try {
+            long now = System.currentTimeMillis();
+            List<String> meetingIds = recordingStorageManager.claimMeetingsToSync(new Date(now - syncMaxAge),
+                new Date(now - syncWatchInterval), syncBatchSize, new Date(now + syncInterval * 2));
+            List<BBBMeeting> meetings = new ArrayList<>();
+            for (String meetingId : meetingIds) {
+                BBBMeeting meeting = storageManager.getMeeting(meetingId);
+                if (meeting != null) {
+                    meetings.add(meeting);
+                }
+            }
+            if (meetings.isEmpty()) {
+                return;
+            }
+            try {
+                fetch(meetings);
+            } catch (BBBException e) {
+                if (meetings.size() > 1) {
+                    log.debug("Synchronization of {} meetings failed, retrying them one by one: {}", meetings.size(), e.getMessage());
+                    meetings.forEach(this::syncQuietly);
+                } else {
+                    failed(meetings);
+                    log.warn("Background recording synchronization failed: {}", e.getMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Background recording synchronization failed: {}", e.getMessage());
+        }
+    }
+
+    private void syncQuietly(BBBMeeting meeting) {
+
+        try {
+            sync(Collections.singletonList(meeting));
+        } catch (BBBException e) {
+            log.warn("Failed to synchronize the recordings of meeting {}: {}", meeting.getId(), e.getMessage());
+        }
+    }
+}
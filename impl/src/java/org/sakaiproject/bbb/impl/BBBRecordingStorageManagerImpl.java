@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.Resource;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import org.hibernate.Criteria;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+
+import org.sakaiproject.bbb.api.BBBRecordingStorageManager;
+import org.sakaiproject.bbb.api.storage.BBBRecording;
+import org.sakaiproject.bbb.api.storage.BBBRecordingSync;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class BBBRecordingStorageManagerImpl implements BBBRecordingStorageManager {
+
+    @Resource(name = "org.sakaiproject.springframework.orm.hibernate.GlobalSessionFactory")
+    private SessionFactory sessionFactory;
+
+    @Transactional
+    public List<BBBRecording> getRecordings(Collection<String> meetingIds, String groupId, int first, int max) {
+
+        if (meetingIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Criteria c = recordingsCriteria(meetingIds, groupId)
+            .addOrder(Order.desc("startTime"))
+            .addOrder(Order.asc("recordId"));
+
+        if (max > 0) {
+            c.setFirstResult(first);
+            c.setMaxResults(max);
+        }
+
+        return (List<BBBRecording>) c.list();
+    }
+
+    @Transactional
+    public long countRecordings(Collection<String> meetingIds, String groupId) {
+
+        if (meetingIds.isEmpty()) {
+            return 0;
+        }
+
+        return (Long) recordingsCriteria(meetingIds, groupId)
+            .setProjection(Projections.rowCount())
+            .uniqueResult();
+    }
+
+    private Criteria recordingsCriteria(Collection<String> meetingIds, String groupId) {
+
+        Criteria c = sessionFactory.getCurrentSession().createCriteria(BBBRecording.class)
+            .add(Restrictions.in("meetingId", meetingIds));
+
+        if (groupId != null) {
+            c.add(Restrictions.or(Restrictions.isNull("groupId"), Restrictions.eq("groupId", groupId)));
+        }
+
+        return c;
+    }
+
+    @Transactional
+    public BBBRecording getRecording(String recordId) {
+        return (BBBRecording) sessionFactory.getCurrentSession().get(BBBRecording.class, recordId);
+    }
+
+    @Transactional
+    public void replaceRecordings(String meetingId, List<BBBRecording> recordings) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        Set<String> recordIds = recordings.stream().map(BBBRecording::getRecordId).collect(Collectors.toSet());
+        List<BBBRecording> stored = (List<BBBRecording>) session.createCriteria(BBBRecording.class)
+            .add(Restrictions.eq("meetingId", meetingId))
+            .list();
+        for (BBBRecording recording : stored) {
+            if (!recordIds.contains(recording.getRecordId())) {
+                session.delete(recording);
+            }
+        }
+        for (BBBRecording recording : recordings) {
+            session.merge(recording);
+        }
+
+        BBBRecordingSync sync = (BBBRecordingSync) session.get(BBBRecordingSync.class, meetingId);
+        if (sync == null) {
+            sync = new BBBRecordingSync();
+            sync.setMeetingId(meetingId);
+        }
+        sync.setSynced(new Date());
+        sync.setDirty(false);
+        sync.setFailures(0);
+        sync.setNextSync(null);
+        session.saveOrUpdate(sync);
+    }
+
+    @Transactional
+    public boolean updateRecording(BBBRecording recording) {
+
+        sessionFactory.getCurrentSession().merge(recording);
+        return true;
+    }
+
+    @Transactional
+    public boolean deleteRecording(String recordId) {
+
+        Session session = sessionFactory.getCurrentSession();
+        BBBRecording recording = (BBBRecording) session.get(BBBRecording.class, recordId);
+        if (recording == null) {
+            return false;
+        }
+        session.delete(recording);
+        return true;
+    }
+
+    @Transactional
+    public List<String> getMeetingsToSync(Collection<String> meetingIds, Date watchedSyncedBefore) {
+
+        if (meetingIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Date now = new Date();
+        List<BBBRecordingSync> syncs = (List<BBBRecordingSync>) sessionFactory.getCurrentSession()
+            .createCriteria(BBBRecordingSync.class)
+            .add(Restrictions.in("meetingId", meetingIds))
+            .list();
+        Map<String, BBBRecordingSync> byMeetingId = new HashMap<>();
+        syncs.forEach(s -> byMeetingId.put(s.getMeetingId(), s));
+
+        return meetingIds.stream().filter(id -> {
+            BBBRecordingSync sync = byMeetingId.get(id);
+            if (sync == null) {
+                return true;
+            }
+            if (sync.getNextSync() != null && sync.getNextSync().after(now)) {
+                return false;
+            }
+            return sync.getDirty() || sync.getSynced() == null
+                || (sync.getWatchUntil() != null && sync.getWatchUntil().after(now) && sync.getSynced().before(watchedSyncedBefore));
+        }).collect(Collectors.toList());
+    }
+
+    @Transactional
+    public List<String> claimMeetingsToSync(Date syncedBefore, Date watchedSyncedBefore, int max, Date claimUntil) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Date now = new Date();
+        List<String> due = (List<String>) session
+            .createQuery("select s.meetingId from BBBRecordingSync s, BBBMeeting m where m.id = s.meetingId and m.recording = true"
+                + " and (s.nextSync is null or s.nextSync <= :now)"
+                + " and (s.dirty = true or s.synced is null or s.synced < :syncedBefore"
+                + " or (s.watchUntil > :now and s.synced < :watchedSyncedBefore))"
+                + " order by s.synced")
+            .setParameter("now", now)
+            .setParameter("syncedBefore", syncedBefore)
+            .setParameter("watchedSyncedBefore", watchedSyncedBefore)
+            .setMaxResults(max)
+            .list();
+
+        // Another node may claim the same meetings concurrently, only the meetings still due are ours.
+        List<String> claimed = new ArrayList<>();
+        for (String meetingId : due) {
+            int updated = session.createQuery("update BBBRecordingSync set nextSync = :claimUntil"
+                    + " where meetingId = :meetingId and (nextSync is null or nextSync <= :now)")
+                .setParameter("claimUntil", claimUntil)
+                .setParameter("meetingId", meetingId)
+                .setParameter("now", now)
+                .executeUpdate();
+            if (updated > 0) {
+                claimed.add(meetingId);
+            }
+        }
+        return claimed;
+    }
+
+    @Transactional
+    public void markDirty(String meetingId, Date watchUntil) {
+
+        Session session = sessionFactory.getCurrentSession();
+        BBBRecordingSync sync = (BBBRecordingSync) session.get(BBBRecordingSync.class, meetingId);
+        if (sync == null) {
+            sync = new BBBRecordingSync();
+            sync.setMeetingId(meetingId);
+        }
+        sync.setDirty(true);
+        // Extended by a minute at least, so that a meeting joined by many users isn't updated on each join.
+        if (watchUntil != null && (sync.getWatchUntil() == null || sync.getWatchUntil().getTime() < watchUntil.getTime() - 60000)) {
+            sync.setWatchUntil(watchUntil);
+        }
+        session.saveOrUpdate(sync);
+    }
+
+    @Transactional
+    public void syncFailed(String meetingId, long baseDelay, long maxDelay) {
+
+        Session session = sessionFactory.getCurrentSession();
+        BBBRecordingSync sync = (BBBRecordingSync) session.get(BBBRecordingSync.class, meetingId);
+        if (sync == null) {
+            sync = new BBBRecordingSync();
+            sync.setMeetingId(meetingId);
+        }
+        int failures = sync.getFailures() + 1;
+        long delay = Math.min(baseDelay << Math.min(failures - 1, 20), maxDelay);
+        sync.setFailures(failures);
+        sync.setNextSync(new Date(System.currentTimeMillis() + Math.max(delay, 0)));
+        session.saveOrUpdate(sync);
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.Resource;
+
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.util.RequestFilter;
+
+/**
+ * Values remembered until the end of the current request, when the thread
+ * locals are cleared. Outside of a request nothing is remembered, as nothing
+ * would ever clear it.
+ */
+public class BBBRequestMemo {
+
+    private static final String MEMO = BBBRequestMemo.class.getName();
+
+    @Resource private ThreadLocalManager threadLocalManager;
+
+    /** The value remembered under the key, loaded if needed */
+    public <V> V get(String key, Supplier<V> loader) {
+
+        if (threadLocalManager.get(RequestFilter.CURRENT_HTTP_REQUEST) == null) {
+            return loader.get();
+        }
+
+        Map<String, Object> memo = (Map<String, Object>) threadLocalManager.get(MEMO);
+        if (memo == null) {
+            memo = new HashMap<>();
+            threadLocalManager.set(MEMO, memo);
+        }
+        // Not computeIfAbsent, loaders may remember values themselves.
+        V value = (V) memo.get(key);
+        if (value == null) {
+            value = loader.get();
+            memo.put(key, value);
+        }
+        return value;
+    }
+}
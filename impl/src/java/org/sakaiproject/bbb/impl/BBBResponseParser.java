@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming (StAX) parser for BBB API responses. Reads the &lt;response&gt;
+ * element straight from the connection into the same Map structure that
+ * doAPICall used to build from a DOM:
+ * <ul>
+ *   <li>text only elements become trimmed Strings, empty elements become ""</li>
+ *   <li>elements whose first child has children of its own become a List of Maps</li>
+ *   <li>any other element becomes a Map</li>
+ *   <li>&lt;image&gt; elements become image1, image2, ... Maps (height, width, title, url)</li>
+ *   <li>&lt;preview&gt; becomes the List of its images</li>
+ * </ul>
+ * The whitespace around child elements is ignored however the response is
+ * indented, as the regex of the old path (the patch for the NaN error)
+ * stripped it before building the DOM.
+ */
+public class BBBResponseParser {
+
+    private static final String RESPONSE = "response";
+    private static final String IMAGE = "image";
+    private static final String PREVIEW = "preview";
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private static XMLInputFactory createFactory() {
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    private BBBResponseParser() {
+    }
+
+    /** Parse the response element of a BBB API response */
+    public static Map<String, Object> parse(InputStream in) throws XMLStreamException {
+
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in, "UTF-8");
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && RESPONSE.equals(reader.getLocalName())) {
+                    return readElement(reader).map;
+                }
+            }
+            throw new XMLStreamException("No <response> element found in BBB server response");
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Read the element the reader is positioned on, up to and including its end tag */
+    private static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+
+        Element element = new Element(reader.getLocalName());
+        if (IMAGE.equals(element.name)) {
+            element.attributes = new LinkedHashMap<>();
+            element.attributes.put("height", reader.getAttributeValue(null, "height"));
+            element.attributes.put("width", reader.getAttributeValue(null, "width"));
+            element.attributes.put("title", reader.getAttributeValue(null, "alt"));
+        }
+
+        StringBuilder text = null;
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    element.add(readElement(reader));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!element.hasChildren) {
+                        if (text == null) {
+                            text = new StringBuilder();
+                        }
+                        text.append(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (!element.hasChildren && text != null) {
+                        element.text = text.toString().trim();
+                    }
+                    return element;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLStreamException("Unexpected end of BBB server response");
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * A parsed element. Only the pieces needed by its parent are kept, children
+     * are discarded as soon as they have been folded into {@link #map}.
+     */
+    private static class Element {
+
+        final String name;
+        Map<String, String> attributes;
+        String text;
+        boolean hasChildren;
+
+        /** Values of the children, keyed by name */
+        final Map<String, Object> map = new LinkedHashMap<>();
+        /** Maps of each child; only collected when the first child has children itself */
+        List<Object> childMaps;
+        Map<String, Object> firstChildMap;
+        int images = 1;
+
+        Element(String name) {
+            this.name = name;
+        }
+
+        void add(Element child) {
+
+            if (!hasChildren) {
+                hasChildren = true;
+                firstChildMap = child.map;
+                if (child.hasChildren) {
+                    childMaps = new ArrayList<>();
+                }
+            }
+            if (childMaps != null) {
+                childMaps.add(child.map);
+            }
+            if (IMAGE.equals(child.name) && !child.hasChildren && child.text != null && !child.text.isEmpty()) {
+                child.attributes.put("url", child.text);
+                map.put(IMAGE + images++, child.attributes);
+            } else {
+                map.put(child.name, child.value());
+            }
+        }
+
+        /** Value of this element in its parent map */
+        Object value() {
+
+            if (!hasChildren) {
+                return text != null ? text : "";
+            }
+            if (childMaps == null) {
+                return map;
+            }
+            if (PREVIEW.equals(name)) {
+                return new ArrayList<>(firstChildMap.values());
+            }
+            return childMaps;
+        }
+    }
+}
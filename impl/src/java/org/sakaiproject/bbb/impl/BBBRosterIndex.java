@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.entity.api.Entity;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.api.UserDirectoryService;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Searchable rosters of sites. The members of a site are looked up in bulk
+ * the first time it is searched, and indexed by the prefixes of the words of
+ * their display names, their EIDs and display ids. The index is kept until
+ * the realm or the membership of the site changes, anywhere in the cluster,
+ * or for {@code ttl} ms at most.
+ */
+@Slf4j
+public class BBBRosterIndex implements Observer {
+
+    /** Events changing the members of a site */
+    private static final Set<String> INVALIDATING_EVENTS = new HashSet<>(Arrays.asList(
+        AuthzGroupService.SECURE_ADD_AUTHZ_GROUP, AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP,
+        AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP, AuthzGroupService.SECURE_REMOVE_AUTHZ_GROUP,
+        SiteService.SECURE_UPDATE_SITE, SiteService.SECURE_UPDATE_SITE_MEMBERSHIP, SiteService.SECURE_REMOVE_SITE));
+
+    private static final String SITE_PREFIX = SiteService.REFERENCE_ROOT + Entity.SEPARATOR;
+
+    @Resource private SiteService siteService;
+    @Resource private UserDirectoryService userDirectoryService;
+    @Resource private EventTrackingService eventTrackingService;
+    @Resource private ServerConfigurationService serverConfigurationService;
+    @Resource private BBBMetrics metrics;
+
+    private long ttl = 300000;
+    private int maxSites = 100;
+
+    /** Rosters by site */
+    private final ConcurrentMap<String, Roster> sites = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public void init() {
+
+        ttl = (long) serverConfigurationService.getInt(BBBMeetingManager.CFG_ROSTER_CACHETTL, (int) ttl);
+        maxSites = Math.max(serverConfigurationService.getInt(BBBMeetingManager.CFG_ROSTER_CACHESIZE, maxSites), 1);
+        eventTrackingService.addObserver(this);
+        metrics.register("roster", this::getStats);
+    }
+
+    public void destroy() {
+        eventTrackingService.deleteObserver(this);
+    }
+
+    /**
+     * A page of the members of the site matching every word of the search,
+     * by the start of a word of their display name, their EID or display id,
+     * sorted by display name. A blank search matches every member, a max of
+     * 0 gets them all.
+     */
+    public Result search(String siteId, String search, int first, int max) throws IdUnusedException {
+
+        Index index = getIndex(siteId);
+        String[] terms = StringUtils.split(StringUtils.defaultString(search).toLowerCase(Locale.ROOT));
+
+        BitSet matches = new BitSet(index.entries.length);
+        matches.set(0, index.entries.length);
+        for (String term : terms) {
+            matches.and(index.match(term));
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        int skipped = 0;
+        for (int i = matches.nextSetBit(0); i >= 0 && (max <= 0 || entries.size() < max); i = matches.nextSetBit(i + 1)) {
+            if (skipped++ >= first) {
+                entries.add(index.entries[i]);
+            }
+        }
+        return new Result(entries, matches.cardinality());
+    }
+
+    /** The members of the site among the users, sorted by display name */
+    public List<Entry> getMembers(String siteId, Collection<String> userIds) throws IdUnusedException {
+
+        Index index = getIndex(siteId);
+        BitSet matches = new BitSet(index.entries.length);
+        for (String userId : userIds) {
+            Integer i = index.byUserId.get(userId);
+            if (i != null) {
+                matches.set(i);
+            }
+        }
+        List<Entry> entries = new ArrayList<>(matches.cardinality());
+        matches.stream().forEach(i -> entries.add(index.entries[i]));
+        return entries;
+    }
+
+    public void update(Observable observable, Object arg) {
+
+        if (!(arg instanceof Event) || !INVALIDATING_EVENTS.contains(((Event) arg).getEvent())) {
+            return;
+        }
+
+        // Site and realm references: /site/SITE_ID[/group/GROUP_ID], /realm//site/SITE_ID[/group/GROUP_ID]
+        String resource = StringUtils.defaultString(((Event) arg).getResource());
+        int start = resource.indexOf(SITE_PREFIX);
+        if (start >= 0) {
+            start += SITE_PREFIX.length();
+            int end = resource.indexOf(Entity.SEPARATOR, start);
+            invalidate(end < 0 ? resource.substring(start) : resource.substring(start, end));
+        }
+    }
+
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("roster.hits", hits.get());
+        stats.put("roster.builds", builds.get());
+        stats.put("roster.invalidations", invalidations.get());
+        stats.put("roster.sites", (long) sites.size());
+        return stats;
+    }
+
+    private Index getIndex(String siteId) throws IdUnusedException {
+
+        Roster roster = sites.get(siteId);
+        if (roster != null && System.currentTimeMillis() >= roster.expires) {
+            sites.remove(siteId, roster);
+            roster = null;
+        }
+        if (roster == null) {
+            if (sites.size() >= maxSites) {
+                log.debug("{} site rosters, clearing them", maxSites);
+                sites.keySet().forEach(this::invalidate);
+            }
+            // An invalidation detaches the roster, so an index of the old membership can't be kept.
+            roster = sites.computeIfAbsent(siteId, Roster::new);
+        }
+        return roster.getIndex();
+    }
+
+    private void invalidate(String siteId) {
+
+        if (sites.remove(siteId) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    /** The index of the members of the site, with their users looked up in one call */
+    private Index build(String siteId) throws IdUnusedException {
+
+        Site site = siteService.getSite(siteId);
+        List<String> userIds = new ArrayList<>();
+        for (Member member : site.getMembers()) {
+            userIds.add(member.getUserId());
+        }
+
+        List<Entry> entries = new ArrayList<>(userIds.size());
+        for (User user : userDirectoryService.getUsers(userIds)) {
+            entries.add(new Entry(user.getId(), user.getDisplayName(), user.getDisplayId(), user.getEid()));
+        }
+        log.debug("Indexed {} of the {} members of {}", entries.size(), userIds.size(), siteId);
+        return new Index(entries);
+    }
+
+    /** A member of a site */
+    @Getter
+    public static class Entry {
+
+        private final String userId;
+        private final String displayName;
+        private final String displayId;
+        private final String eid;
+
+        Entry(String userId, String displayName, String displayId, String eid) {
+            this.userId = userId;
+            this.displayName = StringUtils.defaultString(displayName);
+            this.displayId = StringUtils.defaultString(displayId);
+            this.eid = StringUtils.defaultString(eid);
+        }
+
+        /** How the member is listed: display name (display id) */
+        public String getTitle() {
+            return displayName + " (" + displayId + ")";
+        }
+
+        private Set<String> getKeys() {
+
+            Set<String> keys = new HashSet<>();
+            for (String word : StringUtils.split(displayName.toLowerCase(Locale.ROOT))) {
+                keys.add(word);
+            }
+            keys.add(displayId.toLowerCase(Locale.ROOT));
+            keys.add(eid.toLowerCase(Locale.ROOT));
+            keys.remove("");
+            return keys;
+        }
+    }
+
+    /** A page of members, and the number of members matching */
+    @Getter
+    public static class Result {
+
+        private final List<Entry> entries;
+        private final int total;
+
+        Result(List<Entry> entries, int total) {
+            this.entries = entries;
+            this.total = total;
+        }
+    }
+
+    /** The roster of a site, indexed on first use */
+    private class Roster {
+
+        private final String siteId;
+        private final long expires = System.currentTimeMillis() + ttl;
+        private Index index;
+
+        Roster(String siteId) {
+            this.siteId = siteId;
+        }
+
+        synchronized Index getIndex() throws IdUnusedException {
+
+            if (index == null) {
+                builds.incrementAndGet();
+                index = build(siteId);
+            } else {
+                hits.incrementAndGet();
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The members sorted by title, and the sorted keys along with the member
+     * each belongs to: the members matching a prefix are those of the range
+     * of keys starting with it.
+     */
+    private static class Index {
+
+        final Entry[] entries;
+        final Map<String, Integer> byUserId = new HashMap<>();
+        final String[] keys;
+        final int[] owners;
+
+        Index(List<Entry> members) {
+
+            entries = members.toArray(new Entry[0]);
+            Arrays.sort(entries, Comparator.comparing(Entry::getTitle, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(Entry::getUserId));
+
+            List<SimpleImmutableEntry<String, Integer>> pairs = new ArrayList<>();
+            for (int i = 0; i < entries.length; i++) {
+                byUserId.put(entries[i].getUserId(), i);
+                for (String key : entries[i].getKeys()) {
+                    pairs.add(new SimpleImmutableEntry<>(key, i));
+                }
+            }
+            pairs.sort(Map.Entry.comparingByKey());
+
+            keys = new String[pairs.size()];
+            owners = new int[pairs.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = pairs.get(i).getKey();
+                owners[i] = pairs.get(i).getValue();
+            }
+        }
+
+        /** The members with a key starting with the prefix */
+        BitSet match(String prefix) {
+
+            BitSet matches = new BitSet(entries.length);
+            int i = Arrays.binarySearch(keys, prefix);
+            if (i < 0) {
+                i = -i - 1;
+            } else {
+                // The first of the equal keys
+                while (i > 0 && keys[i - 1].equals(prefix)) {
+                    i--;
+                }
+            }
+            for (; i < keys.length && keys[i].startsWith(prefix); i++) {
+                matches.set(owners[i]);
+            }
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.bbb.api.BBBAPI;
+import org.sakaiproject.bbb.api.BBBException;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The BBB servers meetings can be placed on, configured with the
+ * bbb.servers.url and bbb.servers.salt lists. Without them the pool is the
+ * single bbb.url server. New meetings go to the server with the fewest live
+ * participants, as reported by getMeetings.
+ */
+@Slf4j
+public class BBBServerPool {
+
+    @Resource private BBBAPI api;
+    @Resource private ServerConfigurationService config;
+    @Resource private BBBMetrics metrics;
+
+    /** Time (ms) the load of a server is reused for placing meetings */
+    private long loadCacheTtl = 5000;
+
+    /** Servers keyed by url, the first one being the default */
+    private Map<String, Server> servers = Collections.emptyMap();
+
+    public void init() {
+
+        loadCacheTtl = (long) config.getInt(BBBMeetingManager.CFG_GETMEETINGS_CACHETTL, (int) loadCacheTtl);
+
+        Map<String, Server> pool = new LinkedHashMap<>();
+        String[] urls = config.getStrings(BBBMeetingManager.CFG_SERVERS_URL);
+        String[] salts = config.getStrings(BBBMeetingManager.CFG_SERVERS_SALT);
+        if (urls != null) {
+            for (int i = 0; i < urls.length; i++) {
+                String salt = salts != null && i < salts.length ? salts[i] : null;
+                if (StringUtils.isBlank(urls[i]) || StringUtils.isBlank(salt)) {
+                    log.warn("Ignoring BigBlueButton server {} of the pool, both {}.{} and {}.{} must be set",
+                        i + 1, BBBMeetingManager.CFG_SERVERS_URL, i + 1, BBBMeetingManager.CFG_SERVERS_SALT, i + 1);
+                    continue;
+                }
+                String url = BaseBBBAPI.cleanUrl(urls[i].trim());
+                pool.put(url, new Server(url, api.forServer(url, salt.trim())));
+            }
+        }
+        if (pool.isEmpty()) {
+            String url = BaseBBBAPI.cleanUrl(api.getBaseUrl());
+            pool.put(url, new Server(url, api));
+        }
+        servers = pool;
+        log.info("BigBlueButton server pool: {}", servers.keySet());
+        metrics.register("servers", this::getStats);
+    }
+
+    /** Whether the url is one of the servers of the pool */
+    public boolean contains(String url) {
+        return url != null && servers.containsKey(BaseBBBAPI.cleanUrl(url));
+    }
+
+    /** The API of the given server, or of the default one when it is not part of the pool */
+    public BBBAPI getApi(String url) {
+
+        Server server = url != null ? servers.get(BaseBBBAPI.cleanUrl(url)) : null;
+        return server != null ? server.api : getDefault().api;
+    }
+
+    /** The url of the given server, or of the default one when it is not part of the pool */
+    public String getUrl(String url) {
+        return contains(url) ? BaseBBBAPI.cleanUrl(url) : getDefault().url;
+    }
+
+    public boolean hasSingleServer() {
+        return servers.size() == 1;
+    }
+
+    public List<String> getUrls() {
+        return new ArrayList<>(servers.keySet());
+    }
+
+    /**
+     * The server a new meeting should be placed on: the one with the fewest
+     * live participants. Unreachable servers are only picked when no server
+     * can be reached.
+     */
+    public String selectServer() {
+
+        if (servers.size() == 1) {
+            return getDefault().url;
+        }
+
+        Server selected = null;
+        long selectedLoad = Long.MAX_VALUE;
+        for (Server server : servers.values()) {
+            long load = server.getLoad();
+            if (selected == null || load < selectedLoad) {
+                selected = server;
+                selectedLoad = load;
+            }
+        }
+        // Account for the new meeting until the next getMeetings, so a burst of creates is spread too.
+        selected.placed.incrementAndGet();
+        log.debug("Placing meeting on {} (load {})", selected.url, selectedLoad);
+        return selected.url;
+    }
+
+    /** Live participants per server, as of the last load check */
+    public Map<String, Long> getLoads() {
+
+        Map<String, Long> loads = new LinkedHashMap<>();
+        servers.values().forEach(s -> loads.put(s.url, s.participants));
+        return loads;
+    }
+
+    /** Circuit breaker and bulkhead statistics of every server */
+    public Map<String, Long> getStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        servers.values().forEach(s -> stats.putAll(s.api.getCallStats()));
+        return stats;
+    }
+
+    private Server getDefault() {
+        return servers.values().iterator().next();
+    }
+
+    private class Server {
+
+        final String url;
+        final BBBAPI api;
+        /** Meetings placed since the last load check */
+        final AtomicLong placed = new AtomicLong();
+        volatile long participants = -1;
+        volatile long expires;
+
+        Server(String url, BBBAPI api) {
+            this.url = url;
+            this.api = api;
+        }
+
+        synchronized long getLoad() {
+
+            long now = System.currentTimeMillis();
+            if (now >= expires) {
+                try {
+                    participants = countParticipants(api.getMeetings());
+                } catch (BBBException | RuntimeException e) {
+                    log.warn("Unable to get the load of BigBlueButton server {}: {}", url, e.getMessage());
+                    participants = -1;
+                }
+                placed.set(0);
+                expires = now + loadCacheTtl;
+            }
+            return participants < 0 ? Long.MAX_VALUE : participants + placed.get();
+        }
+
+        private long countParticipants(Map<String, Object> response) {
+
+            long count = 0;
+            Object meetings = response.get("meetings");
+            if (meetings instanceof List) {
+                for (Map<String, Object> meeting : (List<Map<String, Object>>) meetings) {
+                    try {
+                        count += Long.parseLong(String.valueOf(meeting.get("participantCount")));
+                    } catch (NumberFormatException e) {
+                        // Not reported by this BBB version, count the meeting as a single participant.
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
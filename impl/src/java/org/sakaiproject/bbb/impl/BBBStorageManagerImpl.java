@@ -16,69 +16,294 @@
 
 package org.sakaiproject.bbb.impl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import javax.annotation.Resource;
 
+import org.apache.commons.lang3.StringUtils;
+
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import org.hibernate.Criteria;
+import org.hibernate.Cache;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.TransientObjectException;
-import org.hibernate.criterion.Restrictions;
+import org.hibernate.jpa.QueryHints;
+import org.hibernate.query.Query;
 
+import org.sakaiproject.bbb.api.BBBMeetingManager;
 import org.sakaiproject.bbb.api.BBBStorageManager;
+import org.sakaiproject.bbb.api.Participant;
 import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.bbb.api.storage.BBBMeetingQuery;
 import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.event.api.NotificationService;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Meetings, their participants and properties are kept in the Hibernate second
+ * level cache, as well as the site meetings queries. Hibernate keeps the cache
+ * of this node up to date, the other nodes of the cluster are told to evict a
+ * meeting, and the site meetings queries of its site, through an event once
+ * the change is committed.
+ */
 @Slf4j
-public class BBBStorageManagerImpl implements BBBStorageManager {
+public class BBBStorageManagerImpl implements BBBStorageManager, Observer {
 
+    /** Query cache regions of the site meetings queries, the site ids are spread over them */
+    private static final String SITE_MEETINGS_REGION = "org.sakaiproject.bbb.api.storage.BBBMeeting.siteMeetings";
+    private static final int SITE_MEETINGS_REGIONS = 16;
+
+    private static final Set<String> SORTS = new HashSet<>(Arrays.asList(
+        BBBMeetingQuery.SORT_NAME, BBBMeetingQuery.SORT_STARTDATE, BBBMeetingQuery.SORT_ENDDATE));
+
+    @Resource private EventTrackingService eventTrackingService;
     @Resource private ServerConfigurationService serverConfigurationService;
+    @Resource private BBBMetrics metrics;
     @Resource(name = "org.sakaiproject.springframework.orm.hibernate.GlobalSessionFactory")
     private SessionFactory sessionFactory;
 
+    public void init() {
+        eventTrackingService.addObserver(this);
+    }
+
+    public void destroy() {
+        eventTrackingService.deleteObserver(this);
+    }
+
     @Transactional
     public boolean storeMeeting(BBBMeeting meeting) {
 
-        Session session = sessionFactory.getCurrentSession();
-        BBBMeeting mergedMeeting = null;
-        try {
-            mergedMeeting = (BBBMeeting) session.merge(meeting);
-        } catch (TransientObjectException toe) {
-            session.persist(meeting);
-        }
-        return true;
+        return timed("storeMeeting", () -> {
+            Session session = sessionFactory.getCurrentSession();
+            try {
+                session.merge(meeting);
+            } catch (TransientObjectException toe) {
+                session.persist(meeting);
+            }
+            evictOnCommit(meeting.getId(), meeting.getSiteId());
+            return true;
+        });
     }
 
     @Transactional
     public boolean updateMeeting(BBBMeeting meeting, boolean updateParticipants) {
 
-        sessionFactory.getCurrentSession().save(meeting);
-        return true;
+        return timed("updateMeeting", () -> {
+            sessionFactory.getCurrentSession().save(meeting);
+            evictOnCommit(meeting.getId(), meeting.getSiteId());
+            return true;
+        });
     }
 
     @Transactional
     public List<BBBMeeting> getSiteMeetings(String siteId, boolean includeDeleted) {
+        return timed("getSiteMeetings", () -> loadSiteMeetings(siteId, includeDeleted));
+    }
+
+    /**
+     * Fetch the meetings of a site with their participants and properties, in
+     * two queries whatever the number of meetings, rather than loading both
+     * collections lazily for each meeting. The two collections are fetched by
+     * separate queries, joining both at once would multiply the rows.
+     */
+    private List<BBBMeeting> loadSiteMeetings(String siteId, boolean includeDeleted) {
 
         Session session = sessionFactory.getCurrentSession();
 
-        Criteria c = session.createCriteria(BBBMeeting.class)
-            .add(Restrictions.eq("siteId", siteId));
+        String where = " where m.siteId = :siteId" + (includeDeleted ? "" : " and m.deleted <> :deleted");
+
+        Query<BBBMeeting> query = session.createQuery("select distinct m from BBBMeeting m left join fetch m.participants" + where, BBBMeeting.class);
+        List<BBBMeeting> meetings = siteMeetingsQuery(query, siteId, includeDeleted).list();
+
+        if (!meetings.isEmpty()) {
+            // Same meetings, already in the session, this only initializes their properties
+            query = session.createQuery("select distinct m from BBBMeeting m left join fetch m.properties" + where, BBBMeeting.class);
+            siteMeetingsQuery(query, siteId, includeDeleted).list();
+        }
+
+        return meetings;
+    }
+
+    @Transactional
+    public List<BBBMeeting> getSiteMeetingSummaries(BBBMeetingQuery query) {
+        return timed("getSiteMeetingSummaries", () -> loadSiteMeetingSummaries(query));
+    }
+
+    private List<BBBMeeting> loadSiteMeetingSummaries(BBBMeetingQuery query) {
 
+        Session session = sessionFactory.getCurrentSession();
+
+        String sortBy = SORTS.contains(query.getSortBy()) ? query.getSortBy() : BBBMeetingQuery.SORT_NAME;
+        Query<Object[]> meetingsQuery = session.createQuery("select m.id, m.name, m.ownerId, m.startDate, m.endDate, m.recording,"
+                + " m.waitForModerator, m.multipleSessionsAllowed, m.groupSessions"
+                + " from BBBMeeting m" + summariesWhere(query)
+                + " order by m." + sortBy + (query.isAscending() ? " asc" : " desc") + ", m.id", Object[].class);
+        summariesParameters(meetingsQuery, query)
+            .setFirstResult(query.getFirst());
+        if (query.getMax() > 0) {
+            meetingsQuery.setMaxResults(query.getMax());
+        }
+
+        Map<String, BBBMeeting> meetings = new LinkedHashMap<>();
+        for (Object[] row : meetingsQuery.list()) {
+            BBBMeeting meeting = new BBBMeeting();
+            meeting.setId((String) row[0]);
+            meeting.setName((String) row[1]);
+            meeting.setOwnerId((String) row[2]);
+            meeting.setStartDate((Date) row[3]);
+            meeting.setEndDate((Date) row[4]);
+            meeting.setRecording((Boolean) row[5]);
+            meeting.setWaitForModerator((Boolean) row[6]);
+            meeting.setMultipleSessionsAllowed((Boolean) row[7]);
+            meeting.setGroupSessions((Boolean) row[8]);
+            meeting.setSiteId(query.getSiteId());
+            meeting.setParticipants(new ArrayList<>());
+            meetings.put(meeting.getId(), meeting);
+        }
+
+        if (!meetings.isEmpty()) {
+            // The participants of the page only, or of the whole site when there is no page.
+            Query<Object[]> participantsQuery;
+            if (query.getMax() > 0) {
+                participantsQuery = session.createQuery("select p.meeting.id, p.selectionType, p.selectionId, p.role"
+                        + " from BBBMeetingParticipant p where p.meeting.id in (:meetingIds)", Object[].class)
+                    .setParameterList("meetingIds", meetings.keySet());
+            } else {
+                participantsQuery = session.createQuery("select p.meeting.id, p.selectionType, p.selectionId, p.role"
+                        + " from BBBMeetingParticipant p where p.meeting.siteId = :siteId and p.meeting.deleted <> :deleted", Object[].class)
+                    .setParameter("siteId", query.getSiteId())
+                    .setParameter("deleted", true);
+            }
+            List<Object[]> rows = participantsQuery
+                .setCacheable(true)
+                .setCacheRegion(siteMeetingsRegion(query.getSiteId()))
+                .list();
+            for (Object[] row : rows) {
+                BBBMeeting meeting = meetings.get((String) row[0]);
+                if (meeting != null) {
+                    BBBMeetingParticipant participant = new BBBMeetingParticipant();
+                    participant.setSelectionType((String) row[1]);
+                    participant.setSelectionId((String) row[2]);
+                    participant.setRole((String) row[3]);
+                    meeting.getParticipants().add(participant);
+                }
+            }
+        }
+
+        return new ArrayList<>(meetings.values());
+    }
+
+    @Transactional
+    public long countSiteMeetings(BBBMeetingQuery query) {
+
+        return timed("countSiteMeetings", () -> {
+            Query<Long> countQuery = sessionFactory.getCurrentSession()
+                .createQuery("select count(m) from BBBMeeting m" + summariesWhere(query), Long.class);
+            return summariesParameters(countQuery, query).uniqueResult();
+        });
+    }
+
+    private String summariesWhere(BBBMeetingQuery query) {
+
+        StringBuilder where = new StringBuilder(" where m.siteId = :siteId and m.deleted <> :deleted");
+        if (StringUtils.isNotBlank(query.getFilter())) {
+            where.append(" and lower(m.name) like :filter escape '!'");
+        }
+        if (query.getUserId() != null) {
+            List<String> visible = new ArrayList<>();
+            if (query.isParticipant()) {
+                List<String> selections = new ArrayList<>();
+                selections.add("p.selectionType = :all");
+                selections.add("(p.selectionType = :user and p.selectionId = :userId)");
+                if (query.getUserRole() != null) {
+                    selections.add("(p.selectionType = :role and p.selectionId = :userRole)");
+                }
+                if (!query.getUserGroupIds().isEmpty()) {
+                    selections.add("(p.selectionType = :group and p.selectionId in (:userGroupIds))");
+                }
+                visible.add("exists (select p.id from BBBMeetingParticipant p where p.meeting = m and ("
+                    + String.join(" or ", selections) + "))");
+            }
+            if (query.isOwner()) {
+                visible.add("m.ownerId = :userId");
+            }
+            where.append(visible.isEmpty() ? " and 1 = 0" : " and (" + String.join(" or ", visible) + ")");
+        }
+        return where.toString();
+    }
+
+    private <T> Query<T> summariesParameters(Query<T> hqlQuery, BBBMeetingQuery query) {
+
+        hqlQuery.setParameter("siteId", query.getSiteId())
+            .setParameter("deleted", true)
+            .setCacheable(true)
+            .setCacheRegion(siteMeetingsRegion(query.getSiteId()));
+        if (StringUtils.isNotBlank(query.getFilter())) {
+            hqlQuery.setParameter("filter", "%" + escapeLike(query.getFilter().trim().toLowerCase()) + "%");
+        }
+        if (query.getUserId() != null && (query.isParticipant() || query.isOwner())) {
+            hqlQuery.setParameter("userId", query.getUserId());
+        }
+        if (query.getUserId() != null && query.isParticipant()) {
+            hqlQuery.setParameter("all", Participant.SELECTION_ALL)
+                .setParameter("user", Participant.SELECTION_USER);
+            if (query.getUserRole() != null) {
+                hqlQuery.setParameter("role", Participant.SELECTION_ROLE)
+                    .setParameter("userRole", query.getUserRole());
+            }
+            if (!query.getUserGroupIds().isEmpty()) {
+                hqlQuery.setParameter("group", Participant.SELECTION_GROUP)
+                    .setParameterList("userGroupIds", query.getUserGroupIds());
+            }
+        }
+        return hqlQuery;
+    }
+
+    /** Match the wildcards of a like pattern literally */
+    private static String escapeLike(String text) {
+        return text.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private Query<BBBMeeting> siteMeetingsQuery(Query<BBBMeeting> query, String siteId, boolean includeDeleted) {
+
+        query.setParameter("siteId", siteId)
+            .setHint(QueryHints.HINT_PASS_DISTINCT_THROUGH, false)
+            .setCacheable(true)
+            .setCacheRegion(siteMeetingsRegion(siteId));
         if (!includeDeleted) {
-            c.add(Restrictions.ne("deleted", true));
+            query.setParameter("deleted", true);
         }
+        return query;
+    }
 
-        return (List<BBBMeeting>) c.list();
+    /**
+     * The query cache region of the meetings of a site. A change to a meeting
+     * only evicts the queries of the sites sharing its region.
+     */
+    private static String siteMeetingsRegion(String siteId) {
+        return SITE_MEETINGS_REGION + "." + Math.floorMod(siteId.hashCode(), SITE_MEETINGS_REGIONS);
     }
 
     @Transactional
     public BBBMeeting getMeeting(String meetingId) {
-        return (BBBMeeting) sessionFactory.getCurrentSession().get(BBBMeeting.class, meetingId);
+        return timed("getMeeting", () -> sessionFactory.getCurrentSession().get(BBBMeeting.class, meetingId));
     }
 
     @Transactional
@@ -89,40 +314,139 @@ public class BBBStorageManagerImpl implements BBBStorageManager {
     @Transactional
     public boolean deleteMeeting(String meetingId, boolean fullDelete) {
 
-        Session session = sessionFactory.getCurrentSession();
+        return timed("deleteMeeting", () -> {
+            Session session = sessionFactory.getCurrentSession();
 
-        if (fullDelete) {
-            session.delete(session.get(BBBMeeting.class, meetingId));
-        } else {
-            BBBMeeting meeting = (BBBMeeting) session.get(BBBMeeting.class, meetingId);
-            meeting.setDeleted(true);
-            session.merge(meeting);
-        }
+            BBBMeeting meeting = session.get(BBBMeeting.class, meetingId);
+            if (fullDelete) {
+                session.delete(meeting);
+            } else {
+                meeting.setDeleted(true);
+                session.merge(meeting);
+            }
+            evictOnCommit(meetingId, meeting.getSiteId());
 
-        return true;
+            return true;
+        });
     }
 
     @Transactional
     public String getMeetingHost(String meetingId) {
 
-        BBBMeeting meeting = (BBBMeeting) sessionFactory.getCurrentSession().get(BBBMeeting.class, meetingId);
-        return meeting.getHostUrl();
+        return timed("getMeetingHost", () -> {
+            BBBMeeting meeting = (BBBMeeting) sessionFactory.getCurrentSession().get(BBBMeeting.class, meetingId);
+            return meeting != null ? meeting.getHostUrl() : null;
+        });
     }
 
     @Transactional
     public List<BBBMeeting> getAllMeetings() {
-        return (List<BBBMeeting>) sessionFactory.getCurrentSession().createCriteria(BBBMeeting.class).list();
+        return timed("getAllMeetings", () -> (List<BBBMeeting>) sessionFactory.getCurrentSession().createCriteria(BBBMeeting.class).list());
     }
 
     @Transactional
     public boolean setMeetingHost(String meetingId, String hostUrl) {
 
-        Session session = sessionFactory.getCurrentSession();
+        return timed("setMeetingHost", () -> {
+            Session session = sessionFactory.getCurrentSession();
+
+            BBBMeeting meeting = (BBBMeeting) session.get(BBBMeeting.class, meetingId);
+            meeting.setHostUrl(hostUrl);
+            session.merge(meeting);
+            // The site meetings queries don't hold the host, only the meeting needs evicting.
+            evictOnCommit(meetingId, null);
+
+            return true;
+        });
+    }
+
+    @Transactional
+    public boolean replaceMeetingHost(String meetingId, String expectedHostUrl, String hostUrl) {
+
+        return timed("replaceMeetingHost", () -> {
+            String hql = "update BBBMeeting set hostUrl = :hostUrl where id = :id and "
+                + (StringUtils.isBlank(expectedHostUrl) ? "(hostUrl is null or hostUrl = '')" : "hostUrl = :expectedHostUrl");
+            Query<?> query = sessionFactory.getCurrentSession().createQuery(hql)
+                .setParameter("hostUrl", hostUrl)
+                .setParameter("id", meetingId);
+            if (StringUtils.isNotBlank(expectedHostUrl)) {
+                query.setParameter("expectedHostUrl", expectedHostUrl);
+            }
+            if (query.executeUpdate() == 0) {
+                return false;
+            }
+            evictOnCommit(meetingId, null);
+            return true;
+        });
+    }
+
+    /** Time a storage operation, see {@link BBBMetrics#STORAGE_OPERATION_SECONDS} */
+    private <T> T timed(String operation, Supplier<T> task) {
+        return metrics.time(BBBMetrics.STORAGE_OPERATION_SECONDS, operation, task);
+    }
 
-        BBBMeeting meeting = (BBBMeeting) session.get(BBBMeeting.class, meetingId);
-        meeting.setHostUrl(hostUrl);
-        session.merge(meeting);
+    /** Evict the meetings changed on other nodes */
+    public void update(Observable observable, Object arg) {
+
+        if (arg instanceof Event && BBBMeetingManager.EVENT_MEETING_EVICT.equals(((Event) arg).getEvent())) {
+            evict(((Event) arg).getResource(), ((Event) arg).getContext());
+        }
+    }
+
+    /**
+     * Tell every node to evict the meeting, and the site meetings queries of
+     * its site unless the site is null, once the transaction is committed so
+     * a node can't reload the meeting before it changed.
+     */
+    private void evictOnCommit(String meetingId, String siteId) {
+
+        if (meetingId == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            postEvict(meetingId, siteId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                postEvict(meetingId, siteId);
+            }
+        });
+    }
 
-        return true;
+    private void postEvict(String meetingId, String siteId) {
+        eventTrackingService.post(eventTrackingService.newEvent(BBBMeetingManager.EVENT_MEETING_EVICT, meetingId, siteId, false, NotificationService.NOTI_NONE));
+    }
+
+    private void evict(String meetingId, String siteId) {
+
+        log.debug("Evicting meeting {} of site {} from the cache", meetingId, siteId);
+
+        Cache cache = sessionFactory.getCache();
+        cache.evictEntityData(BBBMeeting.class, meetingId);
+        cache.evictCollectionData(BBBMeeting.class.getName() + ".participants", meetingId);
+        cache.evictCollectionData(BBBMeeting.class.getName() + ".properties", meetingId);
+        // Participants removed from the meeting are no longer reachable from its collection, only the
+        // ones still in it may be stale.
+        for (Long participantId : getParticipantIds(meetingId)) {
+            cache.evictEntityData(BBBMeetingParticipant.class, participantId);
+        }
+        if (siteId != null) {
+            cache.evictQueryRegion(siteMeetingsRegion(siteId));
+        }
+    }
+
+    private List<Long> getParticipantIds(String meetingId) {
+
+        try (Session session = sessionFactory.openSession()) {
+            return session.createQuery("select p.id from BBBMeetingParticipant p where p.meeting.id = :meetingId", Long.class)
+                .setParameter("meetingId", meetingId)
+                .list();
+        } catch (Exception e) {
+            log.warn("Unable to list the participants of meeting {}, evicting all participants: {}", meetingId, e.getMessage());
+            sessionFactory.getCache().evictEntityData(BBBMeetingParticipant.class);
+            return new ArrayList<>();
+        }
     }
 }
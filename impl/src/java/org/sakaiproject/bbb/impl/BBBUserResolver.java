@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.Resource;
+
+import org.sakaiproject.bbb.api.Participant;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.api.UserDirectoryService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resolves the users of meetings. Users are fetched in bulk, and the users,
+ * site, group and role memberships looked up are remembered until the end of
+ * the current request, so listing many meetings of a site resolves each of
+ * them once.
+ */
+@Slf4j
+public class BBBUserResolver {
+
+    @Resource private BBBRequestMemo requestMemo;
+    @Resource private UserDirectoryService userDirectoryService;
+
+    /** The user, or null if there is no such user */
+    public User getUser(String userId) {
+
+        List<User> users = getUsers(Collections.singleton(userId));
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    /** The users found, in the order of their ids */
+    public List<User> getUsers(Collection<String> userIds) {
+
+        Map<String, User> users = memo("users", HashMap::new);
+
+        List<String> missing = new ArrayList<>();
+        for (String userId : userIds) {
+            if (!users.containsKey(userId)) {
+                missing.add(userId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (String userId : missing) {
+                // Remembered as not found unless the lookup finds it.
+                users.put(userId, null);
+            }
+            for (User user : userDirectoryService.getUsers(missing)) {
+                users.put(user.getId(), user);
+            }
+            if (log.isDebugEnabled()) {
+                missing.stream().filter(id -> users.get(id) == null).forEach(id -> log.debug("No user for id {}", id));
+            }
+        }
+
+        List<User> found = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            User user = users.get(userId);
+            if (user != null) {
+                found.add(user);
+            }
+        }
+        return found;
+    }
+
+    /** The users selected by the participants of the meeting, each once */
+    public List<User> getMeetingUsers(BBBMeeting meeting, Site site) {
+        return getUsers(getMeetingUserIds(meeting, site));
+    }
+
+    /** Ids of the users selected by the participants of the meeting */
+    public Set<String> getMeetingUserIds(BBBMeeting meeting, Site site) {
+
+        Set<String> userIds = new LinkedHashSet<>();
+        for (BBBMeetingParticipant p : meeting.getParticipants()) {
+            if (Participant.SELECTION_USER.equals(p.getSelectionType())) {
+                userIds.add(p.getSelectionId());
+            } else if (site != null) {
+                userIds.addAll(getSelectedUserIds(site, p));
+            }
+        }
+        return userIds;
+    }
+
+    private Set<String> getSelectedUserIds(Site site, BBBMeetingParticipant p) {
+
+        switch (p.getSelectionType()) {
+            case Participant.SELECTION_ALL:
+                return memo("site." + site.getId(), site::getUsers);
+            case Participant.SELECTION_GROUP:
+                return memo("group." + p.getSelectionId(), () -> {
+                    Group group = site.getGroup(p.getSelectionId());
+                    if (group == null) {
+                        log.warn("The group {} was null. Maybe it's been deleted.", p.getSelectionId());
+                        return Collections.<String>emptySet();
+                    }
+                    return group.getUsers();
+                });
+            case Participant.SELECTION_ROLE:
+                return memo("role." + site.getId() + "." + p.getSelectionId(), () -> site.getUsersHasRole(p.getSelectionId()));
+            default:
+                return Collections.emptySet();
+        }
+    }
+
+    private <V> V memo(String key, Supplier<V> loader) {
+        return requestMemo.get("resolver." + key, loader);
+    }
+}
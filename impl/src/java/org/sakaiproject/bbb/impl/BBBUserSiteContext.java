@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.function.Supplier;
+
+import org.sakaiproject.bbb.api.BBBPermissions;
+
+import lombok.Getter;
+
+/**
+ * What a user may do in a site: the meetings they participate in, through
+ * their role and groups, and the functions they are granted. Each of them is
+ * looked up once, on first use, and reused for every meeting of the site
+ * evaluated in the same request. Not thread safe, a context is only used by
+ * the thread serving the request.
+ */
+public class BBBUserSiteContext {
+
+    @Getter private final String userId;
+    @Getter private final String siteId;
+
+    private final Supplier<BBBMembershipEvaluator> evaluatorLoader;
+    private final Supplier<BBBPermissions> permissionsLoader;
+
+    private BBBMembershipEvaluator evaluator;
+    private BBBPermissions permissions;
+
+    /**
+     * @param evaluatorLoader loads the role and groups of the user in the site
+     * @param permissionsLoader loads the functions granted to the user in the site
+     */
+    public BBBUserSiteContext(String userId, String siteId, Supplier<BBBMembershipEvaluator> evaluatorLoader,
+            Supplier<BBBPermissions> permissionsLoader) {
+
+        this.userId = userId;
+        this.siteId = siteId;
+        this.evaluatorLoader = evaluatorLoader;
+        this.permissionsLoader = permissionsLoader;
+    }
+
+    public BBBMembershipEvaluator getMembershipEvaluator() {
+
+        if (evaluator == null) {
+            evaluator = evaluatorLoader.get();
+        }
+        return evaluator;
+    }
+
+    public BBBPermissions getPermissions() {
+
+        if (permissions == null) {
+            permissions = permissionsLoader.get();
+        }
+        return permissions;
+    }
+
+    /** Whether the user is granted the function in the site */
+    public boolean isAllowed(String function) {
+        return getPermissions().isAllowed(function);
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Waiting room for meetings that require a moderator. A single watch per BBB
+ * meeting polls getMeetingInfo on behalf of every user waiting for it, and
+ * completes their futures once a moderator has joined. A watch only exists
+ * while somebody is waiting, so the load on the BBB server does not depend on
+ * the number of users in the waiting room.
+ */
+@Slf4j
+public class BBBWaitingRoom {
+
+    @Resource private BBBAPIWrapper bbbApiWrapper;
+    @Resource private ServerConfigurationService config;
+
+    private long pollInterval = 5000;
+
+    private ScheduledExecutorService scheduler;
+
+    /** Active watches, keyed by BBB meeting id */
+    private final ConcurrentMap<String, Watch> watches = new ConcurrentHashMap<>();
+
+    public void init() {
+
+        pollInterval = (long) config.getInt(BBBMeetingManager.CFG_WAITINGROOM_POLLINTERVAL, (int) pollInterval);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bbb-waiting-room");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void destroy() {
+
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        watches.values().forEach(w -> w.waiters.forEach(f -> f.cancel(false)));
+        watches.clear();
+    }
+
+    /**
+     * Wait for a moderator to join the given BBB meeting. The future completes
+     * with the meeting info once the moderator count is above zero. Callers
+     * that give up should cancel the future, so the meeting is not polled for
+     * nobody.
+     */
+    public CompletableFuture<Map<String, Object>> waitForModerator(String meetingID, String password) {
+
+        CompletableFuture<Map<String, Object>> waiter = new CompletableFuture<>();
+        watches.compute(meetingID, (id, watch) -> {
+            if (watch == null) {
+                log.debug("Watching {} for a moderator", meetingID);
+                watch = new Watch(meetingID, password);
+                watch.task = scheduler.scheduleWithFixedDelay(watch, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+            }
+            watch.waiters.add(waiter);
+            return watch;
+        });
+        return waiter;
+    }
+
+    /** Number of users currently waiting, across all meetings */
+    public int getWaiting() {
+        return watches.values().stream().mapToInt(w -> w.waiters.size()).sum();
+    }
+
+    private class Watch implements Runnable {
+
+        final String meetingID;
+        final String password;
+        final Set<CompletableFuture<Map<String, Object>>> waiters = ConcurrentHashMap.newKeySet();
+        ScheduledFuture<?> task;
+
+        Watch(String meetingID, String password) {
+            this.meetingID = meetingID;
+            this.password = password;
+        }
+
+        public void run() {
+
+            // Drop the users that left; stop watching when nobody is left.
+            Watch current = watches.computeIfPresent(meetingID, (id, watch) -> {
+                if (watch == this) {
+                    waiters.removeIf(CompletableFuture::isDone);
+                    if (waiters.isEmpty()) {
+                        return null;
+                    }
+                }
+                return watch;
+            });
+            if (current != this) {
+                log.debug("Nobody waiting on {} any more", meetingID);
+                task.cancel(false);
+                return;
+            }
+
+            Map<String, Object> meetingInfo;
+            try {
+                meetingInfo = bbbApiWrapper.getMeetingInfo(meetingID, password);
+            } catch (Exception e) {
+                log.debug("Failed to get meeting info of {}: {}", meetingID, e.getMessage());
+                return;
+            }
+            if (meetingInfo == null || !hasModerator(meetingInfo)) {
+                return;
+            }
+
+            // Once removed, no waiter can be added to this watch any more.
+            watches.remove(meetingID, this);
+            task.cancel(false);
+            log.debug("Moderator joined {}, releasing {} waiting users", meetingID, waiters.size());
+            waiters.forEach(f -> f.complete(meetingInfo));
+        }
+
+        private boolean hasModerator(Map<String, Object> meetingInfo) {
+
+            try {
+                return Integer.parseInt(String.valueOf(meetingInfo.get("moderatorCount"))) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -16,14 +16,9 @@
 
 package org.sakaiproject.bbb.impl;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.Arrays;
@@ -36,13 +31,16 @@ import java.util.Map.Entry;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.Date;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.text.SimpleDateFormat;
 
 import javax.annotation.Resource;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -56,12 +54,8 @@ import org.sakaiproject.content.api.ContentHostingService;
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.util.ResourceLoader;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
@@ -81,6 +75,7 @@ public class BaseBBBAPI implements BBBAPI {
     private final static String APICALL_CREATE = "create";
     private final static String APICALL_ISMEETINGRUNNING = "isMeetingRunning";
     private final static String APICALL_GETMEETINGINFO = "getMeetingInfo";
+    private final static String APICALL_GETMEETINGS = "getMeetings";
     private final static String APICALL_JOIN = "join";
     private final static String APICALL_END = "end";
     private final static String APICALL_VERSION = "";
@@ -111,9 +106,47 @@ public class BaseBBBAPI implements BBBAPI {
     @Resource private ServerConfigurationService config;
     @Resource private ContentHostingService contentHostingService;
     @Resource private SecurityService securityService;
+    @Resource private BBBHttpTransport transport;
+    @Getter(AccessLevel.NONE)
+    @Resource private BBBMetrics metrics;
+
+    /** Number of meeting ids per getRecordings call */
+    private int recordingsPageSize = 25;
+    /** Time (ms) allowed for fetching all the pages of a getRecordings request */
+    private long recordingsTimeout = 20000;
+    /** Fetches getRecordings pages concurrently */
+    @Getter(AccessLevel.NONE)
+    private ThreadPoolExecutor recordingsExecutor;
+    /** Fails calls fast while the BBB server is down */
+    @Getter(AccessLevel.NONE)
+    private BBBCircuitBreaker circuitBreaker;
+    /** Concurrent calls per API call type, shared by all the servers */
+    @Getter(AccessLevel.NONE)
+    private BBBBulkhead bulkhead;
+    /** The host of the BBB server, as the metrics label it */
+    @Getter(AccessLevel.NONE)
+    private String serverName;
 
     public void init() {
 
+        recordingsPageSize = Math.max(config.getInt(BBBMeetingManager.CFG_RECORDINGS_PAGESIZE, recordingsPageSize), 1);
+        recordingsTimeout = (long) config.getInt(BBBMeetingManager.CFG_RECORDINGS_TIMEOUT, (int) recordingsTimeout);
+        int recordingsThreads = Math.max(config.getInt(BBBMeetingManager.CFG_RECORDINGS_THREADS, 4), 1);
+        // Once every thread is busy and the queue full, pages are fetched by the requesting thread.
+        recordingsExecutor = new ThreadPoolExecutor(recordingsThreads, recordingsThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(recordingsThreads * 10), r -> {
+                Thread thread = new Thread(r, "bbb-recordings");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        recordingsExecutor.allowCoreThreadTimeOut(true);
+        metrics.register("recordings", recordingsExecutor);
+
+        int maxCalls = config.getInt(BBBMeetingManager.CFG_BULKHEAD_MAXCALLS, 50);
+        bulkhead = new BBBBulkhead(apiCall -> config.getInt(BBBMeetingManager.CFG_BULKHEAD_MAXCALLS + "." + apiCall,
+                APICALL_GETRECORDINGS.equals(apiCall) ? Math.min(maxCalls, 10) : maxCalls),
+            (long) config.getInt(BBBMeetingManager.CFG_BULKHEAD_WAITTIMEOUT, 1000));
+
         String baseUrlString = config.getString(BBBMeetingManager.CFG_URL, DEFAULT_BBB_URL);
         if (StringUtils.isBlank(baseUrlString)) {
             log.warn("No BigBlueButton server specified. The bbb.url property in sakai.properties must be set to a single url. There should be a corresponding shared secret value in the bbb.salt property.");
@@ -126,9 +159,56 @@ public class BaseBBBAPI implements BBBAPI {
             return;
         }
 
-        // Clean Url.
-        baseUrl = baseUrlString.substring(baseUrlString.length() - 1, baseUrlString.length()).equals("/") ? baseUrlString : baseUrlString + "/";
+        baseUrl = cleanUrl(baseUrlString);
         salt = saltString;
+        serverName = serverName(baseUrl);
+        circuitBreaker = newCircuitBreaker(baseUrl);
+    }
+
+    /** Same API for another BBB server, sharing the services, HTTP transport and thread pool of this one */
+    public BBBAPI forServer(String url, String salt) {
+
+        BaseBBBAPI server = new BaseBBBAPI();
+        server.config = config;
+        server.contentHostingService = contentHostingService;
+        server.securityService = securityService;
+        server.transport = transport;
+        server.metrics = metrics;
+        server.recordingsPageSize = recordingsPageSize;
+        server.recordingsTimeout = recordingsTimeout;
+        server.recordingsExecutor = recordingsExecutor;
+        server.bulkhead = bulkhead;
+        server.baseUrl = cleanUrl(url);
+        server.salt = salt;
+        server.serverName = serverName(server.baseUrl);
+        server.circuitBreaker = newCircuitBreaker(server.baseUrl);
+        return server;
+    }
+
+    private BBBCircuitBreaker newCircuitBreaker(String url) {
+
+        return new BBBCircuitBreaker(serverName(url),
+            config.getInt(BBBMeetingManager.CFG_CIRCUITBREAKER_FAILURETHRESHOLD, 5),
+            (long) config.getInt(BBBMeetingManager.CFG_CIRCUITBREAKER_OPENTIME, 30000));
+    }
+
+    /** The host and port of the url */
+    private static String serverName(String url) {
+
+        String name = URI.create(url).getAuthority();
+        return name != null ? name : url;
+    }
+
+    /** The url with a trailing slash */
+    public static String cleanUrl(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    public void destroy() {
+
+        if (recordingsExecutor != null) {
+            recordingsExecutor.shutdownNow();
+        }
     }
 
     // -----------------------------------------------------------------------
@@ -287,36 +367,92 @@ public class BaseBBBAPI implements BBBAPI {
         }
     }
 
-    /** Get recordings from BBB server */
-    public Map<String, Object> getRecordings(String meetingID) throws BBBException {
+    public Map<String, Object> getMeetings() throws BBBException {
 
-        log.debug("getRecordings({})", meetingID);
+        log.debug("getMeetings()");
 
         try {
-            // Paginate queries for fetching recordings.
-            List<String> meetingIDs = Arrays.asList(meetingID.split("\\s*,\\s*"));
-            int pages = meetingIDs.size() / 25 + 1;
-            // Fetch recordings in pages.
-            List<Object> recordings = new ArrayList<>();
-            int fromIndex, toIndex;
-            for (int page = 1; page <= pages; ++page) {
-                fromIndex = (page - 1) * 25;
-                toIndex = page * 25;
-                if (toIndex > meetingIDs.size()) {
-                    toIndex = meetingIDs.size();
+            String checksum = getCheckSumParameterForQuery(APICALL_GETMEETINGS, "");
+            Map<String, Object> response = doAPICall(APICALL_GETMEETINGS, checksum.isEmpty() ? null : checksum.substring(1));
+            // nullify password fields
+            if (response.get("meetings") instanceof List) {
+                for (Map<String, Object> meeting : (List<Map<String, Object>>) response.get("meetings")) {
+                    meeting.put("attendeePW", null);
+                    meeting.put("moderatorPW", null);
                 }
-                List<String> subMeetingIDs = meetingIDs.subList(fromIndex, toIndex);
-                recordings.addAll(getRecordings(subMeetingIDs));
             }
-            // Prepare and return response with recordings.
-            Map<String, Object> response = new HashMap<>();
-            response.put("returncode", "SUCCESS");
-            response.put("recordings", recordings);
             return response;
         } catch (BBBException e) {
-            log.error("getRecordings.Exception: MessageKey={}, Message={}", e.getMessageKey(), e.getMessage());
+            log.debug("getMeetings.Exception: MessageKey=" + e.getMessageKey() + ", Message=" + e.getMessage() );
             throw new BBBException(e.getMessageKey(), e.getMessage(), e);
+        } catch (Exception e) {
+            log.debug("Exception: Message=" + e.getMessage() );
+            throw new BBBException(BBBException.MESSAGEKEY_INTERNALERROR, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get recordings from BBB server. Meeting ids are queried in pages,
+     * fetched concurrently; a response missing the pages that failed or did
+     * not make it in time is flagged as partial.
+     */
+    public Map<String, Object> getRecordings(String meetingID) throws BBBException {
+
+        log.debug("getRecordings({})", meetingID);
+
+        // Paginate queries for fetching recordings.
+        List<String> meetingIDs = Arrays.asList(meetingID.split("\\s*,\\s*"));
+        List<List<String>> pages = new ArrayList<>();
+        for (int fromIndex = 0; fromIndex < meetingIDs.size(); fromIndex += recordingsPageSize) {
+            pages.add(meetingIDs.subList(fromIndex, Math.min(fromIndex + recordingsPageSize, meetingIDs.size())));
+        }
+
+        List<Object> recordings = new ArrayList<>();
+        int failedPages = 0;
+        BBBException failure = null;
+        if (pages.size() == 1) {
+            recordings.addAll(getRecordings(pages.get(0)));
+        } else {
+            // Fetch recordings in pages, merged back in page order.
+            long deadline = System.currentTimeMillis() + recordingsTimeout;
+            List<Future<List<Object>>> fetches = new ArrayList<>();
+            for (List<String> page : pages) {
+                fetches.add(recordingsExecutor.submit(() -> getRecordings(page)));
+            }
+            for (Future<List<Object>> fetch : fetches) {
+                try {
+                    recordings.addAll(fetch.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+                } catch (ExecutionException e) {
+                    failedPages++;
+                    failure = e.getCause() instanceof BBBException ? (BBBException) e.getCause()
+                        : new BBBException(BBBException.MESSAGEKEY_INTERNALERROR, e.getCause().getMessage(), e.getCause());
+                } catch (TimeoutException e) {
+                    failedPages++;
+                    fetch.cancel(true);
+                    failure = new BBBException(BBBException.MESSAGEKEY_UNREACHABLE, "Timed out fetching recordings", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fetches.forEach(f -> f.cancel(true));
+                    throw new BBBException(BBBException.MESSAGEKEY_INTERNALERROR, "Interrupted fetching recordings", e);
+                }
+            }
         }
+
+        if (failedPages == pages.size()) {
+            log.error("getRecordings.Exception: MessageKey={}, Message={}", failure.getMessageKey(), failure.getMessage());
+            throw new BBBException(failure.getMessageKey(), failure.getMessage(), failure);
+        }
+
+        // Prepare and return response with recordings.
+        Map<String, Object> response = new HashMap<>();
+        response.put("returncode", "SUCCESS");
+        response.put("recordings", recordings);
+        if (failedPages > 0) {
+            log.warn("getRecordings: {} of {} pages failed, last error: {}", failedPages, pages.size(), failure.getMessage());
+            response.put("partial", true);
+            response.put("failedPages", failedPages);
+        }
+        return response;
     }
 
     /** Get recordings from BBB server */
@@ -542,10 +678,67 @@ public class BaseBBBAPI implements BBBAPI {
         return doAPICall(apiCall, query, "");
     }
 
-    /** Make an API call */
+    /**
+     * Make an API call, within the bulkhead of its call type and the circuit
+     * breaker of the server. Its time is recorded by outcome: success, or the
+     * message key of the BBBException, rejections included.
+     */
     protected Map<String, Object> doAPICall(String apiCall, String query, String presentation)
             throws BBBException {
 
+        String callType = apiCall.isEmpty() ? "version" : apiCall;
+        long start = System.nanoTime();
+        String outcome = BBBMetrics.OUTCOME_ERROR;
+        try {
+            bulkhead.acquire(callType);
+            try {
+                if (circuitBreaker != null) {
+                    circuitBreaker.before();
+                }
+                Map<String, Object> response;
+                try {
+                    response = callServer(apiCall, query, presentation);
+                } catch (BBBException e) {
+                    if (circuitBreaker != null) {
+                        if (isServerFailure(e)) {
+                            circuitBreaker.onFailure();
+                        } else if (BBBException.MESSAGEKEY_OVERLOADED.equals(e.getMessageKey())) {
+                            // Busy here, the server was never asked: no verdict on it.
+                            circuitBreaker.onSkipped();
+                        } else {
+                            // The server answered, with an error of its own (notFound, ...).
+                            circuitBreaker.onSuccess();
+                        }
+                    }
+                    throw e;
+                }
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess();
+                }
+                outcome = BBBMetrics.OUTCOME_SUCCESS;
+                return response;
+            } finally {
+                bulkhead.release(callType);
+            }
+        } catch (BBBException e) {
+            outcome = StringUtils.defaultIfEmpty(e.getMessageKey(), BBBMetrics.OUTCOME_ERROR);
+            throw e;
+        } finally {
+            metrics.observe(BBBMetrics.API_CALL_SECONDS, start, StringUtils.defaultString(serverName), callType, outcome);
+        }
+    }
+
+    /** Whether the server failed the call: connect or read error, HTTP error or invalid response */
+    private boolean isServerFailure(BBBException e) {
+
+        return BBBException.MESSAGEKEY_UNREACHABLE.equals(e.getMessageKey())
+            || BBBException.MESSAGEKEY_HTTPERROR.equals(e.getMessageKey())
+            || BBBException.MESSAGEKEY_INVALIDRESPONSE.equals(e.getMessageKey());
+    }
+
+    private Map<String, Object> callServer(String apiCall, String query, String presentation)
+            throws BBBException {
+
         StringBuilder urlStr = new StringBuilder(baseUrl);
         if (urlStr.toString().endsWith("/api")){
             urlStr.append("/");
@@ -559,77 +752,24 @@ public class BaseBBBAPI implements BBBAPI {
         }
 
         try {
-            // open connection
             log.debug("doAPICall.call: " + apiCall + "?" + (query != null ? query : ""));
 
-            URL url = new URL(urlStr.toString());
-            HttpURLConnection httpConnection = (HttpURLConnection) url.openConnection();
-            httpConnection.setUseCaches(false);
-            httpConnection.setDoOutput(true);
-            if(presentation != ""){
-                httpConnection.setRequestMethod("POST");
-                httpConnection.setRequestProperty("Content-Type", "text/xml");
-                httpConnection.setRequestProperty("Content-Length", "" + Integer.toString(presentation.getBytes().length));
-                httpConnection.setRequestProperty("Content-Language", "en-US");
-                httpConnection.setDoInput(true);
-
-                DataOutputStream wr = new DataOutputStream( httpConnection.getOutputStream() );
-                wr.writeBytes (presentation);
-                wr.flush();
-                wr.close();
+            // read and parse response
+            Map<String, Object> response;
+            if (StringUtils.isNotEmpty(presentation)) {
+                response = transport.post(urlStr.toString(), "text/xml", presentation, BBBResponseParser::parse);
             } else {
-                httpConnection.setRequestMethod("GET");
+                response = transport.get(urlStr.toString(), BBBResponseParser::parse);
             }
-            httpConnection.connect();
-
-            int responseCode = httpConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // read response
-                String stringXml = "";
-                try (
-                    InputStreamReader isr = new InputStreamReader(httpConnection.getInputStream(), "UTF-8");
-                    BufferedReader reader = new BufferedReader(isr);
-                ) {
-                    stringXml = reader.lines().filter(l -> !l.startsWith("<?xml version=\"1.0\"?>"))
-                        .map(String::trim).collect(Collectors.joining());
-                }
-                httpConnection.disconnect();
-
-                // parse response
-                log.debug("doAPICall.response: {}",  stringXml);
-                //Patch to fix the NaN error
-                stringXml = stringXml.replaceAll(">.\\s+?<", "><");
-
-                Document dom = null;
+            log.debug("doAPICall.response: {}", response);
 
-                // Initialize XML libraries
-                DocumentBuilderFactory docBuilderFactory;
-                DocumentBuilder docBuilder;
-                docBuilderFactory = DocumentBuilderFactory.newInstance();
-                try {
-                    docBuilderFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-                    docBuilderFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
-
-                    docBuilder = docBuilderFactory.newDocumentBuilder();
-
-                    dom = docBuilder.parse(new InputSource( new StringReader(stringXml)));
-                } catch (ParserConfigurationException e) {
-                    log.error("Failed to initialise XML Parser", e);
-                }
-
-                Map<String, Object> response = getNodesAsMap(dom, "response");
-
-                String returnCode = (String) response.get("returncode");
-                if (APIRESPONSE_FAILED.equals(returnCode)) {
-                    throw new BBBException((String) response.get("messageKey"), (String) response.get("message"));
-                }
-
-                return response;
-
-            } else {
-                throw new BBBException(BBBException.MESSAGEKEY_HTTPERROR, "BBB server responded with HTTP status code " + responseCode);
+            String returnCode = (String) response.get("returncode");
+            if (APIRESPONSE_FAILED.equals(returnCode)) {
+                throw new BBBException((String) response.get("messageKey"), (String) response.get("message"));
             }
 
+            return response;
+
         } catch (BBBException e) {
             if (!e.getMessageKey().equals("notFound")) {
                 log.debug("doAPICall.BBBException: MessageKey=" + e.getMessageKey() + ", Message=" + e.getMessage());
@@ -639,8 +779,12 @@ public class BaseBBBAPI implements BBBAPI {
             log.debug("doAPICall.IOException: Message=" + e.getMessage());
             throw new BBBException(BBBException.MESSAGEKEY_UNREACHABLE, e.getMessage(), e);
 
-        } catch (SAXException e) {
-            log.debug("doAPICall.SAXException: Message=" + e.getMessage());
+        } catch (XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                log.debug("doAPICall.IOException: Message=" + e.getNestedException().getMessage());
+                throw new BBBException(BBBException.MESSAGEKEY_UNREACHABLE, e.getMessage(), e);
+            }
+            log.debug("doAPICall.XMLStreamException: Message=" + e.getMessage());
             throw new BBBException(BBBException.MESSAGEKEY_INVALIDRESPONSE, e.getMessage(), e);
 
         } catch (IllegalArgumentException e) {
@@ -653,60 +797,20 @@ public class BaseBBBAPI implements BBBAPI {
         }
     }
 
-    protected Map<String, Object> getNodesAsMap(Document dom, String elementTagName) {
-        return processNode(dom.getElementsByTagName(elementTagName).item(0));
+    /** Statistics of the HTTP transport used to reach the BBB server */
+    public Map<String, Long> getHttpTransportStats() {
+        return transport.getStats();
     }
 
-    protected Map<String, Object> processNode(Node _node) {
-
-        Map<String, Object> map = new LinkedHashMap<>();
-        NodeList responseNodes = _node.getChildNodes();
-        int images = 1; //counter for images (i.e image1, image2, image3)
-        for (int i = 0; i < responseNodes.getLength(); i++) {
-            Node node = responseNodes.item(i);
-            String nodeName = node.getNodeName().trim();
-            if (node.getChildNodes().getLength() == 1
-                    && ( node.getChildNodes().item(0).getNodeType() == org.w3c.dom.Node.TEXT_NODE || node.getChildNodes().item(0).getNodeType() == org.w3c.dom.Node.CDATA_SECTION_NODE) ) {
-                String nodeValue = node.getTextContent();
-                if (nodeName == "image" && node.getAttributes() != null){
-                    Map<String, String> imageMap = new LinkedHashMap<String, String>();
-                    Node heightAttr = node.getAttributes().getNamedItem("height");
-                    Node widthAttr = node.getAttributes().getNamedItem("width");
-                    Node altAttr = node.getAttributes().getNamedItem("alt");
-
-                    imageMap.put("height", heightAttr.getNodeValue());
-                    imageMap.put("width", widthAttr.getNodeValue());
-                    imageMap.put("title", altAttr.getNodeValue());
-                    imageMap.put("url", nodeValue);
-                    map.put(nodeName + images, imageMap);
-                    images++;
-                } else {
-                    map.put(nodeName, nodeValue != null ? nodeValue.trim() : null);
-                }
-            } else if (node.getChildNodes().getLength() == 0
-                    && node.getNodeType() != org.w3c.dom.Node.TEXT_NODE
-                    && node.getNodeType() != org.w3c.dom.Node.CDATA_SECTION_NODE) {
-                map.put(nodeName, "");
-            } else if ( node.getChildNodes().getLength() >= 1
-                    && node.getChildNodes().item(0).getChildNodes().item(0).getNodeType() != org.w3c.dom.Node.TEXT_NODE
-                    && node.getChildNodes().item(0).getChildNodes().item(0).getNodeType() != org.w3c.dom.Node.CDATA_SECTION_NODE ) {
-
-                List<Object> list = new ArrayList<>();
-                for (int c = 0; c < node.getChildNodes().getLength(); c++) {
-                    Node n = node.getChildNodes().item(c);
-                    list.add(processNode(n));
-                }
-                if (nodeName == "preview"){
-                    Node n = node.getChildNodes().item(0);
-                    map.put(nodeName, new ArrayList<Object>(processNode(n).values()));
-                } else {
-                    map.put(nodeName, list);
-                }
-            } else {
-                map.put(nodeName, processNode(node));
-            }
+    /** Circuit breaker state of the BBB server and bulkhead usage */
+    public Map<String, Long> getCallStats() {
+
+        Map<String, Long> stats = new LinkedHashMap<>();
+        if (circuitBreaker != null) {
+            stats.putAll(circuitBreaker.getStats());
         }
-        return map;
+        stats.putAll(bulkhead.getStats());
+        return stats;
     }
 
     /** Generate a random password */
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.sakaiproject.bbb.api.BBBException;
+
+/**
+ * Calls that never reached the server, for lack of a free connection on this
+ * node, must not open the circuit nor keep it half open.
+ */
+public class BBBCircuitBreakerTest {
+
+    private static final String STATE = "circuitBreaker.bbb.state";
+
+    @Test
+    public void testSkippedCallsDontOpen() throws BBBException {
+
+        BBBCircuitBreaker breaker = new BBBCircuitBreaker("bbb", 3, 60000);
+        for (int i = 0; i < 10; i++) {
+            breaker.before();
+            breaker.onSkipped();
+        }
+        assertEquals(Long.valueOf(0), breaker.getStats().get(STATE));
+        breaker.before();
+    }
+
+    @Test
+    public void testSkippedTrialHandsOver() throws Exception {
+
+        BBBCircuitBreaker breaker = new BBBCircuitBreaker("bbb", 1, 0);
+        breaker.before();
+        breaker.onFailure();
+
+        // The trial call finds no connection, the next call is the trial.
+        breaker.before();
+        breaker.onSkipped();
+        breaker.before();
+        breaker.onSuccess();
+        assertEquals(Long.valueOf(0), breaker.getStats().get(STATE));
+    }
+
+    @Test
+    public void testFailuresOpen() throws BBBException {
+
+        BBBCircuitBreaker breaker = new BBBCircuitBreaker("bbb", 2, 60000);
+        breaker.before();
+        breaker.onFailure();
+        breaker.before();
+        breaker.onFailure();
+        try {
+            breaker.before();
+            fail("The circuit should be open");
+        } catch (BBBException e) {
+            assertEquals(BBBException.MESSAGEKEY_UNREACHABLE, e.getMessageKey());
+        }
+    }
+}
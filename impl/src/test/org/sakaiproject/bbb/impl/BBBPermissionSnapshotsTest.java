@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.BBBPermissions;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.entity.api.Reference;
+import org.sakaiproject.site.api.SiteService;
+
+/**
+ * The snapshots must grant what {@link SecurityService#unlock} grants, over
+ * the same realms: the site realm, the helper realm and the user templates.
+ * unlock is modelled as the role of the user in the site, plus .anon and
+ * .auth, granted a function in any of those realms.
+ */
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class BBBPermissionSnapshotsTest {
+
+    private static final String USER_ID = "user";
+    private static final String SITE_ID = "site";
+    private static final String SITE_REFERENCE = "/site/" + SITE_ID;
+    private static final String SITE_HELPER = "!site.helper";
+    private static final String USER_TEMPLATE = "!user.template.registered";
+
+    @Mock private SecurityService securityService;
+    @Mock private AuthzGroupService authzGroupService;
+    @Mock private SiteService siteService;
+    @Mock private EntityManager entityManager;
+
+    @InjectMocks private BBBPermissionSnapshots snapshots;
+
+    /** Functions by role, by realm */
+    private final Map<String, Map<String, Set<String>>> grants = new HashMap<>();
+    private final List<String> realms = Arrays.asList(SITE_REFERENCE, USER_TEMPLATE, SITE_HELPER);
+
+    @Before
+    public void setUp() throws Exception {
+
+        grant(SITE_REFERENCE, "access", BBBMeetingManager.FN_PARTICIPATE, BBBMeetingManager.FN_RECORDING_VIEW);
+        grant(SITE_REFERENCE, "maintain", BBBMeetingManager.FN_CREATE);
+
+        Role role = mock(Role.class);
+        when(role.getId()).thenReturn("access");
+        Member member = mock(Member.class);
+        when(member.isActive()).thenReturn(true);
+        when(member.getRole()).thenReturn(role);
+        AuthzGroup realm = mock(AuthzGroup.class);
+        when(realm.getMember(USER_ID)).thenReturn(member);
+        when(authzGroupService.getAuthzGroup(SITE_REFERENCE)).thenReturn(realm);
+
+        Reference reference = mock(Reference.class);
+        when(reference.getAuthzGroups(USER_ID)).thenReturn(realms);
+        when(entityManager.newReference(SITE_REFERENCE)).thenReturn(reference);
+        when(siteService.siteReference(SITE_ID)).thenReturn(SITE_REFERENCE);
+
+        when(authzGroupService.getAllowedFunctions(anyString(), anyCollection())).thenAnswer(invocation -> {
+            Set<String> functions = new HashSet<>();
+            for (String azg : (Collection<String>) invocation.getArgument(1)) {
+                functions.addAll(grants.getOrDefault(azg, Collections.emptyMap())
+                    .getOrDefault(invocation.getArgument(0), Collections.emptySet()));
+            }
+            return functions;
+        });
+        when(securityService.unlock(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            String function = invocation.getArgument(1);
+            for (String azg : realms) {
+                for (String roleId : Arrays.asList("access", AuthzGroupService.ANON_ROLE, AuthzGroupService.AUTH_ROLE)) {
+                    if (grants.getOrDefault(azg, Collections.emptyMap())
+                            .getOrDefault(roleId, Collections.emptySet()).contains(function)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    @Test
+    public void testHelperRealmGrant() {
+
+        grant(SITE_HELPER, "access", BBBMeetingManager.FN_EDIT_ANY);
+
+        BBBPermissions permissions = snapshots.getPermissions(USER_ID, SITE_ID);
+        assertTrue(permissions.isAllowed(BBBMeetingManager.FN_EDIT_ANY));
+        assertFalse(permissions.isAllowed(BBBMeetingManager.FN_CREATE));
+        assertMatchesUnlock(permissions);
+    }
+
+    @Test
+    public void testUserTemplateGrant() {
+
+        grant(USER_TEMPLATE, AuthzGroupService.AUTH_ROLE, BBBMeetingManager.FN_RECORDING_EXTENDEDFORMATS_OWN);
+
+        BBBPermissions permissions = snapshots.getPermissions(USER_ID, SITE_ID);
+        assertTrue(permissions.isAllowed(BBBMeetingManager.FN_RECORDING_EXTENDEDFORMATS_OWN));
+        assertMatchesUnlock(permissions);
+    }
+
+    private void assertMatchesUnlock(BBBPermissions permissions) {
+
+        for (String function : BBBPermissions.SNAPSHOT_FUNCTIONS) {
+            assertEquals(function, securityService.unlock(USER_ID, function, SITE_REFERENCE), permissions.isAllowed(function));
+        }
+    }
+
+    private void grant(String realm, String role, String... functions) {
+        grants.computeIfAbsent(realm, k -> new HashMap<>()).computeIfAbsent(role, k -> new HashSet<>()).addAll(Arrays.asList(functions));
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * The responses the old DOM path had to patch before parsing (the NaN error):
+ * whitespace, tabs and line breaks between the elements, which the DOM kept
+ * as text nodes and mistook for the values of the elements around them.
+ */
+public class BBBResponseParserTest {
+
+    @Test
+    public void testIndentedMeetingInfo() throws Exception {
+
+        Map<String, Object> response = parse("<?xml version=\"1.0\"?>\r\n"
+            + "<response>\r\n"
+            + "\t<returncode>SUCCESS</returncode> \t\r\n"
+            + "\t<meetingID>meeting</meetingID>\n"
+            + "\t<participantCount> 2 </participantCount>\n"
+            + "\t<moderatorCount>1</moderatorCount>\n"
+            + "\t<messageKey>\t \n</messageKey>\n"
+            + "\t<attendees> \t\n"
+            + "\t\t<attendee>\n"
+            + "\t\t\t<userID>teacher</userID>\n"
+            + "\t\t\t<role>MODERATOR</role>\n"
+            + "\t\t</attendee>  \n"
+            + "\t\t<attendee><userID>student</userID>\t<role>VIEWER</role></attendee>\n"
+            + "\t</attendees>\n"
+            + "\t<metadata>\n"
+            + "\t\t<origin>Sakai</origin>\n"
+            + "\t</metadata>\n"
+            + "</response>\n");
+
+        assertEquals("SUCCESS", response.get("returncode"));
+        assertEquals("2", response.get("participantCount"));
+        assertEquals("1", response.get("moderatorCount"));
+        assertEquals("", response.get("messageKey"));
+
+        List<Map<String, Object>> attendees = (List<Map<String, Object>>) response.get("attendees");
+        assertEquals(2, attendees.size());
+        assertEquals("teacher", attendees.get(0).get("userID"));
+        assertEquals("MODERATOR", attendees.get(0).get("role"));
+        assertEquals("VIEWER", attendees.get(1).get("role"));
+        assertEquals("Sakai", ((Map<String, Object>) response.get("metadata")).get("origin"));
+    }
+
+    @Test
+    public void testIndentedPreview() throws Exception {
+
+        Map<String, Object> response = parse("<response>\n"
+            + "  <returncode>SUCCESS</returncode>\n"
+            + "  <preview>\n"
+            + "    <images>\n"
+            + "      <image width=\"176\" height=\"136\" alt=\"Welcome\">https://bbb/slide-1.png</image>\n"
+            + "      <image width=\"176\" height=\"136\" alt=\"Agenda\">https://bbb/slide-2.png</image>\n"
+            + "    </images>\n"
+            + "  </preview>\n"
+            + "</response>");
+
+        List<Map<String, String>> images = (List<Map<String, String>>) response.get("preview");
+        assertEquals(2, images.size());
+        assertEquals("https://bbb/slide-1.png", images.get(0).get("url"));
+        assertEquals("Agenda", images.get(1).get("title"));
+        assertEquals("136", images.get(1).get("height"));
+    }
+
+    private static Map<String, Object> parse(String xml) throws Exception {
+        return BBBResponseParser.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}
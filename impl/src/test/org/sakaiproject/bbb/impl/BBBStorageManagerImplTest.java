@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.impl;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.bbb.api.Participant;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+
+/**
+ * The statements run by the storage manager against an in memory H2
+ * database, counted by the Hibernate statistics.
+ */
+public class BBBStorageManagerImplTest {
+
+    private static final String SITE_ID = "site";
+    private static final int MEETINGS = 100;
+
+    private SessionFactory sessionFactory;
+    private BBBStorageManagerImpl storageManager;
+
+    @Before
+    public void setUp() throws Exception {
+
+        sessionFactory = new Configuration()
+            .addAnnotatedClass(BBBMeeting.class)
+            .addAnnotatedClass(BBBMeetingParticipant.class)
+            .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+            .setProperty("hibernate.connection.url", "jdbc:h2:mem:bbb;DB_CLOSE_DELAY=-1;NON_KEYWORDS=VALUE")
+            .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+            .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+            .setProperty("hibernate.current_session_context_class", "thread")
+            .setProperty("hibernate.cache.use_second_level_cache", "false")
+            .setProperty("hibernate.cache.use_query_cache", "false")
+            .setProperty("hibernate.generate_statistics", "true")
+            .buildSessionFactory();
+
+        storageManager = new BBBStorageManagerImpl();
+        inject(storageManager, "sessionFactory", sessionFactory);
+        inject(storageManager, "metrics", new BBBMetrics());
+
+        Session session = sessionFactory.getCurrentSession();
+        session.beginTransaction();
+        for (int i = 0; i < MEETINGS; i++) {
+            session.persist(meeting("meeting" + i, SITE_ID));
+        }
+        session.persist(meeting("other", "otherSite"));
+        session.getTransaction().commit();
+    }
+
+    @After
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Test
+    public void testGetSiteMeetingsStatementCount() {
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+        Session session = sessionFactory.getCurrentSession();
+        session.beginTransaction();
+        List<BBBMeeting> meetings = storageManager.getSiteMeetings(SITE_ID, false);
+        for (BBBMeeting meeting : meetings) {
+            assertEquals(3, meeting.getParticipants().size());
+            assertEquals("true", meeting.getProperties().get("muteOnStart"));
+        }
+        session.getTransaction().commit();
+
+        assertEquals(MEETINGS, meetings.size());
+        // One query for the meetings and their participants, one for their properties,
+        // and no collection loaded lazily afterwards.
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getCollectionFetchCount());
+    }
+
+    private static BBBMeeting meeting(String id, String siteId) {
+
+        BBBMeeting meeting = new BBBMeeting();
+        meeting.setId(id);
+        meeting.setName("Meeting " + id);
+        meeting.setSiteId(siteId);
+        meeting.setOwnerId("owner");
+        meeting.setAttendeePassword("attendee");
+        meeting.setModeratorPassword("moderator");
+        Map<String, String> properties = new HashMap<>();
+        properties.put("muteOnStart", "true");
+        properties.put("welcomeMessage", "Welcome");
+        meeting.setProperties(properties);
+        List<BBBMeetingParticipant> participants = new ArrayList<>();
+        participants.add(participant(meeting, Participant.SELECTION_ROLE, "maintain", Participant.MODERATOR));
+        participants.add(participant(meeting, Participant.SELECTION_GROUP, "group", Participant.ATTENDEE));
+        participants.add(participant(meeting, Participant.SELECTION_USER, "user", Participant.ATTENDEE));
+        meeting.setParticipants(participants);
+        return meeting;
+    }
+
+    private static BBBMeetingParticipant participant(BBBMeeting meeting, String selectionType, String selectionId, String role) {
+
+        BBBMeetingParticipant participant = new BBBMeetingParticipant();
+        participant.setMeeting(meeting);
+        participant.setSelectionType(selectionType);
+        participant.setSelectionId(selectionId);
+        participant.setRole(role);
+        return participant;
+    }
+
+    private static void inject(Object target, String fieldName, Object value) throws ReflectiveOperationException {
+
+        Field field = target.getClass().getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
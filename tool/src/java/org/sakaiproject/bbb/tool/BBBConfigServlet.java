@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.tool;
+
+import java.io.IOException;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.springframework.web.context.support.SpringBeanAutowiringSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the tool config shared by every user, see {@link BBBToolConfig}.
+ * Requested with the current version in the URL, it is cached for good by
+ * browsers and proxies, a new version comes with a new URL. Otherwise it is
+ * revalidated on each use, through its ETag.
+ */
+@Slf4j
+public class BBBConfigServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -2659032563811357466L;
+
+    @Autowired
+    private BBBToolConfig toolConfig;
+
+    public void init(ServletConfig config) throws ServletException {
+
+        super.init(config);
+        SpringBeanAutowiringSupport.processInjectionBasedOnServletContext(this, config.getServletContext());
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+        log.debug("doGet()");
+
+        // Read once, the version and the content must match.
+        BBBToolConfig.Payload payload = toolConfig.getPayload();
+        String version = payload.getVersion();
+        byte[] json = payload.getJson();
+        String etag = "\"" + version + "\"";
+
+        response.setHeader("ETag", etag);
+        if (version.equals(request.getParameter("v"))) {
+            response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+        } else {
+            response.setHeader("Cache-Control", "public, no-cache");
+        }
+
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setContentLength(json.length);
+        response.getOutputStream().write(json);
+    }
+}
@@ -62,6 +62,9 @@ public class BBBTool extends HttpServlet {
     @Autowired
     private ServerConfigurationService serverConfigurationService;
 
+    @Autowired
+    private BBBToolConfig toolConfig;
+
     private Template bootstrapTemplate = null;
 
     public void init(ServletConfig config) throws ServletException {
@@ -122,6 +125,7 @@ public class BBBTool extends HttpServlet {
         ctx.put("sakaiVersion", sakaiProxy.getSakaiVersion());
         ctx.put("maxFileSizeInBytes", sakaiProxy.getFileSizeMax());
         ctx.put("checkICalOption", serverConfigurationService.getBoolean(BBBMeetingManager.CFG_CHECKICALOPTION, true));
+        ctx.put("configVersion", toolConfig.getVersion());
 
         response.setStatus(HttpServletResponse.SC_OK);
         response.setContentType("text/html");
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.tool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The part of the tool settings that is the same for every user: the tool
+ * version, the autorefresh intervals, the page size and the defaults of the
+ * meeting form. It is built once and served as is, under a version that only
+ * changes with its content, until it is rebuilt {@code REBUILD_INTERVAL} ms
+ * later to pick up any change of the configuration.
+ */
+@Slf4j
+@Setter
+public class BBBToolConfig {
+
+    private static final long REBUILD_INTERVAL = 60000;
+
+    private BBBMeetingManager meetingManager;
+    private ServerConfigurationService serverConfigurationService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile Payload payload;
+
+    /** The version of the current payload, to be sent along with its URL */
+    public String getVersion() {
+        return getPayload().getVersion();
+    }
+
+    public Payload getPayload() {
+
+        Payload current = payload;
+        if (current == null || System.currentTimeMillis() >= current.built + REBUILD_INTERVAL) {
+            current = build(current);
+            payload = current;
+        }
+        return current;
+    }
+
+    /** A new payload, or the previous one if nothing changed */
+    private Payload build(Payload previous) {
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("autorefreshInterval", getAutorefreshInterval());
+        config.put("meetingsPageSize", serverConfigurationService.getInt(BBBMeetingManager.CFG_MEETINGS_PAGESIZE, 20));
+        config.put("addUpdateFormParameters", getAddUpdateFormConfigParameters());
+        config.put("recordingFormatFilterEnabled", meetingManager.isRecordingFormatFilterEnabled());
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("config", config);
+        settings.put("toolVersion", meetingManager.getToolVersion());
+
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(settings);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize the tool config", e);
+        }
+        String version = DigestUtils.sha1Hex(json);
+        if (previous != null && previous.version.equals(version)) {
+            return new Payload(previous.version, previous.json);
+        }
+        log.debug("Tool config version {}", version);
+        return new Payload(version, json);
+    }
+
+    private Map<String, String> getAutorefreshInterval() {
+
+        Map<String, String> interval = new LinkedHashMap<>();
+        String autorefreshMeetings = meetingManager.getAutorefreshForMeetings();
+        if (autorefreshMeetings != null) {
+            interval.put("meetings", autorefreshMeetings);
+        }
+        String autorefreshRecordings = meetingManager.getAutorefreshForRecordings();
+        if (autorefreshRecordings != null) {
+            interval.put("recordings", autorefreshRecordings);
+        }
+        return interval;
+    }
+
+    private Map<String, Object> getAddUpdateFormConfigParameters() {
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        //UX settings for 'recording' checkbox
+        map.put("recordingEnabled", Boolean.parseBoolean(meetingManager.isRecordingEnabled()));
+        map.put("recordingEditable", Boolean.parseBoolean(meetingManager.isRecordingEditable()));
+        map.put("recordingDefault", Boolean.parseBoolean(meetingManager.getRecordingDefault()));
+        //UX settings for 'duration' box
+        map.put("durationEnabled", Boolean.parseBoolean(meetingManager.isDurationEnabled()));
+        String durationDefault = meetingManager.getDurationDefault();
+        if (durationDefault != null) {
+            map.put("durationDefault", durationDefault);
+        }
+        //UX settings for 'wait moderator' box
+        map.put("waitmoderatorEnabled", Boolean.parseBoolean(meetingManager.isWaitModeratorEnabled()));
+        map.put("waitmoderatorEditable", Boolean.parseBoolean(meetingManager.isWaitModeratorEditable()));
+        map.put("waitmoderatorDefault", Boolean.parseBoolean(meetingManager.getWaitModeratorDefault()));
+        //UX settings for 'multiple sessions allowed' box
+        map.put("multiplesessionsallowedEnabled", Boolean.parseBoolean(meetingManager.isMultipleSessionsAllowedEnabled()));
+        map.put("multiplesessionsallowedEditable", Boolean.parseBoolean(meetingManager.isMultipleSessionsAllowedEditable()));
+        map.put("multiplesessionsallowedDefault", Boolean.parseBoolean(meetingManager.getMultipleSessionsAllowedDefault()));
+        //UX settings for 'preupload presentation' box
+        map.put("preuploadpresentationEnabled", Boolean.parseBoolean(meetingManager.isPreuploadPresentationEnabled()));
+        //UX settings for 'group sessions' box
+        map.put("groupsessionsEnabled", Boolean.parseBoolean(meetingManager.isGroupSessionsEnabled()));
+        map.put("groupsessionsEditable", Boolean.parseBoolean(meetingManager.isGroupSessionsEditable()));
+        map.put("groupsessionsDefault", Boolean.parseBoolean(meetingManager.getGroupSessionsDefault()));
+        //UX settings for 'description' box
+        String descriptionMaxLength = meetingManager.getMaxLengthForDescription();
+        if (descriptionMaxLength != null) {
+            map.put("descriptionMaxLength", descriptionMaxLength);
+        }
+        String descriptionType = meetingManager.getTextBoxTypeForDescription();
+        if (descriptionType != null) {
+            map.put("descriptionType", descriptionType);
+        }
+        return map;
+    }
+
+    /** The config as JSON, and its version */
+    @Getter
+    public static class Payload {
+
+        private final String version;
+        private final byte[] json;
+        private final long built = System.currentTimeMillis();
+
+        Payload(String version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
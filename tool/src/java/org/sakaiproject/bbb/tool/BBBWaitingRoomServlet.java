@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010 onwards - The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.osedu.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.bbb.tool;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.SakaiProxy;
+import org.sakaiproject.bbb.api.storage.BBBMeeting;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import org.springframework.web.context.support.SpringBeanAutowiringSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Server-Sent Events stream for the wait-for-moderator page. The request is
+ * parked (no thread held) until the shared waiting room poller sees a
+ * moderator in the meeting, then a single "moderator" event is sent. When the
+ * timeout is reached first the stream is closed and the browser reconnects.
+ */
+@Slf4j
+public class BBBWaitingRoomServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 4411805311519843025L;
+
+    /** Browser reconnection delay after the stream has been closed */
+    private static final int RETRY = 1000;
+
+    @Autowired
+    private SakaiProxy sakaiProxy;
+
+    @Autowired
+    private BBBMeetingManager meetingManager;
+
+    @Autowired
+    private ServerConfigurationService serverConfigurationService;
+
+    private long timeout = 25000;
+
+    public void init(ServletConfig config) throws ServletException {
+
+        super.init(config);
+        SpringBeanAutowiringSupport.processInjectionBasedOnServletContext(this, config.getServletContext());
+        timeout = (long) serverConfigurationService.getInt(BBBMeetingManager.CFG_WAITINGROOM_TIMEOUT, (int) timeout);
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+        log.debug("doGet()");
+
+        // Authorise on the request thread, while the Sakai session is bound to it.
+        if (sakaiProxy.getCurrentUser() == null) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        String meetingId = request.getParameter("meetingId");
+        String groupId = request.getParameter("groupId");
+        if (meetingId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing required parameter [meetingId]");
+            return;
+        }
+
+        try {
+            BBBMeeting meeting = meetingManager.getMeeting(meetingId);
+            if (meeting == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+        } catch (Exception e) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no");
+        response.getWriter().write("retry: " + RETRY + "\n\n");
+        response.flushBuffer();
+
+        CompletableFuture<Map<String, Object>> moderator = meetingManager.waitForModerator(meetingId, groupId);
+        AsyncContext async = request.startAsync();
+        async.setTimeout(timeout);
+
+        // Either the moderator event or the container (timeout, disconnect) ends the stream, whichever is first.
+        AtomicBoolean done = new AtomicBoolean();
+        async.addListener(new AsyncListener() {
+            public void onComplete(AsyncEvent event) {
+                moderator.cancel(false);
+            }
+            public void onTimeout(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    async.complete();
+                }
+            }
+            public void onError(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    async.complete();
+                }
+            }
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        moderator.thenAccept(meetingInfo -> {
+            if (done.compareAndSet(false, true)) {
+                try {
+                    PrintWriter writer = async.getResponse().getWriter();
+                    writer.write("event: moderator\ndata: {\"moderatorCount\":" + meetingInfo.get("moderatorCount") + "}\n\n");
+                    writer.flush();
+                } catch (IOException e) {
+                    log.debug("Waiting user for {} is gone: {}", meetingId, e.getMessage());
+                } finally {
+                    async.complete();
+                }
+            }
+        });
+    }
+}
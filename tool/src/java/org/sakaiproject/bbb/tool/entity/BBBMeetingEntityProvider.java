@@ -21,6 +21,7 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -31,15 +32,16 @@ import java.util.Random;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.codec.binary.Base64;
-import org.sakaiproject.authz.api.Member;
 import org.sakaiproject.authz.api.Role;
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.bbb.api.BBBException;
 import org.sakaiproject.bbb.api.BBBMeetingManager;
+import org.sakaiproject.bbb.api.BBBPermissions;
 import org.sakaiproject.bbb.api.Participant;
 import org.sakaiproject.bbb.api.storage.BBBMeeting;
 import org.sakaiproject.bbb.api.storage.BBBMeetingParticipant;
+import org.sakaiproject.bbb.tool.BBBToolConfig;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.ResourceProperties;
@@ -61,6 +63,7 @@ import org.sakaiproject.entitybroker.entityprovider.capabilities.Statisticable;
 import org.sakaiproject.entitybroker.entityprovider.capabilities.Updateable;
 import org.sakaiproject.entitybroker.entityprovider.extension.ActionReturn;
 import org.sakaiproject.entitybroker.entityprovider.extension.Formats;
+import org.sakaiproject.entitybroker.entityprovider.search.Order;
 import org.sakaiproject.entitybroker.entityprovider.search.Restriction;
 import org.sakaiproject.entitybroker.entityprovider.search.Search;
 import org.sakaiproject.entitybroker.exception.EntityException;
@@ -82,7 +85,6 @@ import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserDirectoryService;
-import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.util.ResourceLoader;
 import org.sakaiproject.util.Validator;
 import org.sakaiproject.content.api.ContentHostingService;
@@ -107,7 +109,12 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         Createable, Updateable, Resolvable, Describeable, Deleteable,
         CollectionResolvable, ActionsExecutable, Statisticable {
 
+    /** Members answered by a search when no limit is given, and at most */
+    private static final int MEMBERS_PAGE_SIZE = 20;
+    private static final int MEMBERS_MAX_PAGE_SIZE = 100;
+
     private BBBMeetingManager meetingManager;
+    private BBBToolConfig toolConfig;
     private UserDirectoryService userDirectoryService;
     private SiteService siteService;
     private IdManager idManager;
@@ -410,8 +417,16 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
                 context = location;
             }
 
+            // Optional paging, sorting and filtering by name.
+            Order[] orders = search.getOrders();
+            String sortBy = orders.length > 0 ? orders[0].getProperty() : null;
+            boolean ascending = orders.length == 0 || orders[0].isAscending();
+            Restriction filterRes = search.getRestrictionByProperty("search");
+            String filter = filterRes != null ? filterRes.getStringValue() : null;
+
             try {
-                meetings = meetingManager.getSiteMeetings(context);
+                meetings = (List<BBBMeeting>) meetingManager.getSiteMeetingSummaries(context, filter, sortBy, ascending,
+                        (int) search.getStart(), (int) search.getLimit()).get("meetings");
 
                 // for security reasons, clear passwords and meeting token
                 for (BBBMeeting meeting : meetings) {
@@ -461,14 +476,12 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         currentUser.put("permissions", getUserPermissionsInSite((String)currentUser.get("id"), siteId));
         settings.put("currentUser", currentUser);
 
+        // The rest of the config is the same for every user, see BBBToolConfig.
         Map<String, Object> config = new LinkedHashMap<String, Object>();
-        config.put("autorefreshInterval", getAutorefreshInterval());
-        config.put("addUpdateFormParameters", getAddUpdateFormConfigParameters());
         config.put("serverTimeInDefaultTimezone", meetingManager.getServerTimeInDefaultTimezone());
         config.put("serverTimeInUserTimezone", meetingManager.getServerTimeInUserTimezone());
-        config.put("recordingFormatFilterEnabled", meetingManager.isRecordingFormatFilterEnabled());
         settings.put("config", config);
-        settings.put("toolVersion", meetingManager.getToolVersion());
+        settings.put("configVersion", toolConfig.getVersion());
         return new ActionReturn(settings);
     }
 
@@ -485,148 +498,14 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
 
     private List<String> getUserPermissionsInSite(String userId, String siteId) {
 
-        List<String> permissions = new ArrayList<>();
-        if(meetingManager.isUserAllowedInLocation(userId, "site.viewRoster", siteId)) {
-            permissions.add("site.viewRoster");
+        List<String> permissions = meetingManager.getUserPermissions(userId, siteId).getFunctions();
+        int siteUpd = permissions.indexOf(BBBPermissions.FN_SITE_UPD);
+        if (siteUpd >= 0) {
+            permissions.add(siteUpd + 1, BBBMeetingManager.FN_ADMIN);
         }
-        if(meetingManager.isUserAllowedInLocation(userId, "site.upd", siteId)) {
-            permissions.add("site.upd");
-            permissions.add(meetingManager.FN_ADMIN);
-        }
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_CREATE, siteId) )
-            permissions.add(meetingManager.FN_CREATE);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_EDIT_OWN, siteId) )
-            permissions.add(meetingManager.FN_EDIT_OWN);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_EDIT_ANY, siteId) )
-            permissions.add(meetingManager.FN_EDIT_ANY);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_DELETE_OWN, siteId) )
-            permissions.add(meetingManager.FN_DELETE_OWN);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_DELETE_ANY, siteId) )
-            permissions.add(meetingManager.FN_DELETE_ANY);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_PARTICIPATE, siteId) )
-            permissions.add(meetingManager.FN_PARTICIPATE);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_VIEW, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_VIEW);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_EDIT_OWN, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_EDIT_OWN);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_EDIT_ANY, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_EDIT_ANY);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_DELETE_OWN, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_DELETE_OWN);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_DELETE_ANY, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_DELETE_ANY);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_EXTENDEDFORMATS_OWN, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_EXTENDEDFORMATS_OWN);
-        if( meetingManager.isUserAllowedInLocation(userId, meetingManager.FN_RECORDING_EXTENDEDFORMATS_ANY, siteId) )
-            permissions.add(meetingManager.FN_RECORDING_EXTENDEDFORMATS_ANY);
-        if( meetingManager.isUserAllowedInLocation(userId, "calendar.new", siteId) )
-            permissions.add("calendar.new");
-        if( meetingManager.isUserAllowedInLocation(userId, "calendar.revise.own", siteId) )
-            permissions.add("calendar.revise.own");
-        if( meetingManager.isUserAllowedInLocation(userId, "calendar.revise.any", siteId) )
-            permissions.add("calendar.revise.any");
-        if( meetingManager.isUserAllowedInLocation(userId, "calendar.delete.own", siteId) )
-            permissions.add("calendar.delete.own");
-        if( meetingManager.isUserAllowedInLocation(userId, "calendar.delete.any", siteId) )
-            permissions.add("calendar.delete.any");
         return permissions;
     }
 
-    private Map<String, String> getAutorefreshInterval() {
-
-        Map<String, String> interval = new LinkedHashMap<>();
-        String autorefreshMeetings = meetingManager.getAutorefreshForMeetings();
-        if (autorefreshMeetings != null) {
-            interval.put("meetings", autorefreshMeetings);
-        }
-        String autorefreshRecordings = meetingManager.getAutorefreshForRecordings();
-        if (autorefreshRecordings != null) {
-            interval.put("recordings", autorefreshRecordings);
-        }
-        return interval;
-    }
-
-    private Map<String, Object> getAddUpdateFormConfigParameters() {
-
-        Map<String, Object> map = new LinkedHashMap<>();
-        //UX settings for 'recording' checkbox
-        Boolean recordingEnabled = Boolean.parseBoolean(meetingManager.isRecordingEnabled());
-        if (recordingEnabled != null) {
-            map.put("recordingEnabled", recordingEnabled);
-        }
-        Boolean recordingEditable = Boolean.parseBoolean(meetingManager.isRecordingEditable());
-        if (recordingEditable != null) {
-            map.put("recordingEditable", recordingEditable);
-        }
-        Boolean recordingDefault = Boolean.parseBoolean(meetingManager.getRecordingDefault());
-        if (recordingDefault != null) {
-            map.put("recordingDefault", recordingDefault);
-        }
-        //UX settings for 'duration' box
-        Boolean durationEnabled = Boolean.parseBoolean(meetingManager.isDurationEnabled());
-        if (durationEnabled != null) {
-            map.put("durationEnabled", durationEnabled);
-        }
-        String durationDefault = meetingManager.getDurationDefault();
-        if (durationDefault != null) {
-            map.put("durationDefault", durationDefault);
-        }
-        //UX settings for 'wait moderator' box
-        Boolean waitmoderatorEnabled = Boolean.parseBoolean(meetingManager.isWaitModeratorEnabled());
-        if (waitmoderatorEnabled != null) {
-            map.put("waitmoderatorEnabled", waitmoderatorEnabled);
-        }
-        Boolean waitmoderatorEditable = Boolean.parseBoolean(meetingManager.isWaitModeratorEditable());
-        if (waitmoderatorEditable != null) {
-            map.put("waitmoderatorEditable", waitmoderatorEditable);
-        }
-        Boolean waitmoderatorDefault = Boolean.parseBoolean(meetingManager.getWaitModeratorDefault());
-        if (waitmoderatorDefault != null) {
-            map.put("waitmoderatorDefault", waitmoderatorDefault);
-        }
-        //UX settings for 'multiple sessions allowed' box
-        Boolean multiplesessionsallowedEnabled = Boolean.parseBoolean(meetingManager.isMultipleSessionsAllowedEnabled());
-        if (multiplesessionsallowedEnabled != null) {
-            map.put("multiplesessionsallowedEnabled", multiplesessionsallowedEnabled);
-        }
-        Boolean multiplesessionsallowedEditable = Boolean.parseBoolean(meetingManager.isMultipleSessionsAllowedEditable());
-        if (multiplesessionsallowedEditable != null) {
-            map.put("multiplesessionsallowedEditable", multiplesessionsallowedEditable);
-        }
-        Boolean multiplesessionsallowedDefault = Boolean.parseBoolean(meetingManager.getMultipleSessionsAllowedDefault());
-        if (multiplesessionsallowedDefault != null) {
-            map.put("multiplesessionsallowedDefault", multiplesessionsallowedDefault);
-        }
-        //UX settings for 'preupload presentation' box
-        Boolean preuploadpresentationEnabled = Boolean.parseBoolean(meetingManager.isPreuploadPresentationEnabled());
-        if (preuploadpresentationEnabled != null) {
-            map.put("preuploadpresentationEnabled", preuploadpresentationEnabled);
-        }
-        //UX settings for 'group sessions' box
-        Boolean groupsessionsEnabled = Boolean.parseBoolean(meetingManager.isGroupSessionsEnabled());
-        if (groupsessionsEnabled != null) {
-            map.put("groupsessionsEnabled", groupsessionsEnabled);
-        }
-        Boolean groupsessionsEditable = Boolean.parseBoolean(meetingManager.isGroupSessionsEditable());
-        if (groupsessionsEditable != null) {
-            map.put("groupsessionsEditable", groupsessionsEditable);
-        }
-        Boolean groupsessionsDefault = Boolean.parseBoolean(meetingManager.getGroupSessionsDefault());
-        if (groupsessionsDefault != null) {
-            map.put("groupsessionsDefault", groupsessionsDefault);
-        }
-        //UX settings for 'description' box
-        String descriptionMaxLength = meetingManager.getMaxLengthForDescription();
-        if (descriptionMaxLength != null) {
-            map.put("descriptionMaxLength", descriptionMaxLength);
-        }
-        String descriptionType = meetingManager.getTextBoxTypeForDescription();
-        if (descriptionType != null) {
-            map.put("descriptionType", descriptionType);
-        }
-        return map;
-    }
-
     @EntityCustomAction(viewKey = EntityView.VIEW_LIST)
     public String isMeetingRunning(Map<String, Object> params) {
 
@@ -688,6 +567,51 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         }
     }
 
+    @EntityCustomAction(viewKey = EntityView.VIEW_LIST)
+    public ActionReturn getSiteMeetings(Map<String, Object> params) {
+
+        log.debug("getSiteMeetings");
+
+        String siteId = (String) params.get("siteId");
+        if (siteId == null) {
+            throw new IllegalArgumentException("Missing required parameter [siteId]");
+        }
+
+        try {
+            // A page of the meetings along with their total, as the meeting list shows them.
+            int start = params.get("start") != null ? Integer.parseInt((String) params.get("start")) : 0;
+            int limit = params.get("limit") != null ? Integer.parseInt((String) params.get("limit")) : 0;
+            boolean ascending = !"desc".equalsIgnoreCase((String) params.get("order"));
+            Map<String, Object> page = meetingManager.getSiteMeetingSummaries(siteId, (String) params.get("search"),
+                    (String) params.get("sort"), ascending, start, limit);
+            page.put("start", start);
+            page.put("limit", limit);
+            return new ActionReturn(page);
+        } catch (Exception e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 400);
+        }
+    }
+
+    @EntityCustomAction(viewKey = EntityView.VIEW_LIST)
+    public ActionReturn getSiteMeetingsInfo(Map<String, Object> params) {
+
+        log.debug("getSiteMeetingsInfo");
+
+        String siteId = (String) params.get("siteId");
+        if (siteId == null) {
+            throw new IllegalArgumentException("Missing required parameter [siteId]");
+        }
+
+        try {
+            Map<String, Object> meetingsInfoResponse = meetingManager.getSiteMeetingsInfo(siteId);
+            return new ActionReturn(meetingsInfoResponse);
+        } catch (Exception e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 400);
+        }
+    }
+
     @EntityCustomAction(viewKey = EntityView.VIEW_SHOW)
     public ActionReturn getRecordings(EntityReference ref, Map<String, Object> params) {
 
@@ -699,8 +623,10 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
 
         String groupId = (String) params.get("groupId");
         String siteId = (String) params.get("siteId");
+        // Synchronized with the BBB server first on an explicit refresh.
+        boolean refresh = Boolean.parseBoolean((String) params.get("refresh"));
         try {
-            Map<String, Object> recordingsResponse = meetingManager.getRecordings(ref.getId(), groupId, siteId);
+            Map<String, Object> recordingsResponse = meetingManager.getRecordings(ref.getId(), groupId, siteId, refresh);
             return new ActionReturn(recordingsResponse);
         } catch (BBBException e) {
             return new ActionReturn(new HashMap<String, String>());
@@ -719,7 +645,11 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         }
 
         try {
-            Map<String, Object> recordingsResponse = meetingManager.getSiteRecordings(siteId);
+            // Optional paging, newest recordings first.
+            int start = params.get("start") != null ? Integer.parseInt((String) params.get("start")) : 0;
+            int limit = params.get("limit") != null ? Integer.parseInt((String) params.get("limit")) : 0;
+            boolean refresh = Boolean.parseBoolean((String) params.get("refresh"));
+            Map<String, Object> recordingsResponse = meetingManager.getSiteRecordings(siteId, start, limit, refresh);
             return new ActionReturn(recordingsResponse);
         } catch (Exception e) {
             log.error("Failed to retrieve site recordings", e);
@@ -933,6 +863,7 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         Locale locale = (new ResourceLoader()).getLocale();
         toolMessages.setContextLocale(locale);
         String waiting_for_moderator_tooltip = toolMessages.getString("bbb_meetinginfo_waiting_for_moderator_tooltip");
+        int pollInterval = serverConfigurationService.getInt(BBBMeetingManager.CFG_WAITINGROOM_POLLINTERVAL, 5000);
 
         String commonHtmlHeader = "<html>\n" +
                                   "  <head>\n" +
@@ -951,35 +882,46 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         if( waitformoderator ){
             return commonHtmlHeader +
                    "    <script type='text/javascript' language='JavaScript'>\n" +
-                   "        (function worker() {\n" +
-                   "            var meetingInfo;\n" +
-                   "            // Disable caching of AJAX responses\n" +
-                   "            // Validates if a moderator has joined\n" +
+                   "        // The server tells us when a moderator joins over Server-Sent Events. Without\n" +
+                   "        // them, the meeting info is checked at the interval of the shared poller.\n" +
+                   "        function moderatorJoined() {\n" +
+                   "            if (window.opener) {\n" +
+                   "               window.opener.setTimeout(\"meetings.utils.checkOneMeetingAvailability('" + meetingId + "'" + (groupId.equals("") ? "" : ", '" + groupId + "'") + ")\", 15000 );\n" +
+                   "            }\n" +
+                   "            window.location.reload();\n" +
+                   "        }\n" +
+                   "        function worker() {\n" +
                    "            jQuery.ajax( {\n" +
                    "                url: '/direct/bbb-tool/" + meetingId + "/getMeetingInfo.json" + (groupId.equals("") ? "" : "?groupId=" + groupId) + "',\n" +
                    "                dataType : 'json',\n" +
-                   "                async : false,\n" +
                    "                cache: false,\n" +
                    "                success : function(data) {\n" +
-                   "                    meetingInfo = data;\n" +
-                   "                    if (JSON.stringify(meetingInfo) === JSON.stringify({}))\n" +
-                   "                        meetingInfo.moderatorCount = 0;\n" +
-                   "                },\n" +
-                   "                error : function(xmlHttpRequest, status, error) {\n" +
-                   "                    return null;\n" +
-                   "                },\n" +
-                   "                complete : function() {\n" +
-                   "                    if( parseInt(meetingInfo.moderatorCount) == 0 ){\n" +
-                   "                        setTimeout(worker, 5000);\n" +
+                   "                    if (data && parseInt(data.moderatorCount) > 0) {\n" +
+                   "                        moderatorJoined();\n" +
                    "                    } else {\n" +
-                   "                        if (window.opener) {\n" +
-                   "                           window.opener.setTimeout(\"meetings.utils.checkOneMeetingAvailability('" + meetingId + "'" + (groupId.equals("") ? "" : ", '" + groupId + "'") + ")\", 15000 );\n" +
-                   "                        }\n" +
-                   "                        window.location.reload();\n" +
+                   "                        setTimeout(worker, " + pollInterval + ");\n" +
                    "                    }\n" +
+                   "                },\n" +
+                   "                error : function(xmlHttpRequest, status, error) {\n" +
+                   "                    setTimeout(worker, " + pollInterval + ");\n" +
                    "                }\n" +
                    "            });\n" +
-                   "        })();\n" +
+                   "        }\n" +
+                   "        if (window.EventSource) {\n" +
+                   "            var source = new EventSource('/bbb-tool/waiting-room?meetingId=" + meetingId + (groupId.equals("") ? "" : "&groupId=" + groupId) + "');\n" +
+                   "            source.addEventListener('moderator', function() {\n" +
+                   "                source.close();\n" +
+                   "                moderatorJoined();\n" +
+                   "            });\n" +
+                   "            source.onerror = function() {\n" +
+                   "                // Closed for good (not a plain reconnection), fall back to polling.\n" +
+                   "                if (source.readyState === EventSource.CLOSED) {\n" +
+                   "                    worker();\n" +
+                   "                }\n" +
+                   "            };\n" +
+                   "        } else {\n" +
+                   "            worker();\n" +
+                   "        }\n" +
                    "    </script>\n" +
                    "  </head>\n" +
                    "  <body>\n" +
@@ -1085,25 +1027,7 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
             }
             map.put("roles", roles);
 
-            // users
-            List<Map<String, String>> users = new ArrayList<Map<String, String>>();
-            for (Member u : site.getMembers()) {
-                String displayName = null;
-                try {
-                    displayName = userDirectoryService.getUser(u.getUserId())
-                            .getDisplayName();
-                } catch (UserNotDefinedException e1) {
-                    log.warn("Could not retrieve displayName for userId: " + u.getUserId());
-                }
-
-                if (displayName != null) {
-                    Map<String, String> m = new HashMap<String, String>();
-                    m.put("id", u.getUserId());
-                    m.put("title", displayName + " (" + u.getUserDisplayId() + ")");
-                    users.add(m);
-                }
-            }
-            map.put("users", users);
+            // users are searched, see searchSiteMembers
 
             // defaults
             Map<String, String> dlfts = new HashMap<String, String>();
@@ -1119,6 +1043,77 @@ public class BBBMeetingEntityProvider extends AbstractEntityProvider implements
         }
     }
 
+    @EntityCustomAction(viewKey = EntityView.VIEW_LIST)
+    public ActionReturn searchSiteMembers(Map<String, Object> params) {
+
+        log.debug("searchSiteMembers");
+
+        String siteId = (String) params.get("siteId");
+        if (siteId == null) {
+            throw new IllegalArgumentException("Missing required parameter [siteId]");
+        }
+
+        try {
+            // A page of the members searched, never the whole roster.
+            int start = params.get("start") != null ? Integer.parseInt((String) params.get("start")) : 0;
+            int limit = params.get("limit") != null ? Integer.parseInt((String) params.get("limit")) : MEMBERS_PAGE_SIZE;
+            limit = Math.min(limit > 0 ? limit : MEMBERS_PAGE_SIZE, MEMBERS_MAX_PAGE_SIZE);
+            Map<String, Object> page = meetingManager.searchSiteMembers(siteId, (String) params.get("search"), start, limit);
+            page.put("start", start);
+            page.put("limit", limit);
+            return new ActionReturn(page);
+        } catch (SecurityException e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 403);
+        } catch (Exception e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 400);
+        }
+    }
+
+    /**
+     * The members with these ids, e.g. the participants of a meeting. Posted,
+     * as the ids of a few hundred users would not fit in a query string.
+     */
+    @EntityCustomAction(viewKey = EntityView.VIEW_NEW)
+    public ActionReturn getSiteMembers(Map<String, Object> params) {
+
+        log.debug("getSiteMembers");
+
+        String siteId = (String) params.get("siteId");
+        if (siteId == null) {
+            throw new IllegalArgumentException("Missing required parameter [siteId]");
+        }
+
+        try {
+            String userIds = (String) params.get("userIds");
+            List<String> ids = userIds == null || userIds.isEmpty() ? new ArrayList<String>() : Arrays.asList(userIds.split(","));
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put("users", meetingManager.getSiteMembers(siteId, ids));
+            return new ActionReturn(map);
+        } catch (SecurityException e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 403);
+        } catch (Exception e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 400);
+        }
+    }
+
+    @EntityCustomAction(viewKey = EntityView.VIEW_LIST)
+    public ActionReturn metrics(Map<String, Object> params) {
+
+        log.debug("metrics");
+
+        try {
+            // The Prometheus text exposition format
+            return new ActionReturn("UTF-8", "text/plain; version=0.0.4", meetingManager.getMetrics());
+        } catch (SecurityException e) {
+            String ref = Entity.SEPARATOR + BBBMeetingManager.ENTITY_PREFIX;
+            throw new EntityException(e.getMessage(), ref, 403);
+        }
+    }
+
     @EntityCustomAction(viewKey = EntityView.VIEW_LIST)
     public ActionReturn getNoticeText(Map<String, Object> params) {
 
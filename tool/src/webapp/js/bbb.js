@@ -16,6 +16,8 @@
 
 /* Stuff that we always expect to be setup */
 meetings.currentMeetings = [];
+meetings.meetingListState = { start: 0, sort: 'name', order: 'asc', search: '' };
+meetings.meetingListTotal = 0;
 meetings.currentRecordings = Array();
 meetings.checkOneMeetingAvailabilityId = null;
 meetings.checkAllMeetingAvailabilityId = null;
@@ -147,6 +149,8 @@ meetings.switchState = function (state, arg) {
             // Show meeting list.
             meetings.utils.render('bbb_rooms_template', {
                 'meetings': meetings.currentMeetings,
+                'listState': meetings.meetingListState,
+                'total': meetings.meetingListTotal
             }, 'bbb_content');
 
             // Show tool footer message only if site maintainer.
@@ -161,14 +165,20 @@ meetings.switchState = function (state, arg) {
                 return meetings.switchState('addUpdateMeeting');
             });
 
-            var $rows = $('#bbb_meeting_table tbody tr');
-            $('.search').keyup(function () {
-                var val = $.trim($(this).val()).replace(/ +/g, ' ').toLowerCase();
-
-                $rows.show().filter(function () {
-                    var text = $(this).text().replace(/\s+/g, ' ').toLowerCase();
-                    return !~text.indexOf(val);
-                }).hide();
+            // Search, sort and page the meeting list on the server.
+            var listState = meetings.meetingListState;
+            $('.search').val(listState.search).keyup(function () {
+                var search = $.trim($(this).val()).replace(/ +/g, ' ');
+                clearTimeout(meetings.searchMeetingsTimeoutId);
+                meetings.searchMeetingsTimeoutId = setTimeout(function () {
+                    if (search !== listState.search) {
+                        listState.search = search;
+                        listState.start = 0;
+                        meetings.switchState('currentMeetings');
+                        var $search = $('.search').focus();
+                        $search[0].setSelectionRange($search.val().length, $search.val().length);
+                    }
+                }, 300);
             });
 
             // Show links if user has appropriate permissions.
@@ -187,36 +197,26 @@ meetings.switchState = function (state, arg) {
                     jQuery(this).removeClass('bbb_even_row');
                 });
 
-            // Add parser for customized date format.
-            $.tablesorter.addParser({
-                id: "bbbDateTimeFormat",
-                is: function (s) {
-                    return false;
-                },
-                format: function (s, table) {
-                    return $.tablesorter.formatFloat(new Date(s).getTime());
-                },
-                type: "numeric"
+            $('#bbb_meeting_table th[data-sort]').each(function () {
+                var $th = $(this).addClass('bbb_sortable_table_header');
+                if ($th.data('sort') === listState.sort) {
+                    $th.addClass(listState.order === 'asc' ? 'bbb_sortable_table_header_sortup' : 'bbb_sortable_table_header_sortdown');
+                }
+            }).click(function () {
+                var sort = $(this).data('sort');
+                listState.order = (sort === listState.sort && listState.order === 'asc') ? 'desc' : 'asc';
+                listState.sort = sort;
+                listState.start = 0;
+                meetings.switchState('currentMeetings');
             });
 
-            // Add sorting capabilities.
-            $("#bbb_meeting_table").tablesorter({
-                cssHeader: 'bbb_sortable_table_header',
-                cssAsc: 'bbb_sortable_table_header_sortup',
-                cssDesc: 'bbb_sortable_table_header_sortdown',
-                headers: {
-                    2: {
-                        sorter: 'bbbDateTimeFormat'
-                    },
-                    3: {
-                        sorter: 'bbbDateTimeFormat'
-                    }
-                },
-                // Sort DESC status:
-                // sortList: (bbbCurrentMeetings.length > 0) ? [[0,1]] : []
-                sortList: (meetings.currentMeetings.length > 0) ? [
-                    [0, 0]
-                ] : []
+            $('#bbb_pager_previous').click(function () {
+                listState.start = Math.max(listState.start - meetings.settings.config.meetingsPageSize, 0);
+                meetings.switchState('currentMeetings');
+            });
+            $('#bbb_pager_next').click(function () {
+                listState.start += meetings.currentMeetings.length;
+                meetings.switchState('currentMeetings');
             });
 
             if (meetings.settings.config.autorefreshInterval.meetings > 0)
@@ -453,7 +453,24 @@ meetings.switchState = function (state, arg) {
                 }
             }
 
+            if (!meeting) {
+                // Not on the page of the meeting list, e.g. opened from a link.
+                meeting = meetings.utils.getMeeting(arg.meetingId);
+                if (meeting) {
+                    if (meeting.joinable) {
+                        meeting.joinableMode = "";
+                    }
+                    meetings.utils.setMeetingJoinableModeParams(meeting);
+                    meetings.currentMeetings.push(meeting);
+                }
+            }
+
             if (meeting) {
+                // The meeting list only holds what it shows, fetch the rest of the meeting once.
+                if (!meeting.properties) {
+                    jQuery.extend(meeting, meetings.utils.getMeeting(meeting.id));
+                }
+
                 var groups;
                 if (meeting.groupSessions && meetings.settings.config.addUpdateFormParameters.groupsessionsEnabled) {
                     groups = meetings.utils.getGroups(meeting);
@@ -518,8 +535,8 @@ meetings.switchState = function (state, arg) {
 
         // Show meeting list.
         if (meetings.userPerms.bbbViewMeetingList) {
-            // Get recording list.
-            meetings.refreshRecordingList();
+            // Get recording list, synchronized with the server first on an explicit refresh.
+            meetings.refreshRecordingList(null, null, arg && arg.refresh);
 
             meetings.utils.render('bbb_recordings_template', {
                 'recordings': meetings.currentRecordings,
@@ -736,7 +753,13 @@ meetings.addParticipantSelectionToUI = function (meeting, isNew) {
         }
 
     } else {
-        // Existing participants.
+        // Existing participants, the users looked up at once.
+        var userIds = [];
+        for (var i = 0; i < meeting.participants.length; i++) {
+            if (meeting.participants[i].selectionType == 'user') userIds.push(meeting.participants[i].selectionId);
+        }
+        var users = meetings.utils.getSiteMembers(userIds);
+
         for (var i = 0; i < meeting.participants.length; i++) {
             var selectionType = meeting.participants[i].selectionType;
             var selectionId = meeting.participants[i].selectionId;
@@ -746,7 +769,7 @@ meetings.addParticipantSelectionToUI = function (meeting, isNew) {
                 meetings.addParticipantRow('all', null, null, role == 'moderator');
             } else {
                 var opts = null;
-                if (selectionType == 'user') opts = selOptions['users'];
+                if (selectionType == 'user') opts = users;
                 if (selectionType == 'group') opts = selOptions['groups'];
                 if (selectionType == 'role') opts = selOptions['roles'];
 
@@ -767,9 +790,24 @@ meetings.updateParticipantSelectionUI = function () {
     var selType = jQuery('#selType').val();
     jQuery('#selOption option').remove();
 
-    if (selType == 'user' || selType == 'group' || selType == 'role') {
+    // Users are searched on the server, as they are typed.
+    var $search = jQuery('#selSearch').off('keyup');
+    if (selType == 'user') {
+        $search.val('').show().keyup(function () {
+            var search = jQuery.trim(jQuery(this).val());
+            clearTimeout(meetings.searchMembersTimeoutId);
+            meetings.searchMembersTimeoutId = setTimeout(function () {
+                meetings.searchParticipantUsers(search);
+            }, 300);
+        }).focus();
+        jQuery('#selOption').attr('disabled', 'disabled');
+        meetings.searchParticipantUsers('');
+        return;
+    }
+    $search.hide();
+
+    if (selType == 'group' || selType == 'role') {
         var opts = null;
-        if (selType == 'user') opts = selOptions['users'];
         if (selType == 'group') opts = selOptions['groups'];
         if (selType == 'role') opts = selOptions['roles'];
         for (var i = 0; i < opts.length; i++) {
@@ -788,6 +826,33 @@ meetings.updateParticipantSelectionUI = function () {
     }
 };
 
+meetings.searchParticipantUsers = function (search) {
+
+    meetings.utils.searchSiteMembers(search, 20, function (data) {
+
+        // Ignore the answer to a previous search.
+        if (jQuery('#selType').val() != 'user' || jQuery.trim(jQuery('#selSearch').val()) != search) return;
+
+        jQuery('#selOption option').remove();
+        for (var i = 0; i < data.users.length; i++) {
+            jQuery('#selOption').append(
+                jQuery('<option>').val(data.users[i]['id']).text(data.users[i]['title'])
+            );
+        }
+        if (data.total > data.users.length) {
+            jQuery('#selOption').append(
+                jQuery('<option disabled="disabled">').text(bbb_participants_more(data.total - data.users.length))
+            );
+        }
+
+        if (data.users.length > 0) {
+            jQuery('#selOption').removeAttr('disabled');
+        } else {
+            jQuery('#selOption').attr('disabled', 'disabled');
+        }
+    });
+};
+
 /** Insert a Participant row on create/edit meeting page */
 meetings.addParticipantRow = function (_selType, _id, _title, _moderator) {
 
@@ -899,7 +964,14 @@ meetings.updateMeetingInfo = function (meeting) {
 
 meetings.setMeetingList = function () {
 
-    meetings.currentMeetings = meetings.utils.getMeetingList(meetings.startupArgs.siteId);
+    var page = meetings.utils.getMeetingList(meetings.startupArgs.siteId, meetings.meetingListState);
+    if (page.meetings.length == 0 && meetings.meetingListState.start > 0) {
+        // The page is gone, e.g. its last meeting was deleted.
+        meetings.meetingListState.start = 0;
+        page = meetings.utils.getMeetingList(meetings.startupArgs.siteId, meetings.meetingListState);
+    }
+    meetings.currentMeetings = page.meetings;
+    meetings.meetingListTotal = page.total;
 
     // Watch for permissions changes, check meeting dates
     for (var i = 0; i < meetings.currentMeetings.length; i++) {
@@ -911,9 +983,9 @@ meetings.setMeetingList = function () {
     }
 };
 
-meetings.refreshRecordingList = function (meetingId, groupId) {
+meetings.refreshRecordingList = function (meetingId, groupId, refresh) {
 
-  const getRecordingResponse = (meetingId == null) ? meetings.utils.getSiteRecordingList(meetings.startupArgs.siteId) : meetings.utils.getMeetingRecordingList(meetingId, groupId);
+  const getRecordingResponse = (meetingId == null) ? meetings.utils.getSiteRecordingList(meetings.startupArgs.siteId, refresh) : meetings.utils.getMeetingRecordingList(meetingId, groupId);
 
   if (getRecordingResponse.returncode == 'SUCCESS') {
     meetings.currentRecordings = getRecordingResponse.recordings;
@@ -937,6 +1009,10 @@ meetings.refreshRecordingList = function (meetingId, groupId) {
         r.images = images;
       }
     });
+
+    if (getRecordingResponse.partial) {
+      meetings.utils.showMessage(bbb_warning_partial_recordings, 'warning');
+    }
   } else {
     meetings.currentRecordings = [];
 
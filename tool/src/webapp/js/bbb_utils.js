@@ -23,16 +23,25 @@
     // Get the current user from EB.
     meetings.utils.getSettings = function (siteId, callback) {
 
-        $.ajax({
-            url: "/direct/bbb-tool/getSettings.json?siteId=" + siteId,
-            dataType: "json",
-            success: function (s) {
-                meetings.settings = s;
-                callback();
-            },
-            error: function (xmlHttpRequest, status, error) {
-                meetings.utils.handleError(bbb_err_curr_user, xmlHttpRequest.status, xmlHttpRequest.statusText);
-            }
+        // The config shared by every user is cached by the browser, under its version.
+        $.when(
+            $.ajax({
+                url: "/direct/bbb-tool/getSettings.json?siteId=" + siteId,
+                dataType: "json"
+            }),
+            $.ajax({
+                url: "/bbb-tool/config?v=" + encodeURIComponent(meetings.startupArgs.configVersion),
+                dataType: "json",
+                cache: true
+            })
+        ).done(function (userSettings, toolConfig) {
+            var s = userSettings[0];
+            s.config = $.extend({}, toolConfig[0].config, s.config);
+            s.toolVersion = toolConfig[0].toolVersion;
+            meetings.settings = s;
+            callback();
+        }).fail(function (xmlHttpRequest, status, error) {
+            meetings.utils.handleError(bbb_err_curr_user, xmlHttpRequest.status, xmlHttpRequest.statusText);
         });
     };
 
@@ -56,25 +65,31 @@
         return meeting;
     };
 
-    // Get all site meetings.
-    meetings.utils.getMeetingList = function (siteId) {
+    // Get a page of the site meetings, along with their total.
+    meetings.utils.getMeetingList = function (siteId, listState) {
 
-        var list = [];
+        var page = { meetings: [], total: 0 };
         $.ajax({
-            url: "/direct/bbb-tool.json?siteId=" + siteId,
+            url: "/direct/bbb-tool/getSiteMeetings.json",
+            data: {
+                siteId: siteId,
+                start: listState.start,
+                limit: meetings.settings.config.meetingsPageSize,
+                sort: listState.sort,
+                order: listState.order,
+                search: listState.search
+            },
             dataType: "json",
             async: false,
-            success: function (m, status) {
-                list = m['bbb-tool_collection'];
-                if (!list) {
-                    list = [];
-                }
+            success: function (data, status) {
+                page.meetings = data.meetings ? data.meetings : [];
+                page.total = data.total ? data.total : 0;
             },
             error: function (xmlHttpRequest, status, error) {
                 meetings.utils.handleError(bbb_err_meeting_list, xmlHttpRequest.status, xmlHttpRequest.statusText);
             }
         });
-        return list;
+        return page;
     };
 
     // Upload selected file.
@@ -644,13 +659,13 @@
     };
 
     // Get site recordings from BBB server.
-    meetings.utils.getSiteRecordingList = function (siteId) {
+    meetings.utils.getSiteRecordingList = function (siteId, refresh) {
 
         if (siteId == null) siteId = "";
 
         var response = Object();
         jQuery.ajax({
-            url: "/direct/bbb-tool/getSiteRecordings.json?siteId=" + siteId,
+            url: "/direct/bbb-tool/getSiteRecordings.json?siteId=" + siteId + (refresh ? "&refresh=true" : ""),
             dataType: "json",
             async: false,
             success: function (data) {
@@ -746,15 +761,27 @@
     };
 
     // Check ALL meetings availability and update meeting details page if appropriate.
+    // The status of every meeting in the site comes in a single request.
     meetings.utils.checkAllMeetingAvailability = function () {
 
-        for (var i = 0, j = meetings.currentMeetings.length; i < j; i++) {
-            if (!meetings.currentMeetings[i].joinable) {
-                meetings.utils.setMeetingInfo(meetings.currentMeetings[i]);
+        jQuery.ajax({
+            url: "/direct/bbb-tool/getSiteMeetingsInfo.json?siteId=" + meetings.startupArgs.siteId,
+            dataType: "json",
+            timeout: 10000,
+            success: function (data) {
+                var meetingsInfo = data.meetings ? data.meetings : {};
+                for (var i = 0, j = meetings.currentMeetings.length; i < j; i++) {
+                    var meeting = meetings.currentMeetings[i];
+                    meetings.utils.setMeetingInfoParams(meeting, meetingsInfo[meeting.id]);
+                    meeting.groupActive = !!(meetingsInfo[meeting.id] && meetingsInfo[meeting.id].groupActive);
+                    meetings.utils.setMeetingJoinableModeParams(meeting);
+                    meetings.utils.checkMeetingAvailability(meeting);
+                }
+            },
+            error: function (xmlHttpRequest, status, error) {
+                meetings.utils.handleError(bbb_err_get_meeting, xmlHttpRequest.status, xmlHttpRequest.statusText);
             }
-            meetings.utils.setMeetingJoinableModeParams(meetings.currentMeetings[i]);
-            meetings.utils.checkMeetingAvailability(meetings.currentMeetings[i]);
-        }
+        });
     };
 
     // Check specific meeting availability and update meeting details page if appropriate.
@@ -1039,6 +1066,42 @@
         return meetings.utils.bbbUserSelectionOptions;
     };
 
+    // Search a page of the site members from EB.
+    meetings.utils.searchSiteMembers = function (search, limit, callback) {
+
+        jQuery.ajax({
+            url: "/direct/bbb-tool/searchSiteMembers.json",
+            data: { siteId: meetings.startupArgs.siteId, search: search, limit: limit },
+            dataType: "json",
+            success: callback,
+            error: function (xmlHttpRequest, status, error) {
+                meetings.utils.handleError(bbb_err_user_sel_options, xmlHttpRequest.status, xmlHttpRequest.statusText);
+            }
+        });
+    };
+
+    // Get the site members with these ids from EB. Posted, a few hundred ids don't fit in a url.
+    meetings.utils.getSiteMembers = function (userIds) {
+
+        var users = [];
+        if (userIds.length > 0) {
+            jQuery.ajax({
+                url: "/direct/bbb-tool/getSiteMembers.json",
+                type: 'POST',
+                data: { siteId: meetings.startupArgs.siteId, userIds: userIds.join(",") },
+                dataType: "json",
+                async: false,
+                success: function (data) {
+                    users = data.users;
+                },
+                error: function (xmlHttpRequest, status, error) {
+                    meetings.utils.handleError(bbb_err_user_sel_options, xmlHttpRequest.status, xmlHttpRequest.statusText);
+                }
+            });
+        }
+        return users;
+    };
+
     // Get the site permissions.
     meetings.utils.getSitePermissions = function () {
         var perms = [];